@@ -3,15 +3,15 @@ package io.miti.dbconn.console;
 import java.io.BufferedWriter;
 import java.io.Console;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStreamWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.channels.Channels;
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -26,6 +26,18 @@ import jline.console.ConsoleReader;
 import jline.console.completer.StringsCompleter;
 
 import io.miti.dbconn.app.ArgumentParser;
+import io.miti.dbconn.export.DatabaseExport;
+import io.miti.dbconn.export.ExportOutput;
+import io.miti.dbconn.export.ExportProgress;
+import io.miti.dbconn.export.ExportSettings;
+import io.miti.dbconn.export.ExportThrottle;
+import io.miti.dbconn.export.QueryExport;
+import io.miti.dbconn.export.TableExport;
+import io.miti.dbconn.load.CopySettings;
+import io.miti.dbconn.load.ImportSettings;
+import io.miti.dbconn.load.TableCopy;
+import io.miti.dbconn.load.TableImport;
+import io.miti.dbconn.util.CommandOptions;
 import io.miti.dbconn.util.ConnManager;
 import io.miti.dbconn.util.Content;
 import io.miti.dbconn.util.Database;
@@ -74,6 +86,7 @@ public final class LineConsole {
         try {
         	// Instantiate the console reader for the JLine2 library
             ConsoleReader console = new ConsoleReader();
+            ExportProgress.setConsole(console);
             
             // Set the prompt
             setPrompt(console);
@@ -170,6 +183,10 @@ public final class LineConsole {
 		
 	    // Parse the input command into a list of strings (supports quotes)
 	    final List<String> cmds = new LineParser().parseIntoPhrases(input);
+	    
+	    // Pull any "--name value" options off the data commands
+	    final CommandOptions options = (isDataCommand(cmds) ?
+	    		CommandOptions.extract(cmds, getFlagNames()) : new CommandOptions());
 		
 		// Process the command entered by the user
 		final String line = input.trim();
@@ -193,9 +210,35 @@ public final class LineConsole {
 		} else if (validateCommand(cmds, 2, "close", "database")) {
 			ConnManager.get().close();
 		} else if (validateCommand(cmds, 3, "export", "data")) {
-			exportTableData(cmds.get(2), null);
+			exportTableData(cmds.get(2), null, null, options);
 		} else if (validateCommand(cmds, 4, "export", "data")) {
-			exportTableData(cmds.get(2), cmds.get(3));
+			exportTableData(cmds.get(2), null, cmds.get(3), options);
+		} else if (validateCommand(cmds, 5, "export", "data") && cmds.get(3).equals("since")) {
+			exportTableData(cmds.get(2), cmds.get(4), null, options);
+		} else if (validateCommand(cmds, 6, "export", "data") && cmds.get(3).equals("since")) {
+			exportTableData(cmds.get(2), cmds.get(4), cmds.get(5), options);
+		} else if (validateCommand(cmds, 3, "export", "blobs")) {
+			exportTableBlobs(cmds.get(2), null, options);
+		} else if (validateCommand(cmds, 4, "export", "blobs")) {
+			exportTableBlobs(cmds.get(2), cmds.get(3), options);
+		} else if (validateCommand(cmds, 3, "export", "inserts")) {
+			exportTableInserts(cmds.get(2), null, options);
+		} else if (validateCommand(cmds, 4, "export", "inserts")) {
+			exportTableInserts(cmds.get(2), cmds.get(3), options);
+		} else if (validateCommand(cmds, 4, "export", "query")) {
+			exportQuery(cmds.get(2), cmds.get(3), options);
+		} else if (validateCommand(cmds, 2, "export", "options")) {
+			printExportOptions();
+		} else if (validateCommand(cmds, 2, "export", "database")) {
+			exportDatabase(options);
+		} else if (validateCommand(cmds, 4, "import", "data")) {
+			importTableData(cmds.get(2), cmds.get(3), options);
+		} else if (validateCommand(cmds, 2, "import", "options")) {
+			printImportOptions();
+		} else if (validateCommand(cmds, 7, "copy", "table")) {
+			copyTable(cmds, options, console);
+		} else if (validateCommand(cmds, 2, "copy", "options")) {
+			printCopyOptions();
 		} else if (validateCommand(cmds, 2, "check", "database")) {
 			boolean isValid = ConnManager.get().isValid();
 			System.out.println("Database valid? " + isValid);
@@ -225,6 +268,16 @@ public final class LineConsole {
       Database.useUserNameForSchema(true);
     } else if (validateCommand(cmds, 3, "meta", "username", "off")) {
       Database.useUserNameForSchema(false);
+		} else if (line.equals("fetchsize")) {
+			System.out.println("Fetch size: " + Database.getFetchSize());
+		} else if (validateCommand(cmds, 3, "set", "fetchsize")) {
+			setFetchSize(cmds.get(2));
+		} else if (line.equals("throttle")) {
+			printThrottle();
+		} else if (validateCommand(cmds, 3, "set", "max-rows-per-sec")) {
+			setThrottle(cmds.get(2), true);
+		} else if (validateCommand(cmds, 3, "set", "max-mb-per-sec")) {
+			setThrottle(cmds.get(2), false);
 		} else if (line.equals("gc")) {
 			gc();
 		} else if (line.equals("mem")) {
@@ -246,7 +299,7 @@ public final class LineConsole {
 		} else if (line.equals("connections")) {
 			printConnectionHistory();
 		} else if (validateCommand(cmds, 3, "export", "schema")) {
-			exportSchema(cmds.get(2));
+			exportSchema(cmds.get(2), options);
 		} else if (!line.startsWith("-")) {
 			// It's not a comment, so it's an unknown command
 			System.out.println("Unknown command");
@@ -312,93 +365,308 @@ public final class LineConsole {
     
     final Connection conn = ConnManager.get().getConn();
     ConnManager.connectToSchema(schemaName, conn);
+    ConnManager.get().setSchema(schemaName);
 	}
 	
 	
-	private void exportTableData(final String tableName, final String whereClause) {
+	private void setFetchSize(final String size) {
+		final int rows = Utility.getStringAsInteger(size, -1, -1);
+		if (rows < 0) {
+			System.out.println("The fetch size must be a non-negative number");
+		} else {
+			Database.setFetchSize(rows);
+			System.out.println("Fetch size: " + Database.getFetchSize());
+		}
+	}
+	
+	
+	private void setThrottle(final String value, final boolean isRows) {
+		final double rate = ExportSettings.parseRate(value);
+		if (Double.isNaN(rate)) {
+			System.out.println("The limit must be a non-negative number (0 for no limit)");
+		} else if (isRows) {
+			ExportThrottle.setSessionRowsPerSec(rate);
+			printThrottle();
+		} else {
+			ExportThrottle.setSessionMbPerSec(rate);
+			printThrottle();
+		}
+	}
+	
+	
+	private void printThrottle() {
+		final double rows = ExportThrottle.getSessionRowsPerSec();
+		final double mb = ExportThrottle.getSessionMbPerSec();
+		System.out.println("Export limits: " + ((rows > 0.0) ? (formatRate(rows) + " rows/s")
+				: "no row limit") + ", " + ((mb > 0.0) ? (formatRate(mb) + " MB/s") : "no MB limit"));
+	}
+	
+	
+	private static String formatRate(final double rate) {
+		return ((rate == Math.rint(rate)) ? Utility.formatLong((long) rate)
+				: String.valueOf(rate));
+	}
+	
+	
+	private void exportTableData(final String tableName, final String sinceColumn,
+								 final String whereClause, final CommandOptions options) {
+		// Check the options
+		final String unknown = options.findUnknown(ExportSettings.OPTION_NAMES);
+		if (unknown != null) {
+			System.out.println("Unknown option: --" + unknown);
+			return;
+		}
+		
+		final ExportSettings settings = ExportSettings.fromOptions(options);
+		if (settings == null) {
+			return;
+		}
+		
 		// Check the DB connection
 		if (!ConnManager.get().isValid()) {
 			System.out.println("No database connection found");
 		} else {
-			// Verify this table exists
-			List<String> info = Database.getTableNames(tableName);
-			if ((info == null) || info.isEmpty() || (info.size() > 1)) {
-				System.out.println("Error getting table data");
-				return;
-			}
-			
-			// Get the column names
-			List<List<String>> results = Database.getColumns(tableName, true);
-			if ((results == null) || results.isEmpty()) {
-				System.out.println("Error getting column information");
-				return;
+			TableExport export = new TableExport(tableName, whereClause, settings);
+			if (sinceColumn == null) {
+				export.run();
+			} else {
+				export.runSince(sinceColumn);
 			}
-			
-			System.out.println("Exporting table data for " + tableName + "...");
-			
-			// Build the query
-			StringBuilder sb = new StringBuilder(100);
-			StringBuilder sbHeaders = new StringBuilder(100);
-			sb.append("select ");
-			final int size = results.size();
-			for (int i = 0; i < size; ++i) {
-				if (i > 0) {
-					sb.append(", ");
-					sbHeaders.append(",");
-				}
-				sb.append(results.get(i).get(1));
-				sbHeaders.append(results.get(i).get(1));
+		}
+	}
+	
+	
+	private void exportTableBlobs(final String tableName, final String whereClause,
+								  final CommandOptions options) {
+		// Check the options
+		final String unknown = options.findUnknown(ExportSettings.OPTION_NAMES);
+		if (unknown != null) {
+			System.out.println("Unknown option: --" + unknown);
+			return;
+		}
+		
+		final ExportSettings settings = ExportSettings.fromOptions(options);
+		if (settings == null) {
+			return;
+		}
+		
+		// Check the DB connection
+		if (!ConnManager.get().isValid()) {
+			System.out.println("No database connection found");
+		} else {
+			new TableExport(tableName, whereClause, settings).runBlobs();
+		}
+	}
+	
+	
+	private void exportTableInserts(final String tableName, final String whereClause,
+									final CommandOptions options) {
+		// Check the options
+		final String unknown = options.findUnknown(ExportSettings.OPTION_NAMES);
+		if (unknown != null) {
+			System.out.println("Unknown option: --" + unknown);
+			return;
+		}
+		
+		final ExportSettings settings = ExportSettings.fromOptions(options);
+		if (settings == null) {
+			return;
+		}
+		
+		// Check the DB connection
+		if (!ConnManager.get().isValid()) {
+			System.out.println("No database connection found");
+		} else {
+			new TableExport(tableName, whereClause, settings).runInserts();
+		}
+	}
+	
+	
+	private void exportQuery(final String fileName, final String query,
+							 final CommandOptions options) {
+		// Check the options
+		final String unknown = options.findUnknown(ExportSettings.OPTION_NAMES);
+		if (unknown != null) {
+			System.out.println("Unknown option: --" + unknown);
+			return;
+		}
+		
+		final ExportSettings settings = ExportSettings.fromOptions(options);
+		if (settings == null) {
+			return;
+		}
+		
+		// Check the DB connection
+		if (!ConnManager.get().isValid()) {
+			System.out.println("No database connection found");
+		} else {
+			new QueryExport(query, settings).run(fileName);
+		}
+	}
+	
+	
+	private void printExportOptions() {
+		final List<List<String>> help = ExportSettings.getOptionHelp();
+		ListFormatter fmt = new ListFormatter(help);
+		System.out.print(ListFormatter.getTextLine(fmt.format(3, help)));
+	}
+	
+	
+	private void exportDatabase(final CommandOptions options) {
+		// Check the options
+		final String unknown = options.findUnknown(ExportSettings.OPTION_NAMES);
+		if (unknown != null) {
+			System.out.println("Unknown option: --" + unknown);
+			return;
+		}
+		
+		final ExportSettings settings = ExportSettings.fromOptions(options);
+		if (settings == null) {
+			return;
+		}
+		
+		// Check the DB connection
+		if (!ConnManager.get().isValid()) {
+			System.out.println("No database connection found");
+		} else {
+			new DatabaseExport(settings).run();
+		}
+	}
+	
+	
+	private void importTableData(final String tableName, final String fileName,
+								 final CommandOptions options) {
+		// Check the options
+		final String unknown = options.findUnknown(ImportSettings.OPTION_NAMES);
+		if (unknown != null) {
+			System.out.println("Unknown option: --" + unknown);
+			return;
+		}
+		
+		final ImportSettings settings = ImportSettings.fromOptions(options);
+		if (settings == null) {
+			return;
+		}
+		
+		// Check the DB connection
+		if (!ConnManager.get().isValid()) {
+			System.out.println("No database connection found");
+		} else {
+			new TableImport(tableName, settings).run(fileName);
+		}
+	}
+	
+	
+	private void printImportOptions() {
+		final List<List<String>> help = ImportSettings.getOptionHelp();
+		ListFormatter fmt = new ListFormatter(help);
+		System.out.print(ListFormatter.getTextLine(fmt.format(3, help)));
+	}
+	
+	
+	private void copyTable(final List<String> cmds, final CommandOptions options,
+						   final ConsoleReader console) {
+		if (!cmds.get(3).equals("from") || !cmds.get(5).equals("to")) {
+			System.out.println("Format: copy table <table name> from <connection> to <connection>");
+			return;
+		}
+		
+		// Check the options
+		final String unknown = options.findUnknown(CopySettings.OPTION_NAMES);
+		if (unknown != null) {
+			System.out.println("Unknown option: --" + unknown);
+			return;
+		}
+		
+		final CopySettings settings = CopySettings.fromOptions(options);
+		final Connection source = openCopyConnection(cmds.get(4), settings.getFromUser(),
+				settings.getFromPassword(), console);
+		if (source == null) {
+			return;
+		}
+		
+		final Connection target = openCopyConnection(cmds.get(6), settings.getToUser(),
+				settings.getToPassword(), console);
+		if (target != null) {
+			new TableCopy(cmds.get(2), settings).run(source, target);
+			closeConnection(target);
+		}
+		closeConnection(source);
+	}
+	
+	
+	/**
+	 * Open a new connection for a copy.  The name is "current" for the
+	 * database of the current connection, the number of a URL in the
+	 * connection history, or a JDBC URL.
+	 * 
+	 * @param name the connection name
+	 * @param user the user name, or null to prompt for it
+	 * @param pw the password, or null to prompt for it
+	 * @param console the console reader
+	 * @return the connection, or null on an error
+	 */
+	private Connection openCopyConnection(final String name, final String user,
+										  final String pw, final ConsoleReader console) {
+		if (name.equals("current")) {
+			if (!ConnManager.get().isValid()) {
+				System.out.println("No database connection found");
+				return null;
 			}
-			sb.append(" from ").append(tableName);
-			
-			// If there's a where/order-by clause, add it
-			if ((whereClause != null) && !whereClause.trim().isEmpty()) {
-				sb.append(" ").append(whereClause.trim());
+			return ConnManager.get().openConnection();
+		}
+		
+		String url = name;
+		final int selection = Utility.getStringAsInteger(name, -1, -1);
+		if (selection > 0) {
+			List<String> history = new ArrayList<String>(10);
+			Iterator<String> iter = ConnManager.get().getHistory();
+			while (iter.hasNext()) {
+				history.add(iter.next());
 			}
 			
-			// Select the data
-			List<List<String>> data = Database.executeSelect(sb.toString(), size);
-			
-			// Create the output file
-			final String fname = tableName + ".csv";
-			
-			// Save it to a CSV file
-			try {
-				PrintWriter pw = new PrintWriter(fname, "UTF-8");
-				pw.println(sbHeaders.toString());
-				for (List<String> row : data) {
-					pw.println(getAsCSVLine(row));
-				}
-				
-				pw.flush();
-				pw.close();
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			} catch (UnsupportedEncodingException e) {
-				e.printStackTrace();
+			if (selection > history.size()) {
+				System.out.println("Illegal selection: " + name);
+				return null;
 			}
-			
-			System.out.println("Data saved to " + fname);
+			url = history.get(selection - 1);
 		}
-	}
-
-
-	private String getAsCSVLine(List<String> row) {
-		StringBuilder sb = new StringBuilder(100);
-		if ((row == null) || row.isEmpty()) {
-			return "";
+		
+		if (!url.startsWith("jdbc:")) {
+			System.out.println("Unknown connection " + name
+					+ " (use current, a number from 'select connection', or a JDBC URL)");
+			return null;
 		}
 		
-		boolean firstField = true;
-		for (String field : row) {
-			if (!firstField) {
-				sb.append(",");
-			}
-			firstField = false;
-			sb.append(Utility.quoteString(field));
+		System.out.println("Connecting to " + url);
+		final String userName = (user != null) ? user : getUserName(console);
+		if ((userName == null) || (userName.trim().isEmpty())) {
+			System.out.println("User name not specified.  Aborting connection attempt.");
+			return null;
+		}
+		
+		final String password = (pw != null) ? pw : getPassword(console);
+		if (loadClassNames) {
+			JdbcManager.get().loadClassByUrl(url);
 		}
 		
-		return sb.toString();
+		return ConnManager.get().openConnection(url, userName, password);
+	}
+	
+	
+	private static void closeConnection(final Connection conn) {
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			Logger.error(e);
+		}
+	}
+	
+	
+	private void printCopyOptions() {
+		final List<List<String>> help = CopySettings.getOptionHelp();
+		ListFormatter fmt = new ListFormatter(help);
+		System.out.print(ListFormatter.getTextLine(fmt.format(3, help)));
 	}
 	
 	
@@ -418,7 +686,16 @@ public final class LineConsole {
 	}
 	
 	
-	private void exportSchema(final String filename) {
+	private void exportSchema(final String filename, final CommandOptions options) {
+		// Check the options
+		final String unknown = options.findUnknown("gzip", "gzip-threads");
+		if (unknown != null) {
+			System.out.println("Unknown option: --" + unknown);
+			return;
+		}
+		
+		final ExportSettings settings = ExportSettings.fromOptions(options);
+		
 		// Check the DB connection
 		if (!ConnManager.get().isValid()) {
 			System.out.println("No database connection found");
@@ -489,7 +766,8 @@ public final class LineConsole {
 		    sb.append("</tables>").append(lineEnd);
 		    
 		    // Get the output file name
-		    File file = new File(filename);
+		    File file = new File((settings.isGzip() && !filename.endsWith(".gz"))
+		    		? (filename + ".gz") : filename);
 		    if ((file.exists()) && file.isDirectory())
 		    {
 		      System.out.println("The output file name is a directory. Stopping.");
@@ -500,7 +778,9 @@ public final class LineConsole {
 		    boolean result = false;
 		    try
 		    {
-		      BufferedWriter bf = new BufferedWriter(new FileWriter(file));
+		      BufferedWriter bf = new BufferedWriter(settings.isGzip()
+		    		  ? new OutputStreamWriter(Channels.newOutputStream(ExportOutput.open(file, settings)))
+		    		  : new FileWriter(file));
 		      bf.write(sb.toString());
 		      bf.close();
 		      bf = null;
@@ -934,6 +1214,34 @@ public final class LineConsole {
 	}
 	
 	
+	/**
+	 * Return whether the command accepts "--name value" options.
+	 * 
+	 * @param cmds the list of strings entered by the user
+	 * @return whether the command accepts options
+	 */
+	private static boolean isDataCommand(final List<String> cmds) {
+		return ((cmds != null) && !cmds.isEmpty()
+				&& (cmds.get(0).equals("export") || cmds.get(0).equals("import")
+						|| cmds.get(0).equals("copy")));
+	}
+
+
+	/**
+	 * Return the options of the data commands that take no value,
+	 * so they don't take the next phrase of a command as a value.
+	 *
+	 * @return the option names
+	 */
+	private static Set<String> getFlagNames() {
+		Set<String> names = new HashSet<String>(20);
+		names.addAll(Arrays.asList(ExportSettings.FLAG_NAMES));
+		names.addAll(Arrays.asList(ImportSettings.FLAG_NAMES));
+		names.addAll(Arrays.asList(CopySettings.FLAG_NAMES));
+		return names;
+	}
+
+
 	/**
 	 * Validate a command entered by the user.
 	 * 
@@ -1006,13 +1314,23 @@ public final class LineConsole {
 		
 		final String[] array = new String[]{"debug", "debug off", "debug on",
 				"help", "quit", "gc", "mem", "time", "version",
-				"count tables", "export data <table name> [<where-clause>]",
+				"count tables", "export data <table name> [<where-clause>] [<options>]",
+				"export data <table name> since <column> [<where-clause>] [<options>]",
+				"export blobs <table name> [<where-clause>] [<options>]",
+				"export inserts <table name> [<where-clause>] [<options>]",
+				"export query <filename> \"<select statement>\" [<options>]",
+				"export database [<options>]", "export options",
+				"import data <table name> <filename> [<options>]", "import options",
+				"copy table <table name> from <connection> to <connection> [<options>]",
+				"copy options",
+				"fetchsize", "set fetchsize <n>", "throttle",
+				"set max-rows-per-sec <n>", "set max-mb-per-sec <n>",
 				"cat <file>", "head <file>", "dir [<path>]",
 				"meta username", "meta username on", "meta username off",
 				"time <command>", "select schema <schema name>",
 				"count rows <table>", "dbinfo", "list schemas",
 				"check database", "list tables", "connections",
-				"select connection", "describe table", "export schema <filename>",
+				"select connection", "describe table", "export schema <filename> [--gzip]",
 				"connect <URL> [<user> [<pw>]]", "close database",
 				"help <start of a command>", "jar <filename>"};
 		supportedCommands = Arrays.asList(array);
@@ -0,0 +1,1247 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import io.miti.dbconn.util.RowHandler;
+import io.miti.dbconn.util.TableColumn;
+
+/**
+ * Write the rows of a query as an Arrow IPC stream (.arrows), which
+ * pyarrow (pyarrow.ipc.open_stream), DuckDB and other Arrow tools
+ * read without parsing.  The rows are collected into columnar record
+ * batches of up to 64K rows, each column with a validity bitmap.
+ * <p>
+ * The types come from the column readers: integers, floating point,
+ * decimals (128-bit, when the precision is known), booleans, dates
+ * (days), timestamps (microseconds, without a time zone, so they
+ * keep the local wall-clock time), strings and binary.  A string
+ * column whose first batch has at most half as many distinct values
+ * as rows is dictionary encoded, with later batches sending only the
+ * new values as delta dictionaries.  Once a dictionary holds more than
+ * 64K values, it is replaced: the next batch starts a new dictionary
+ * with only the values it uses.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class ArrowWriter implements RowHandler, ValueSink
+{
+	/** The most rows in a record batch. */
+	private static final int BATCH_ROWS = 65536;
+
+	/** The size of a record batch at which it is written early. */
+	private static final long BATCH_BYTES = 64L * 1024L * 1024L;
+
+	/** The most distinct values kept in the dictionary of a column. */
+	private static final int MAX_DICTIONARY = 65536;
+
+	/** The Arrow metadata version (V5). */
+	private static final int METADATA_VERSION = 4;
+
+	/** The message header types. */
+	private static final int HEADER_SCHEMA = 1;
+	private static final int HEADER_DICTIONARY = 2;
+	private static final int HEADER_RECORD_BATCH = 3;
+
+	/** The Arrow type ids. */
+	private static final int TYPE_INT = 2;
+	private static final int TYPE_FLOAT = 3;
+	private static final int TYPE_BINARY = 4;
+	private static final int TYPE_UTF8 = 5;
+	private static final int TYPE_BOOL = 6;
+	private static final int TYPE_DECIMAL = 7;
+	private static final int TYPE_DATE = 8;
+	private static final int TYPE_TIMESTAMP = 10;
+
+	/** The milliseconds in a day. */
+	private static final long DAY_MILLIS = 24L * 60L * 60L * 1000L;
+
+	/** The output file. */
+	private final File file;
+
+	/** The stream for the output file. */
+	private FileOutputStream stream = null;
+
+	/** The channel for the output file. */
+	private FileChannel channel = null;
+
+	/** The readers for each column. */
+	private ColumnReader[] readers = null;
+
+	/** The column names. */
+	private String[] names = null;
+
+	/** Whether each column can hold nulls. */
+	private boolean[] nullable = null;
+
+	/** The values of each column in the current batch. */
+	private Column[] columns = null;
+
+	/** The column the next value goes to. */
+	private Column current = null;
+
+	/** The number of rows in the current batch. */
+	private int batchRows = 0;
+
+	/** Whether the schema has been written. */
+	private boolean schemaWritten = false;
+
+	/** The number of rows written. */
+	private long rowCount = 0L;
+
+	/** The number of bytes written. */
+	private long byteCount = 0L;
+
+	/** The progress of the export. */
+	private ExportProgress progress = ExportProgress.hidden();
+
+	/** The local time zone, for dates and timestamps. */
+	private final TimeZone zone = TimeZone.getDefault();
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file the output file
+	 */
+	public ArrowWriter(final File file) {
+		super();
+		this.file = file;
+	}
+
+
+	@Override
+	public void startResults(final ResultSetMetaData metaData)
+			throws SQLException, IOException {
+		readers = ColumnReader.forMetaData(metaData);
+		final int numColumns = readers.length;
+		names = new String[numColumns];
+		nullable = new boolean[numColumns];
+		columns = new Column[numColumns];
+		for (int i = 0; i < numColumns; ++i) {
+			names[i] = metaData.getColumnLabel(i + 1);
+			nullable[i] = (metaData.isNullable(i + 1) != ResultSetMetaData.columnNoNulls);
+			columns[i] = newColumn(readers[i], metaData.getColumnType(i + 1),
+					metaData.getPrecision(i + 1), metaData.getScale(i + 1));
+		}
+
+		stream = new FileOutputStream(file);
+		channel = stream.getChannel();
+	}
+
+
+	/**
+	 * Return the column for the values from a reader.
+	 *
+	 * @param reader the column reader
+	 * @param sqlType the JDBC type
+	 * @param precision the precision of a decimal column
+	 * @param scale the scale of a decimal column
+	 * @return the column
+	 */
+	private Column newColumn(final ColumnReader reader, final int sqlType,
+			final int precision, final int scale) {
+		switch (reader.getColType()) {
+			case TableColumn.COL_INT:
+			case TableColumn.COL_SHORT:
+				return new IntColumn();
+
+			case TableColumn.COL_LONG:
+				return new LongColumn();
+
+			case TableColumn.COL_FLOAT:
+			case TableColumn.COL_DOUBLE:
+				return ((sqlType == Types.REAL) ? new FloatColumn() : new DoubleColumn());
+
+			case TableColumn.COL_DECIMAL:
+				// Without a usable precision, keep the exact digits as text
+				if ((precision > 0) && (precision <= 38) && (scale >= 0) && (scale <= precision)) {
+					return new DecimalColumn(precision, scale);
+				}
+				return new Utf8Column();
+
+			case TableColumn.COL_BOOLEAN:
+				return new BoolColumn();
+
+			case TableColumn.COL_DATE:
+				return ((sqlType == Types.DATE) ? new DateColumn() : new TimestampColumn());
+
+			default:
+				return (reader.isStreamed() && (reader.getColType() != TableColumn.COL_CLOB))
+						? new BinaryColumn() : new Utf8Column();
+		}
+	}
+
+
+	@Override
+	public boolean processRow(final ResultSet rs) throws SQLException, IOException {
+		final int numColumns = readers.length;
+		long batchBytes = 0L;
+		for (int i = 0; i < numColumns; ++i) {
+			current = columns[i];
+			readers[i].read(rs, i + 1, this);
+			current.length++;
+			batchBytes += current.getSize();
+		}
+
+		++rowCount;
+		if ((++batchRows >= BATCH_ROWS) || (batchBytes >= BATCH_BYTES)) {
+			writeBatch();
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Write the last batch and the end-of-stream marker, and close the file.
+	 *
+	 * @throws IOException an output exception
+	 */
+	public void close() throws IOException {
+		if (channel == null) {
+			return;
+		}
+
+		try {
+			if ((batchRows > 0) || !schemaWritten) {
+				writeBatch();
+			}
+
+			final ByteBuffer end = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			end.putInt(-1).putInt(0).flip();
+			write(end);
+		} finally {
+			stream.close();
+			channel = null;
+		}
+	}
+
+
+	/**
+	 * Write the current batch, after the schema and any new
+	 * dictionary values.
+	 *
+	 * @throws IOException an output exception
+	 */
+	private void writeBatch() throws IOException {
+		if (!schemaWritten) {
+			chooseDictionaries();
+			writeSchema();
+			schemaWritten = true;
+		}
+
+		final int numColumns = columns.length;
+		for (int i = 0; i < numColumns; ++i) {
+			if (columns[i] instanceof DictionaryColumn) {
+				((DictionaryColumn) columns[i]).writeDictionary(i);
+			}
+		}
+
+		final Body body = new Body();
+		final long[] nodes = new long[2 * numColumns];
+		for (int i = 0; i < numColumns; ++i) {
+			nodes[2 * i] = columns[i].length;
+			nodes[(2 * i) + 1] = columns[i].nullCount;
+			columns[i].addBuffers(body);
+		}
+
+		final FlatBuilder.Table batch = new FlatBuilder.Table()
+			.addLong(0, batchRows)
+			.addStructs(1, 2, nodes)
+			.addStructs(2, 2, body.getBufferSpecs());
+		writeMessage(HEADER_RECORD_BATCH, batch, body);
+
+		progress.add(batchRows, 0L);
+		for (Column column : columns) {
+			column.clear();
+		}
+		batchRows = 0;
+	}
+
+
+	/**
+	 * Dictionary encode the string columns with few distinct values
+	 * in the first batch.
+	 *
+	 * @throws IOException an output exception
+	 */
+	private void chooseDictionaries() throws IOException {
+		final int numColumns = columns.length;
+		for (int i = 0; i < numColumns; ++i) {
+			if (columns[i] instanceof Utf8Column) {
+				final Utf8Column column = (Utf8Column) columns[i];
+				if ((column.ids != null) && (column.length > 1)
+						&& ((column.ids.size() * 2) <= column.length)) {
+					columns[i] = new DictionaryColumn(column);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Write the schema message.
+	 *
+	 * @throws IOException an output exception
+	 */
+	private void writeSchema() throws IOException {
+		final int numColumns = columns.length;
+		final List<FlatBuilder.Table> fields = new ArrayList<FlatBuilder.Table>(numColumns);
+		for (int i = 0; i < numColumns; ++i) {
+			final Column column = columns[i];
+			final FlatBuilder.Table field = new FlatBuilder.Table()
+				.addString(0, names[i])
+				.addBool(1, nullable[i])
+				.addUnion(2, column.getTypeId(), column.getType())
+				.addTables(5, new ArrayList<FlatBuilder.Table>(0));
+			if (column instanceof DictionaryColumn) {
+				field.addTable(4, new FlatBuilder.Table()
+					.addLong(0, i)
+					.addTable(1, new FlatBuilder.Table().addInt(0, 32).addBool(1, true))
+					.addBool(2, false));
+			}
+			fields.add(field);
+		}
+
+		final FlatBuilder.Table schema = new FlatBuilder.Table()
+			.addShort(0, 0)
+			.addTables(1, fields);
+		writeMessage(HEADER_SCHEMA, schema, new Body());
+	}
+
+
+	/**
+	 * Write a message: the continuation marker, the length of the
+	 * metadata, the metadata (padded to 8 bytes), and the body.
+	 *
+	 * @param headerType the type of the message header
+	 * @param header the message header
+	 * @param body the body
+	 * @throws IOException an output exception
+	 */
+	private void writeMessage(final int headerType, final FlatBuilder.Table header,
+			final Body body) throws IOException {
+		final FlatBuilder.Table message = new FlatBuilder.Table()
+			.addShort(0, METADATA_VERSION)
+			.addUnion(1, headerType, header)
+			.addLong(3, body.length);
+		final byte[] metadata = FlatBuilder.encode(message);
+		final int padded = (metadata.length + 7) & ~7;
+
+		final ByteBuffer prefix = ByteBuffer.allocate(8 + padded).order(ByteOrder.LITTLE_ENDIAN);
+		prefix.putInt(-1).putInt(padded).put(metadata);
+		prefix.position(0);
+		write(prefix);
+
+		for (Bytes buffer : body.buffers) {
+			write(ByteBuffer.wrap(buffer.data, 0, buffer.size));
+			final int padding = Body.pad(buffer.size) - buffer.size;
+			if (padding > 0) {
+				write(ByteBuffer.allocate(padding));
+			}
+		}
+	}
+
+
+	/**
+	 * Write a buffer to the file, and count its bytes.
+	 *
+	 * @param buf the buffer
+	 * @throws IOException an output exception
+	 */
+	private void write(final ByteBuffer buf) throws IOException {
+		byteCount += buf.remaining();
+		progress.add(0L, buf.remaining());
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+	}
+
+
+	/**
+	 * Return the number of rows written.
+	 *
+	 * @return the number of rows
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+
+	/**
+	 * Return the number of bytes written.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+
+	/**
+	 * Set the progress to add the rows and bytes written to.
+	 *
+	 * @param exportProgress the progress of the export
+	 */
+	void setProgress(final ExportProgress exportProgress) {
+		progress = exportProgress;
+	}
+
+
+	@Override
+	public void writeNull() throws IOException {
+		current.addNull();
+	}
+
+
+	@Override
+	public void writeInt(final int value) throws IOException {
+		current.setValid();
+		current.values.putInt(value);
+	}
+
+
+	@Override
+	public void writeLong(final long value) throws IOException {
+		current.setValid();
+		current.values.putLong(value);
+	}
+
+
+	@Override
+	public void writeFloat(final float value) throws IOException {
+		current.setValid();
+		current.values.putInt(Float.floatToRawIntBits(value));
+	}
+
+
+	@Override
+	public void writeDouble(final double value) throws IOException {
+		current.setValid();
+		current.values.putLong(Double.doubleToRawLongBits(value));
+	}
+
+
+	@Override
+	public void writeDecimal(final BigDecimal value) throws IOException {
+		current.setValid();
+		current.writeDecimal(value);
+	}
+
+
+	@Override
+	public void writeBoolean(final boolean value) throws IOException {
+		current.setValid();
+		current.values.setBit(current.length, value);
+	}
+
+
+	@Override
+	public void writeDate(final Date value) throws IOException {
+		current.setValid();
+		current.values.putInt((int) floorDiv(toLocalMillis(value.getTime()), DAY_MILLIS));
+	}
+
+
+	@Override
+	public void writeTimestamp(final Timestamp value) throws IOException {
+		current.setValid();
+		final long seconds = floorDiv(toLocalMillis(value.getTime()), 1000L);
+		current.values.putLong((seconds * 1000000L) + (value.getNanos() / 1000));
+	}
+
+
+	@Override
+	public void writeText(final String value) throws IOException {
+		current.setValid();
+		current.writeText(value);
+	}
+
+
+	@Override
+	public void writeBinary(final InputStream in) throws IOException {
+		current.setValid();
+		final Bytes data = current.data;
+		int len;
+		do {
+			data.ensure(8192);
+			len = in.read(data.data, data.size, data.data.length - data.size);
+			if (len > 0) {
+				data.size += len;
+			}
+		} while (len >= 0);
+		current.values.putInt(data.size);
+	}
+
+
+	@Override
+	public void writeCharacters(final Reader in) throws IOException {
+		final StringBuilder sb = new StringBuilder(8192);
+		final char[] buf = new char[8192];
+		int len;
+		while ((len = in.read(buf)) >= 0) {
+			sb.append(buf, 0, len);
+		}
+		writeText(sb.toString());
+	}
+
+
+	/**
+	 * Shift a time to the local wall-clock time, as if it were UTC.
+	 *
+	 * @param millis the milliseconds since 1970 (UTC)
+	 * @return the local milliseconds since 1970
+	 */
+	private long toLocalMillis(final long millis) {
+		return millis + zone.getOffset(millis);
+	}
+
+
+	/**
+	 * Divide, rounding toward negative infinity.
+	 *
+	 * @param value the dividend
+	 * @param divisor the divisor (greater than 0)
+	 * @return the quotient, rounded down
+	 */
+	private static long floorDiv(final long value, final long divisor) {
+		final long quotient = value / divisor;
+		return (((value % divisor) < 0L) ? (quotient - 1L) : quotient);
+	}
+
+
+	/**
+	 * A growable little-endian byte buffer.
+	 */
+	private static final class Bytes
+	{
+		/** The bytes. */
+		private byte[] data;
+
+		/** The number of bytes used. */
+		private int size = 0;
+
+
+		/**
+		 * Constructor.
+		 *
+		 * @param capacity the initial capacity
+		 */
+		Bytes(final int capacity) {
+			super();
+			data = new byte[capacity];
+		}
+
+
+		/**
+		 * Make room for more bytes.
+		 *
+		 * @param more the number of bytes to add
+		 */
+		void ensure(final int more) {
+			if ((size + more) > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, size + more));
+			}
+		}
+
+
+		/**
+		 * Add a 32-bit value.
+		 *
+		 * @param value the value
+		 */
+		void putInt(final int value) {
+			ensure(4);
+			data[size++] = (byte) value;
+			data[size++] = (byte) (value >>> 8);
+			data[size++] = (byte) (value >>> 16);
+			data[size++] = (byte) (value >>> 24);
+		}
+
+
+		/**
+		 * Add a 64-bit value.
+		 *
+		 * @param value the value
+		 */
+		void putLong(final long value) {
+			putInt((int) value);
+			putInt((int) (value >>> 32));
+		}
+
+
+		/**
+		 * Add an array of bytes.
+		 *
+		 * @param bytes the bytes
+		 */
+		void put(final byte[] bytes) {
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, data, size, bytes.length);
+			size += bytes.length;
+		}
+
+
+		/**
+		 * Set a bit, growing the buffer to hold it.  The buffer must
+		 * be cleared before it is reused.
+		 *
+		 * @param index the bit index
+		 * @param value the bit value
+		 */
+		void setBit(final int index, final boolean value) {
+			final int byteIndex = index >> 3;
+			if (byteIndex >= size) {
+				ensure(byteIndex + 1 - size);
+				size = byteIndex + 1;
+			}
+			if (value) {
+				data[byteIndex] |= (byte) (1 << (index & 7));
+			}
+		}
+
+
+		/**
+		 * Zero the bytes used, and empty the buffer.
+		 */
+		void clear() {
+			Arrays.fill(data, 0, size, (byte) 0);
+			size = 0;
+		}
+	}
+
+
+	/**
+	 * The buffers of a message body, each padded to 8 bytes.
+	 */
+	private static final class Body
+	{
+		/** The buffers. */
+		private final List<Bytes> buffers = new ArrayList<Bytes>(16);
+
+		/** The offset and length of each buffer. */
+		private final List<Long> specs = new ArrayList<Long>(32);
+
+		/** The padded length of the body. */
+		private long length = 0L;
+
+
+		/**
+		 * Default constructor.
+		 */
+		Body() {
+			super();
+		}
+
+
+		/**
+		 * Add a buffer to the body.
+		 *
+		 * @param buffer the buffer
+		 */
+		void add(final Bytes buffer) {
+			buffers.add(buffer);
+			specs.add(Long.valueOf(length));
+			specs.add(Long.valueOf(buffer.size));
+			length += pad(buffer.size);
+		}
+
+
+		/**
+		 * Return the offset and length of each buffer.
+		 *
+		 * @return the offsets and lengths, in pairs
+		 */
+		long[] getBufferSpecs() {
+			final long[] values = new long[specs.size()];
+			for (int i = 0; i < values.length; ++i) {
+				values[i] = specs.get(i).longValue();
+			}
+			return values;
+		}
+
+
+		/**
+		 * Round a size up to a multiple of 8.
+		 *
+		 * @param size the size
+		 * @return the padded size
+		 */
+		static int pad(final int size) {
+			return ((size + 7) & ~7);
+		}
+	}
+
+
+	/**
+	 * The values of one column in the current batch.
+	 */
+	private abstract static class Column
+	{
+		/** The validity bitmap. */
+		protected final Bytes validity = new Bytes(1024);
+
+		/** The fixed-width values, or the offsets of variable-width values. */
+		protected final Bytes values = new Bytes(8192);
+
+		/** The bytes of variable-width values. */
+		protected Bytes data = null;
+
+		/** The number of values. */
+		protected int length = 0;
+
+		/** The number of nulls. */
+		protected int nullCount = 0;
+
+
+		/**
+		 * Return the Arrow type ID of the column.
+		 *
+		 * @return the type ID
+		 */
+		abstract int getTypeId();
+
+
+		/**
+		 * Return the Arrow type table of the column.
+		 *
+		 * @return the type table
+		 */
+		abstract FlatBuilder.Table getType();
+
+
+		/**
+		 * Mark the next value as not null.
+		 */
+		void setValid() {
+			validity.setBit(length, true);
+		}
+
+
+		/**
+		 * Add a null, with a placeholder for its value.
+		 */
+		void addNull() {
+			validity.setBit(length, false);
+			++nullCount;
+			addEmptyValue();
+		}
+
+
+		/**
+		 * Add a placeholder value, for a null.
+		 */
+		abstract void addEmptyValue();
+
+
+		/**
+		 * Add a text value; only text columns accept one.
+		 *
+		 * @param value the text
+		 * @throws IOException an output exception
+		 */
+		void writeText(final String value) throws IOException {
+			throw new IllegalStateException("Unexpected text value");
+		}
+
+
+		/**
+		 * Add a decimal value; only decimal columns accept one.
+		 *
+		 * @param value the decimal
+		 * @throws IOException an output exception
+		 */
+		void writeDecimal(final BigDecimal value) throws IOException {
+			throw new IllegalStateException("Unexpected decimal value");
+		}
+
+
+		/**
+		 * Add the buffers of the column to a message body.  The validity
+		 * bitmap is left empty when there are no nulls.
+		 *
+		 * @param body the message body
+		 */
+		void addBuffers(final Body body) {
+			body.add((nullCount == 0) ? new Bytes(0) : validity);
+			body.add(values);
+			if (data != null) {
+				body.add(data);
+			}
+		}
+
+
+		/**
+		 * Return the number of bytes of values in the batch.
+		 *
+		 * @return the size of the values
+		 */
+		long getSize() {
+			return values.size + ((data == null) ? 0 : data.size);
+		}
+
+
+		/**
+		 * Empty the column, for the next batch.
+		 */
+		void clear() {
+			validity.clear();
+			values.clear();
+			if (data != null) {
+				data.clear();
+			}
+			length = 0;
+			nullCount = 0;
+		}
+	}
+
+
+	/** A 32-bit integer column. */
+	private static final class IntColumn extends Column
+	{
+		@Override
+		int getTypeId() {
+			return TYPE_INT;
+		}
+
+		@Override
+		FlatBuilder.Table getType() {
+			return new FlatBuilder.Table().addInt(0, 32).addBool(1, true);
+		}
+
+		@Override
+		void addEmptyValue() {
+			values.putInt(0);
+		}
+	}
+
+
+	/** A 64-bit integer column. */
+	private static final class LongColumn extends Column
+	{
+		@Override
+		int getTypeId() {
+			return TYPE_INT;
+		}
+
+		@Override
+		FlatBuilder.Table getType() {
+			return new FlatBuilder.Table().addInt(0, 64).addBool(1, true);
+		}
+
+		@Override
+		void addEmptyValue() {
+			values.putLong(0L);
+		}
+	}
+
+
+	/** A single-precision floating point column. */
+	private static final class FloatColumn extends Column
+	{
+		@Override
+		int getTypeId() {
+			return TYPE_FLOAT;
+		}
+
+		@Override
+		FlatBuilder.Table getType() {
+			return new FlatBuilder.Table().addShort(0, 1);
+		}
+
+		@Override
+		void addEmptyValue() {
+			values.putInt(0);
+		}
+	}
+
+
+	/** A double-precision floating point column. */
+	private static final class DoubleColumn extends Column
+	{
+		@Override
+		int getTypeId() {
+			return TYPE_FLOAT;
+		}
+
+		@Override
+		FlatBuilder.Table getType() {
+			return new FlatBuilder.Table().addShort(0, 2);
+		}
+
+		@Override
+		void addEmptyValue() {
+			values.putLong(0L);
+		}
+	}
+
+
+	/** A 128-bit decimal column. */
+	private static final class DecimalColumn extends Column
+	{
+		/** The precision. */
+		private final int precision;
+
+		/** The scale. */
+		private final int scale;
+
+
+		/**
+		 * Constructor.
+		 *
+		 * @param precision the precision
+		 * @param scale the scale
+		 */
+		DecimalColumn(final int precision, final int scale) {
+			super();
+			this.precision = precision;
+			this.scale = scale;
+		}
+
+		@Override
+		int getTypeId() {
+			return TYPE_DECIMAL;
+		}
+
+		@Override
+		FlatBuilder.Table getType() {
+			return new FlatBuilder.Table().addInt(0, precision).addInt(1, scale).addInt(2, 128);
+		}
+
+		@Override
+		void addEmptyValue() {
+			values.putLong(0L);
+			values.putLong(0L);
+		}
+
+		/**
+		 * Write the unscaled value as 16 little-endian bytes.
+		 *
+		 * @param value the decimal
+		 * @throws IOException the value does not fit in 128 bits
+		 */
+		@Override
+		void writeDecimal(final BigDecimal value) throws IOException {
+			final byte[] bytes = value.setScale(scale, RoundingMode.HALF_UP)
+				.unscaledValue().toByteArray();
+			if (bytes.length > 16) {
+				throw new IOException("The value " + value + " does not fit in a 128-bit decimal");
+			}
+
+			final byte fill = (byte) ((bytes[0] < 0) ? -1 : 0);
+			values.ensure(16);
+			for (int i = 0; i < 16; ++i) {
+				values.data[values.size++] = ((i < bytes.length) ? bytes[bytes.length - 1 - i] : fill);
+			}
+		}
+	}
+
+
+	/** A boolean column, with the values packed into bits. */
+	private static final class BoolColumn extends Column
+	{
+		@Override
+		int getTypeId() {
+			return TYPE_BOOL;
+		}
+
+		@Override
+		FlatBuilder.Table getType() {
+			return new FlatBuilder.Table();
+		}
+
+		@Override
+		void addEmptyValue() {
+			values.setBit(length, false);
+		}
+	}
+
+
+	/** A date column, in days since 1970. */
+	private static final class DateColumn extends Column
+	{
+		@Override
+		int getTypeId() {
+			return TYPE_DATE;
+		}
+
+		@Override
+		FlatBuilder.Table getType() {
+			return new FlatBuilder.Table().addShort(0, 0);
+		}
+
+		@Override
+		void addEmptyValue() {
+			values.putInt(0);
+		}
+	}
+
+
+	/** A timestamp column, in microseconds since 1970 (local time). */
+	private static final class TimestampColumn extends Column
+	{
+		@Override
+		int getTypeId() {
+			return TYPE_TIMESTAMP;
+		}
+
+		@Override
+		FlatBuilder.Table getType() {
+			return new FlatBuilder.Table().addShort(0, 2);
+		}
+
+		@Override
+		void addEmptyValue() {
+			values.putLong(0L);
+		}
+	}
+
+
+	/** A column of variable-width values, with 32-bit offsets. */
+	private abstract static class VariableColumn extends Column
+	{
+		/**
+		 * Default constructor.
+		 */
+		VariableColumn() {
+			super();
+			data = new Bytes(65536);
+			values.putInt(0);
+		}
+
+		@Override
+		void addEmptyValue() {
+			values.putInt(data.size);
+		}
+
+		@Override
+		void clear() {
+			super.clear();
+			values.putInt(0);
+		}
+	}
+
+
+	/** A binary column. */
+	private static final class BinaryColumn extends VariableColumn
+	{
+		@Override
+		int getTypeId() {
+			return TYPE_BINARY;
+		}
+
+		@Override
+		FlatBuilder.Table getType() {
+			return new FlatBuilder.Table();
+		}
+	}
+
+
+	/**
+	 * A string column.  Until the schema is written, the distinct
+	 * values are counted, to decide whether to use a dictionary.
+	 */
+	private static final class Utf8Column extends VariableColumn
+	{
+		/** The id of each distinct value, or null once there are too many. */
+		private Map<String, Integer> ids = new HashMap<String, Integer>(1024);
+
+		/** The id of the value in each row (-1 for null). */
+		private final List<Integer> rowIds = new ArrayList<Integer>(1024);
+
+		/** The distinct values, in order of their ids. */
+		private final List<String> distinct = new ArrayList<String>(1024);
+
+		@Override
+		int getTypeId() {
+			return TYPE_UTF8;
+		}
+
+		@Override
+		FlatBuilder.Table getType() {
+			return new FlatBuilder.Table();
+		}
+
+		@Override
+		void addNull() {
+			super.addNull();
+			if (ids != null) {
+				rowIds.add(Integer.valueOf(-1));
+			}
+		}
+
+		@Override
+		void writeText(final String value) throws IOException {
+			data.put(value.getBytes("UTF-8"));
+			values.putInt(data.size);
+
+			if (ids != null) {
+				Integer id = ids.get(value);
+				if (id == null) {
+					id = Integer.valueOf(ids.size());
+					ids.put(value, id);
+					distinct.add(value);
+				}
+				rowIds.add(id);
+				if (ids.size() > MAX_DICTIONARY) {
+					ids = null;
+				}
+			}
+		}
+
+		@Override
+		void writeDecimal(final BigDecimal value) throws IOException {
+			writeText(value.toPlainString());
+		}
+
+		@Override
+		void clear() {
+			super.clear();
+			ids = null;
+			rowIds.clear();
+			distinct.clear();
+		}
+	}
+
+
+	/**
+	 * A dictionary encoded string column: 32-bit ids into a dictionary
+	 * of the distinct values.  New values are sent before each batch,
+	 * and the dictionary is replaced once it grows past its limit.
+	 */
+	private final class DictionaryColumn extends Column
+	{
+		/** The id of each distinct value. */
+		private final Map<String, Integer> ids;
+
+		/** The values added since the dictionary was last sent. */
+		private final Utf8Column added = new Utf8Column();
+
+		/** Whether the dictionary has been sent since it was started. */
+		private boolean sent = false;
+
+
+		/**
+		 * Constructor, taking over the values in the first batch.
+		 *
+		 * @param column the string column
+		 * @throws IOException an output exception
+		 */
+		DictionaryColumn(final Utf8Column column) throws IOException {
+			super();
+			ids = column.ids;
+			added.ids = null;
+			for (String value : column.distinct) {
+				added.setValid();
+				added.writeText(value);
+				added.length++;
+			}
+
+			length = column.length;
+			for (int i = 0; i < length; ++i) {
+				final int id = column.rowIds.get(i).intValue();
+				if (id < 0) {
+					validity.setBit(i, false);
+					++nullCount;
+					values.putInt(0);
+				} else {
+					validity.setBit(i, true);
+					values.putInt(id);
+				}
+			}
+		}
+
+		@Override
+		int getTypeId() {
+			return TYPE_UTF8;
+		}
+
+		@Override
+		FlatBuilder.Table getType() {
+			return new FlatBuilder.Table();
+		}
+
+		@Override
+		void addEmptyValue() {
+			values.putInt(0);
+		}
+
+		@Override
+		void writeText(final String value) throws IOException {
+			Integer id = ids.get(value);
+			if (id == null) {
+				id = Integer.valueOf(ids.size());
+				ids.put(value, id);
+				added.setValid();
+				added.writeText(value);
+				added.length++;
+			}
+			values.putInt(id.intValue());
+		}
+
+		@Override
+		void writeDecimal(final BigDecimal value) throws IOException {
+			writeText(value.toPlainString());
+		}
+
+		@Override
+		void clear() {
+			super.clear();
+			if (ids.size() > MAX_DICTIONARY) {
+				ids.clear();
+				sent = false;
+			}
+		}
+
+		/**
+		 * Send the values added to the dictionary since it was last sent,
+		 * or the whole dictionary (replacing the old one) if it was started
+		 * again.
+		 *
+		 * @param id the dictionary id
+		 * @throws IOException an output exception
+		 */
+		void writeDictionary(final int id) throws IOException {
+			if (sent && (added.length == 0)) {
+				return;
+			}
+
+			final Body body = new Body();
+			added.addBuffers(body);
+			final FlatBuilder.Table batch = new FlatBuilder.Table()
+				.addLong(0, added.length)
+				.addStructs(1, 2, new long[] {added.length, 0L})
+				.addStructs(2, 2, body.getBufferSpecs());
+			final FlatBuilder.Table dictionary = new FlatBuilder.Table()
+				.addLong(0, id)
+				.addTable(1, batch)
+				.addBool(2, sent);
+			writeMessage(HEADER_DICTIONARY, dictionary, body);
+
+			sent = true;
+			added.clear();
+		}
+	}
+}
@@ -0,0 +1,677 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.miti.dbconn.util.ConnManager;
+import io.miti.dbconn.util.Database;
+import io.miti.dbconn.util.Logger;
+import io.miti.dbconn.util.RowHandler;
+import io.miti.dbconn.util.TableColumn;
+import io.miti.dbconn.util.TimeSpan;
+import io.miti.dbconn.util.Utility;
+
+/**
+ * Export the LOB columns of a table to one file per value, in a
+ * directory tree keyed by the primary key (TABLE.blobs/COLUMN/xx/KEY.bin),
+ * with an index file that lists the key, path, size and SHA-256
+ * checksum of each file (TABLE.blobs.csv).
+ * <p>
+ * The rows are fetched on the calling thread.  Values up to 1 MB are
+ * read into memory and handed to a pool of writer threads, which
+ * create the files and compute the checksums, since creating many
+ * small files is where the time goes.  Larger values are copied
+ * straight from the database into the file on the fetching thread,
+ * with FileChannel.transferFrom(), so memory use stays bounded.  When
+ * the writers fall behind, the fetching thread writes the files itself.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class BlobExport implements RowHandler
+{
+	/** The default number of writer threads. */
+	private static final int DEFAULT_THREADS = 4;
+
+	/** The largest value that is handed to the writer threads. */
+	private static final int MEMORY_LIMIT = 1024 * 1024;
+
+	/** The number of values queued for each writer thread. */
+	private static final int TASKS_PER_THREAD = 4;
+
+	/** The most bytes copied by each call to transferFrom(). */
+	private static final long TRANSFER_SIZE = 1024L * 1024L;
+
+	/** The number of rows between progress updates. */
+	private static final int PROGRESS_ROWS = 1024;
+
+	/** The digest algorithm for the checksums. */
+	private static final String DIGEST_NAME = "SHA-256";
+
+	/** The table export. */
+	private final TableExport export;
+
+	/** The directory for the files. */
+	private final File baseDir;
+
+	/** The primary key columns. */
+	private List<String> keyNames = null;
+
+	/** The LOB columns. */
+	private final List<String> lobNames = new ArrayList<String>(4);
+
+	/** Whether each LOB column holds characters (CLOBs), instead of bytes. */
+	private final List<Boolean> textColumns = new ArrayList<Boolean>(4);
+
+	/** The SQL type of each key column. */
+	private int[] keyTypes = null;
+
+	/** The directories created so far. */
+	private final Set<String> createdDirs =
+		Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/** The writer threads. */
+	private ThreadPoolExecutor writers = null;
+
+	/** The encoder for the index file. */
+	private CsvEncoder index = null;
+
+	/** The buffer for reading a value into memory. */
+	private final byte[] buffer = new byte[MEMORY_LIMIT + 1];
+
+	/** The first error from a writer thread. */
+	private volatile IOException failure = null;
+
+	/** The number of rows processed. */
+	private long rowCount = 0L;
+
+	/** The number of files written. */
+	private final AtomicLong fileCount = new AtomicLong(0L);
+
+	/** The number of bytes written to the files. */
+	private final AtomicLong byteCount = new AtomicLong(0L);
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param export the table export
+	 */
+	BlobExport(final TableExport export) {
+		super();
+		this.export = export;
+		baseDir = export.getSettings().getOutputFile(export.getTableName() + ".blobs");
+	}
+
+
+	/**
+	 * Run the export.
+	 */
+	void run() {
+		final ExportSettings settings = export.getSettings();
+		if (!export.hasSimpleFilter()) {
+			export.report("Only a 'where ...' filter can be used with 'export blobs'");
+			return;
+		} else if (settings.isResumable() || settings.isSplit()) {
+			export.report("--resumable, --max-rows and --max-bytes cannot be used with 'export blobs'");
+			return;
+		}
+
+		final String table = export.getTableName();
+		keyNames = Database.getPrimaryKeyColumnList(table);
+		if ((keyNames == null) || keyNames.isEmpty()) {
+			export.report("No primary key found for " + table);
+			return;
+		}
+
+		// Find the LOB columns, without fetching any rows
+		final Connection conn = ConnManager.get().getConn();
+		if (Database.executeSelect(conn, export.buildQuery("*", "1 = 0", null),
+				null, 0, 0, new LobFinder()) < 0L) {
+			export.report("Error getting the columns of " + table);
+			return;
+		} else if (lobNames.isEmpty()) {
+			export.report("No BLOB, CLOB or binary columns found in " + table);
+			return;
+		}
+
+		// Open the index and start the writers
+		final File indexFile = settings.getOutputFile(table + ".blobs" + settings.getCsvExtension());
+		final WritableByteChannel channel;
+		try {
+			channel = ExportOutput.open(indexFile, settings);
+		} catch (IOException e) {
+			export.report("Error opening " + indexFile.getName() + ": " + e.getMessage());
+			return;
+		}
+
+		index = new CsvEncoder(channel, settings.getCsvFormat());
+		final int numThreads = settings.getParallel(DEFAULT_THREADS);
+		writers = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(numThreads * TASKS_PER_THREAD),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+
+		// Stream the rows, and wait for the writers to finish
+		final long start = System.currentTimeMillis();
+		long rows = Database.executeSelect(conn, buildQuery(), null,
+				settings.getFetchSize(), 0, settings.getThrottle().wrap(this));
+		writers.shutdown();
+		try {
+			while (!writers.awaitTermination(1L, TimeUnit.SECONDS)) {
+				continue;
+			}
+		} catch (InterruptedException e) {
+			Logger.error(e);
+			Thread.currentThread().interrupt();
+			rows = -1L;
+		}
+
+		try {
+			index.flush();
+			channel.close();
+		} catch (IOException e) {
+			Logger.error(e);
+			rows = -1L;
+		}
+
+		export.getProgress().add(rowCount % PROGRESS_ROWS, 0L);
+		if (failure != null) {
+			export.report("Error writing the files: " + failure.getMessage());
+		} else if (rows < 0L) {
+			export.report("Error exporting the table data");
+		} else {
+			export.report(String.format("Saved %s files (%s bytes) from %s rows to %s in %s; listed in %s",
+					Utility.formatLong(fileCount.get()), Utility.formatLong(byteCount.get()),
+					Utility.formatLong(rows), baseDir.getName(),
+					TimeSpan.millisToTimeSpan(System.currentTimeMillis() - start),
+					indexFile.getName()));
+		}
+	}
+
+
+	/**
+	 * Build the query for the key and LOB columns.
+	 *
+	 * @return the query
+	 */
+	private String buildQuery() {
+		StringBuilder sb = new StringBuilder(100);
+		for (String name : keyNames) {
+			sb.append(name).append(", ");
+		}
+
+		final int size = lobNames.size();
+		for (int i = 0; i < size; ++i) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(lobNames.get(i));
+		}
+
+		return export.buildQuery(sb.toString(), null, null);
+	}
+
+
+	@Override
+	public void startResults(final ResultSetMetaData metaData)
+			throws SQLException, IOException {
+		final int numKeys = keyNames.size();
+		keyTypes = new int[numKeys];
+		for (int i = 0; i < numKeys; ++i) {
+			keyTypes[i] = metaData.getColumnType(i + 1);
+			index.writeField(keyNames.get(i));
+		}
+
+		index.writeField("column");
+		index.writeField("file");
+		index.writeField("bytes");
+		index.writeField("sha256");
+		index.endLine();
+	}
+
+
+	@Override
+	public boolean processRow(final ResultSet rs) throws SQLException, IOException {
+		if (failure != null) {
+			throw new IOException("Error writing a file", failure);
+		}
+
+		// Read the key, and turn it into a file name
+		final int numKeys = keyTypes.length;
+		final String[] keys = new String[numKeys];
+		for (int i = 0; i < numKeys; ++i) {
+			final Object value = KeyValue.read(rs, i + 1, keyTypes[i]);
+			keys[i] = ((value == null) ? null : value.toString());
+		}
+		final String fileName = toFileName(keys);
+
+		// Save each value that is not null
+		final int numLobs = lobNames.size();
+		for (int i = 0; i < numLobs; ++i) {
+			final boolean text = textColumns.get(i).booleanValue();
+			final InputStream in = (text ? openText(rs, numKeys + i + 1)
+					: rs.getBinaryStream(numKeys + i + 1));
+			if (in != null) {
+				try {
+					saveValue(keys, i, fileName + (text ? ".txt" : ".bin"), in);
+				} finally {
+					in.close();
+				}
+			}
+		}
+
+		if ((++rowCount % PROGRESS_ROWS) == 0L) {
+			export.getProgress().add(PROGRESS_ROWS, 0L);
+		}
+		return true;
+	}
+
+
+	/**
+	 * Save one value to its file.  A value that fits in memory is
+	 * handed to the writer threads; a larger one is copied here.
+	 *
+	 * @param keys the key of the row
+	 * @param column the index of the LOB column
+	 * @param fileName the name of the file
+	 * @param in the value
+	 * @throws IOException an input or output exception
+	 */
+	private void saveValue(final String[] keys, final int column, final String fileName,
+			final InputStream in) throws IOException {
+		final String path = lobNames.get(column) + "/" + getBucket(fileName) + "/" + fileName;
+
+		// Read up to one byte more than the limit, to see if it fits
+		int len = 0;
+		int read = 0;
+		while ((len < buffer.length) && ((read = in.read(buffer, len, buffer.length - len)) >= 0)) {
+			len += read;
+		}
+
+		if (len <= MEMORY_LIMIT) {
+			final byte[] data = Arrays.copyOf(buffer, len);
+			writers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						writeFile(keys, column, path, data);
+					} catch (IOException e) {
+						fail(e);
+					}
+				}
+			});
+		} else {
+			copyFile(keys, column, path, in, len);
+		}
+	}
+
+
+	/**
+	 * Write a value held in memory to its file.  This is called on a
+	 * writer thread.
+	 *
+	 * @param keys the key of the row
+	 * @param column the index of the LOB column
+	 * @param path the path of the file, under the base directory
+	 * @param data the value
+	 * @throws IOException an output exception
+	 */
+	private void writeFile(final String[] keys, final int column, final String path,
+			final byte[] data) throws IOException {
+		if (failure != null) {
+			return;
+		}
+
+		final MessageDigest digest = newDigest();
+		digest.update(data);
+
+		final FileOutputStream out = new FileOutputStream(openFile(path));
+		try {
+			final FileChannel channel = out.getChannel();
+			final ByteBuffer buf = ByteBuffer.wrap(data);
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+		} finally {
+			out.close();
+		}
+
+		addEntry(keys, column, path, data.length, digest);
+	}
+
+
+	/**
+	 * Copy a value that is too large for memory to its file, starting
+	 * with the part already read into the buffer.
+	 *
+	 * @param keys the key of the row
+	 * @param column the index of the LOB column
+	 * @param path the path of the file, under the base directory
+	 * @param in the rest of the value
+	 * @param len the number of bytes in the buffer
+	 * @throws IOException an input or output exception
+	 */
+	private void copyFile(final String[] keys, final int column, final String path,
+			final InputStream in, final int len) throws IOException {
+		final MessageDigest digest = newDigest();
+		digest.update(buffer, 0, len);
+
+		long size = len;
+		final FileOutputStream out = new FileOutputStream(openFile(path));
+		try {
+			final FileChannel channel = out.getChannel();
+			final ByteBuffer buf = ByteBuffer.wrap(buffer, 0, len);
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+
+			// For a stream, transferFrom() returns 0 at the end
+			final ReadableByteChannel source = Channels.newChannel(new DigestInputStream(in, digest));
+			long count;
+			while ((count = channel.transferFrom(source, size, TRANSFER_SIZE)) > 0L) {
+				size += count;
+			}
+		} finally {
+			out.close();
+		}
+
+		addEntry(keys, column, path, size, digest);
+	}
+
+
+	/**
+	 * Return the file for a path, creating its directory if needed.
+	 *
+	 * @param path the path of the file, under the base directory
+	 * @return the file
+	 * @throws IOException the directory could not be created
+	 */
+	private File openFile(final String path) throws IOException {
+		final File file = new File(baseDir, path);
+		final File dir = file.getParentFile();
+		final String dirName = dir.getPath();
+		if (!createdDirs.contains(dirName)) {
+			if (!dir.mkdirs() && !dir.isDirectory()) {
+				throw new IOException("Unable to create the directory " + dirName);
+			}
+			createdDirs.add(dirName);
+		}
+
+		return file;
+	}
+
+
+	/**
+	 * Add a file to the index, and count it.
+	 *
+	 * @param keys the key of the row
+	 * @param column the index of the LOB column
+	 * @param path the path of the file, under the base directory
+	 * @param size the size of the file
+	 * @param digest the digest of the file
+	 * @throws IOException an output exception
+	 */
+	private void addEntry(final String[] keys, final int column, final String path,
+			final long size, final MessageDigest digest) throws IOException {
+		final String hash = SplitFiles.toHex(digest.digest());
+		synchronized (index) {
+			for (String key : keys) {
+				if (key == null) {
+					index.writeNull();
+				} else {
+					index.writeField(key);
+				}
+			}
+
+			index.writeField(lobNames.get(column));
+			index.writeField(baseDir.getName() + "/" + path);
+			index.writeField(Long.toString(size));
+			index.writeField(hash);
+			index.endLine();
+		}
+
+		fileCount.incrementAndGet();
+		byteCount.addAndGet(size);
+		export.getProgress().add(0L, size);
+	}
+
+
+	/**
+	 * Save the first error from a writer thread.
+	 *
+	 * @param e the exception
+	 */
+	private void fail(final IOException e) {
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+
+	/**
+	 * Open a CLOB column as a stream of UTF-8 bytes.
+	 *
+	 * @param rs the result set
+	 * @param index the column index
+	 * @return the stream, or null if the value is null
+	 * @throws SQLException a database exception
+	 */
+	private static InputStream openText(final ResultSet rs, final int index)
+			throws SQLException {
+		final Reader reader = rs.getCharacterStream(index);
+		return ((reader == null) ? null : new Utf8Stream(reader));
+	}
+
+
+	/**
+	 * Return the file name for a key: the key values joined with
+	 * underscores, with any character other than a letter, digit,
+	 * period or hyphen written as %XX for each of its UTF-8 bytes.
+	 *
+	 * @param keys the key values
+	 * @return the file name, without an extension
+	 * @throws IOException UTF-8 is not supported
+	 */
+	static String toFileName(final String[] keys) throws IOException {
+		StringBuilder sb = new StringBuilder(32);
+		for (int i = 0; i < keys.length; ++i) {
+			if (i > 0) {
+				sb.append('_');
+			}
+
+			final String key = ((keys[i] == null) ? "null" : keys[i]);
+			final int len = key.length();
+			for (int j = 0; j < len; ++j) {
+				final char ch = key.charAt(j);
+				if (((ch >= 'a') && (ch <= 'z')) || ((ch >= 'A') && (ch <= 'Z'))
+						|| ((ch >= '0') && (ch <= '9')) || (ch == '.') || (ch == '-')) {
+					sb.append(ch);
+				} else {
+					final int count = Character.charCount(key.codePointAt(j));
+					escape(sb, key.substring(j, j + count));
+					j += count - 1;
+				}
+			}
+		}
+
+		return sb.toString();
+	}
+
+
+	/**
+	 * Append the UTF-8 bytes of a character as %XX.
+	 *
+	 * @param sb the string builder
+	 * @param ch the character (one or two chars)
+	 * @throws UnsupportedEncodingException UTF-8 is not supported
+	 */
+	private static void escape(final StringBuilder sb, final String ch)
+			throws UnsupportedEncodingException {
+		for (byte b : ch.getBytes("UTF-8")) {
+			sb.append('%').append(SplitFiles.toHex(new byte[] {b}).toUpperCase());
+		}
+	}
+
+
+	/**
+	 * Return the subdirectory for a file, one of 256 chosen from the
+	 * hash of its name, so no directory holds too many files.
+	 *
+	 * @param fileName the file name
+	 * @return the subdirectory name
+	 */
+	private static String getBucket(final String fileName) {
+		return SplitFiles.toHex(new byte[] {(byte) fileName.hashCode()});
+	}
+
+
+	/**
+	 * Return a new digest for a checksum.
+	 *
+	 * @return the digest
+	 * @throws IOException the algorithm is not available
+	 */
+	private static MessageDigest newDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance(DIGEST_NAME);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(DIGEST_NAME + " is not available");
+		}
+	}
+
+
+	/**
+	 * Find the LOB columns in the metadata of a query.
+	 */
+	private final class LobFinder implements RowHandler
+	{
+		@Override
+		public void startResults(final ResultSetMetaData metaData) throws SQLException {
+			final int numColumns = metaData.getColumnCount();
+			for (int i = 1; i <= numColumns; ++i) {
+				final ColumnReader reader = ColumnReader.forType(metaData.getColumnType(i),
+						metaData.getColumnTypeName(i));
+				if (reader.isStreamed()) {
+					lobNames.add(metaData.getColumnName(i));
+					textColumns.add(Boolean.valueOf(reader.getColType() == TableColumn.COL_CLOB));
+				}
+			}
+		}
+
+
+		@Override
+		public boolean processRow(final ResultSet rs) {
+			return false;
+		}
+	}
+
+
+	/**
+	 * Read the characters of a CLOB as UTF-8 bytes, a chunk at a time.
+	 */
+	private static final class Utf8Stream extends InputStream
+	{
+		/** The characters. */
+		private final Reader reader;
+
+		/** The encoder, which carries surrogate pairs across chunks. */
+		private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		/** The characters read, but not yet encoded. */
+		private final CharBuffer chars = CharBuffer.allocate(8192);
+
+		/** The bytes encoded, but not yet read. */
+		private final ByteBuffer bytes = ByteBuffer.allocate(8192 * 3);
+
+		/** Whether the end of the characters was reached. */
+		private boolean done = false;
+
+
+		Utf8Stream(final Reader reader) {
+			super();
+			this.reader = reader;
+			bytes.flip();
+		}
+
+
+		@Override
+		public int read() throws IOException {
+			final byte[] one = new byte[1];
+			return ((read(one, 0, 1) < 0) ? -1 : (one[0] & 0xFF));
+		}
+
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			while (!bytes.hasRemaining()) {
+				if (done) {
+					return -1;
+				}
+				fill();
+			}
+
+			final int count = Math.min(len, bytes.remaining());
+			bytes.get(b, off, count);
+			return count;
+		}
+
+
+		/**
+		 * Read and encode the next chunk of characters.
+		 *
+		 * @throws IOException an input exception
+		 */
+		private void fill() throws IOException {
+			bytes.clear();
+			final int count = reader.read(chars);
+			chars.flip();
+			if (count < 0) {
+				done = true;
+				encoder.encode(chars, bytes, true);
+				encoder.flush(bytes);
+			} else {
+				encoder.encode(chars, bytes, false);
+			}
+			chars.compact();
+			bytes.flip();
+		}
+
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,403 @@
+package io.miti.dbconn.export;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import io.miti.dbconn.util.TableColumn;
+
+/**
+ * Read a column value with the getter that matches its type, and
+ * pass it on to a value sink.  The reader for each column is chosen
+ * once, from the result set metadata.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public abstract class ColumnReader
+{
+	/** The column type, as one of the TableColumn.COL_* values. */
+	private final int colType;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param colType the column type
+	 */
+	protected ColumnReader(final int colType) {
+		super();
+		this.colType = colType;
+	}
+
+
+	/**
+	 * Read the value in the current row, and write it to the sink.
+	 *
+	 * @param rs the result set
+	 * @param index the column index (starting at 1)
+	 * @param sink the target for the value
+	 * @throws SQLException a database exception
+	 * @throws IOException an output exception
+	 */
+	public abstract void read(ResultSet rs, int index, ValueSink sink)
+			throws SQLException, IOException;
+
+
+	/**
+	 * Return whether the values are streamed to the sink as they are
+	 * read (large objects), so they cannot be held in a batch.
+	 *
+	 * @return whether the values are streamed
+	 */
+	public boolean isStreamed() {
+		return false;
+	}
+
+
+	/**
+	 * Return the column type.
+	 *
+	 * @return the column type, as one of the TableColumn.COL_* values
+	 */
+	public final int getColType() {
+		return colType;
+	}
+
+
+	/**
+	 * Return the readers for all of the columns in a result set.
+	 *
+	 * @param metaData the result set metadata
+	 * @return the column readers
+	 * @throws SQLException a database exception
+	 */
+	public static ColumnReader[] forMetaData(final ResultSetMetaData metaData)
+			throws SQLException {
+		final int numColumns = metaData.getColumnCount();
+		final ColumnReader[] readers = new ColumnReader[numColumns];
+		for (int i = 0; i < numColumns; ++i) {
+			readers[i] = forType(metaData.getColumnType(i + 1),
+					metaData.getColumnTypeName(i + 1), metaData.isSigned(i + 1));
+		}
+
+		return readers;
+	}
+
+
+	/**
+	 * Return the reader for a database column type.
+	 *
+	 * @param sqlType the JDBC type
+	 * @param typeName the database type name
+	 * @return the column reader
+	 */
+	public static ColumnReader forType(final int sqlType, final String typeName) {
+		return forType(sqlType, typeName, true);
+	}
+
+
+	/**
+	 * Return the reader for a database column type.  Unsigned integers
+	 * (as in MySQL) are read with the next larger type, since their
+	 * values can be out of range for the signed type.
+	 *
+	 * @param sqlType the JDBC type
+	 * @param typeName the database type name
+	 * @param signed whether the column is signed
+	 * @return the column reader
+	 */
+	public static ColumnReader forType(final int sqlType, final String typeName,
+			final boolean signed) {
+		final int colType = TableColumn.getJavaTypeForDBType(sqlType, typeName, signed);
+		switch (colType) {
+			case TableColumn.COL_INT:
+			case TableColumn.COL_SHORT:
+				return new IntReader(colType);
+
+			case TableColumn.COL_LONG:
+				return new LongReader(colType);
+
+			case TableColumn.COL_DOUBLE:
+			case TableColumn.COL_FLOAT:
+				// NUMERIC columns (such as Oracle's NUMBER) can hold values
+				// that don't fit in a double, and REALs are single precision
+				if (sqlType == Types.NUMERIC) {
+					return new DecimalReader(TableColumn.COL_DECIMAL);
+				} else if (sqlType == Types.REAL) {
+					return new FloatReader(colType);
+				}
+				return new DoubleReader(colType);
+
+			case TableColumn.COL_DECIMAL:
+				return new DecimalReader(colType);
+
+			case TableColumn.COL_BOOLEAN:
+				return new BooleanReader(colType);
+
+			case TableColumn.COL_DATE:
+				return ((sqlType == Types.DATE) ? new DateReader(colType)
+						: new TimestampReader(colType));
+
+			case TableColumn.COL_BLOB:
+				return new BinaryReader(colType);
+
+			case TableColumn.COL_CLOB:
+				return new ClobReader(colType);
+
+			default:
+				if ((sqlType == Types.BINARY) || (sqlType == Types.VARBINARY)
+						|| (sqlType == Types.LONGVARBINARY)) {
+					return new BinaryReader(colType);
+				}
+				return new TextReader(colType);
+		}
+	}
+
+
+	/** Read an integer column. */
+	private static final class IntReader extends ColumnReader
+	{
+		IntReader(final int colType) {
+			super(colType);
+		}
+
+		@Override
+		public void read(final ResultSet rs, final int index, final ValueSink sink)
+				throws SQLException, IOException {
+			final int value = rs.getInt(index);
+			if (rs.wasNull()) {
+				sink.writeNull();
+			} else {
+				sink.writeInt(value);
+			}
+		}
+	}
+
+
+	/** Read a long integer column. */
+	private static final class LongReader extends ColumnReader
+	{
+		LongReader(final int colType) {
+			super(colType);
+		}
+
+		@Override
+		public void read(final ResultSet rs, final int index, final ValueSink sink)
+				throws SQLException, IOException {
+			final long value = rs.getLong(index);
+			if (rs.wasNull()) {
+				sink.writeNull();
+			} else {
+				sink.writeLong(value);
+			}
+		}
+	}
+
+
+	/** Read a single-precision floating point column. */
+	private static final class FloatReader extends ColumnReader
+	{
+		FloatReader(final int colType) {
+			super(colType);
+		}
+
+		@Override
+		public void read(final ResultSet rs, final int index, final ValueSink sink)
+				throws SQLException, IOException {
+			final float value = rs.getFloat(index);
+			if (rs.wasNull()) {
+				sink.writeNull();
+			} else {
+				sink.writeFloat(value);
+			}
+		}
+	}
+
+
+	/** Read a double-precision floating point column. */
+	private static final class DoubleReader extends ColumnReader
+	{
+		DoubleReader(final int colType) {
+			super(colType);
+		}
+
+		@Override
+		public void read(final ResultSet rs, final int index, final ValueSink sink)
+				throws SQLException, IOException {
+			final double value = rs.getDouble(index);
+			if (rs.wasNull()) {
+				sink.writeNull();
+			} else {
+				sink.writeDouble(value);
+			}
+		}
+	}
+
+
+	/** Read a fixed-point decimal column. */
+	private static final class DecimalReader extends ColumnReader
+	{
+		DecimalReader(final int colType) {
+			super(colType);
+		}
+
+		@Override
+		public void read(final ResultSet rs, final int index, final ValueSink sink)
+				throws SQLException, IOException {
+			final BigDecimal value = rs.getBigDecimal(index);
+			if (value == null) {
+				sink.writeNull();
+			} else {
+				sink.writeDecimal(value);
+			}
+		}
+	}
+
+
+	/** Read a boolean column. */
+	private static final class BooleanReader extends ColumnReader
+	{
+		BooleanReader(final int colType) {
+			super(colType);
+		}
+
+		@Override
+		public void read(final ResultSet rs, final int index, final ValueSink sink)
+				throws SQLException, IOException {
+			final boolean value = rs.getBoolean(index);
+			if (rs.wasNull()) {
+				sink.writeNull();
+			} else {
+				sink.writeBoolean(value);
+			}
+		}
+	}
+
+
+	/** Read a date column. */
+	private static final class DateReader extends ColumnReader
+	{
+		DateReader(final int colType) {
+			super(colType);
+		}
+
+		@Override
+		public void read(final ResultSet rs, final int index, final ValueSink sink)
+				throws SQLException, IOException {
+			final Date value = rs.getDate(index);
+			if (value == null) {
+				sink.writeNull();
+			} else {
+				sink.writeDate(value);
+			}
+		}
+	}
+
+
+	/** Read a timestamp column. */
+	private static final class TimestampReader extends ColumnReader
+	{
+		TimestampReader(final int colType) {
+			super(colType);
+		}
+
+		@Override
+		public void read(final ResultSet rs, final int index, final ValueSink sink)
+				throws SQLException, IOException {
+			final Timestamp value = rs.getTimestamp(index);
+			if (value == null) {
+				sink.writeNull();
+			} else {
+				sink.writeTimestamp(value);
+			}
+		}
+	}
+
+
+	/** Read any other column as text. */
+	private static final class TextReader extends ColumnReader
+	{
+		TextReader(final int colType) {
+			super(colType);
+		}
+
+		@Override
+		public void read(final ResultSet rs, final int index, final ValueSink sink)
+				throws SQLException, IOException {
+			final String value = rs.getString(index);
+			if (value == null) {
+				sink.writeNull();
+			} else {
+				sink.writeText(value);
+			}
+		}
+	}
+
+
+	/** Read a binary or BLOB column as a stream. */
+	private static final class BinaryReader extends ColumnReader
+	{
+		BinaryReader(final int colType) {
+			super(colType);
+		}
+
+		@Override
+		public boolean isStreamed() {
+			return true;
+		}
+
+		@Override
+		public void read(final ResultSet rs, final int index, final ValueSink sink)
+				throws SQLException, IOException {
+			final InputStream in = rs.getBinaryStream(index);
+			if (in == null) {
+				sink.writeNull();
+				return;
+			}
+
+			try {
+				sink.writeBinary(in);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+
+	/** Read a CLOB column as a stream. */
+	private static final class ClobReader extends ColumnReader
+	{
+		ClobReader(final int colType) {
+			super(colType);
+		}
+
+		@Override
+		public boolean isStreamed() {
+			return true;
+		}
+
+		@Override
+		public void read(final ResultSet rs, final int index, final ValueSink sink)
+				throws SQLException, IOException {
+			final Reader in = rs.getCharacterStream(index);
+			if (in == null) {
+				sink.writeNull();
+				return;
+			}
+
+			try {
+				sink.writeCharacters(in);
+			} finally {
+				in.close();
+			}
+		}
+	}
+}
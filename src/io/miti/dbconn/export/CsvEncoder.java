@@ -0,0 +1,401 @@
+package io.miti.dbconn.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Encode CSV fields as UTF-8 (following RFC 4180) into a reusable
+ * direct buffer, which is drained to a channel when it fills up.
+ * Each value is scanned once: the characters are encoded and any
+ * quote characters doubled in the same pass that decides whether
+ * the field must be quoted.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class CsvEncoder
+{
+	/** The size of the output buffer. */
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	/** The output channel. */
+	private final WritableByteChannel channel;
+
+	/** The output buffer. */
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	/** The delimiter, as a byte. */
+	private final byte delimiter;
+
+	/** The quote character. */
+	private final char quote;
+
+	/** The encoded null token. */
+	private final byte[] nullBytes;
+
+	/** The encoded line ending. */
+	private final byte[] lineEndBytes;
+
+	/** The delimiter, as a character. */
+	private final char delimChar;
+
+	/** Holds the encoded bytes of the current field. */
+	private byte[] scratch = new byte[256];
+
+	/** The number of bytes encoded into the scratch buffer. */
+	private int scratchCount = 0;
+
+	/** The number of characters read at a time from a stream. */
+	private static final int CHUNK_SIZE = 8192;
+
+	/** Holds the characters read from a stream, once needed. */
+	private char[] chars = null;
+
+	/** Writes the bytes of a raw field to the output buffer. */
+	private final OutputStream rawStream = new OutputStream() {
+		@Override
+		public void write(final int b) throws IOException {
+			put((byte) b);
+		}
+
+		@Override
+		public void write(final byte[] bytes, final int off, final int len)
+				throws IOException {
+			put(bytes, off, len);
+		}
+	};
+
+	/** Whether the next field is the first in its line. */
+	private boolean firstField = true;
+
+	/** The number of bytes drained to the channel. */
+	private long bytesDrained = 0L;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param channel the output channel
+	 * @param format the CSV format
+	 */
+	public CsvEncoder(final WritableByteChannel channel, final CsvFormat format) {
+		super();
+		this.channel = channel;
+		delimChar = format.getDelimiter();
+		delimiter = (byte) delimChar;
+		quote = format.getQuote();
+		nullBytes = toBytes(format.getNullToken());
+		lineEndBytes = toBytes(format.getLineEnd());
+	}
+
+
+	/**
+	 * Write a field, quoting it if it contains the delimiter, the
+	 * quote character, a carriage return or a line feed.  A field
+	 * that would read back as the null token is also quoted.
+	 *
+	 * @param value the field value
+	 * @throws IOException an output exception
+	 */
+	public void writeField(final CharSequence value) throws IOException {
+		startField();
+
+		// Encode the value, doubling any quotes, and see if it needs quotes
+		final int len = value.length();
+		boolean needsQuotes = encode(value, len);
+		final int count = scratchCount;
+
+		// Keep the value from being read back as a null
+		if (!needsQuotes && (count == nullBytes.length) && matchesNull(count)) {
+			needsQuotes = true;
+		}
+
+		if (needsQuotes) {
+			put((byte) quote);
+			put(scratch, 0, count);
+			put((byte) quote);
+		} else {
+			put(scratch, 0, count);
+		}
+	}
+
+
+	/**
+	 * Write a field from a stream of characters, such as a CLOB,
+	 * without reading it all into memory.  Since the contents are
+	 * not known in advance, the field is always quoted.
+	 *
+	 * @param in the characters of the field
+	 * @throws IOException an input or output exception
+	 */
+	public void writeField(final Reader in) throws IOException {
+		startField();
+		put((byte) quote);
+
+		if (chars == null) {
+			chars = new char[CHUNK_SIZE];
+		}
+
+		// A high surrogate at the end of a chunk is kept for the next one
+		int carry = 0;
+		int read;
+		while ((read = in.read(chars, carry, chars.length - carry)) >= 0) {
+			int len = carry + read;
+			carry = 0;
+			if ((len > 0) && Character.isHighSurrogate(chars[len - 1])) {
+				--len;
+				carry = 1;
+			}
+
+			encode(CharBuffer.wrap(chars, 0, len), len);
+			put(scratch, 0, scratchCount);
+			if (carry > 0) {
+				chars[0] = chars[len];
+			}
+		}
+
+		if (carry > 0) {
+			put((byte) '?');
+		}
+		put((byte) quote);
+	}
+
+
+	/**
+	 * Start a field whose bytes are written as-is, through the
+	 * returned stream, until endRawField() is called.  The caller
+	 * must make sure the bytes need no escaping.
+	 *
+	 * @param quoted whether to put the field in quotes
+	 * @return the stream for the bytes of the field
+	 * @throws IOException an output exception
+	 */
+	public OutputStream beginRawField(final boolean quoted) throws IOException {
+		startField();
+		if (quoted) {
+			put((byte) quote);
+		}
+
+		return rawStream;
+	}
+
+
+	/**
+	 * End a field started with beginRawField().
+	 *
+	 * @param quoted whether the field was put in quotes
+	 * @throws IOException an output exception
+	 */
+	public void endRawField(final boolean quoted) throws IOException {
+		if (quoted) {
+			put((byte) quote);
+		}
+	}
+
+
+	/**
+	 * Return whether a field made up only of the specified (ASCII)
+	 * characters can be written without quotes, even if it is empty.
+	 *
+	 * @param fieldChars the characters that can appear in the field
+	 * @return whether the field never needs quotes
+	 */
+	public boolean isSafeUnquoted(final String fieldChars) {
+		return ((nullBytes.length > 0) && (fieldChars.indexOf(delimChar) < 0)
+				&& (fieldChars.indexOf(quote) < 0));
+	}
+
+
+	/**
+	 * Encode characters as UTF-8 into the scratch buffer, doubling
+	 * any quotes.  The number of bytes is saved in scratchCount.
+	 *
+	 * @param value the characters
+	 * @param len the number of characters
+	 * @return whether the characters need to be quoted
+	 */
+	private boolean encode(final CharSequence value, final int len) {
+		ensureScratch(len * 3);
+		int count = 0;
+		boolean needsQuotes = false;
+		for (int i = 0; i < len; ++i) {
+			final char ch = value.charAt(i);
+			if (ch < 0x80) {
+				if ((ch == delimChar) || (ch == '\n') || (ch == '\r')) {
+					needsQuotes = true;
+				} else if (ch == quote) {
+					needsQuotes = true;
+					scratch[count++] = (byte) ch;
+				}
+				scratch[count++] = (byte) ch;
+			} else if (ch < 0x800) {
+				scratch[count++] = (byte) (0xC0 | (ch >> 6));
+				scratch[count++] = (byte) (0x80 | (ch & 0x3F));
+			} else if (Character.isHighSurrogate(ch) && ((i + 1) < len)
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int cp = Character.toCodePoint(ch, value.charAt(++i));
+				scratch[count++] = (byte) (0xF0 | (cp >> 18));
+				scratch[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				scratch[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				scratch[count++] = (byte) (0x80 | (cp & 0x3F));
+			} else if ((ch >= Character.MIN_SURROGATE) && (ch <= Character.MAX_SURROGATE)) {
+				// An unpaired surrogate can't be encoded
+				scratch[count++] = (byte) '?';
+			} else {
+				scratch[count++] = (byte) (0xE0 | (ch >> 12));
+				scratch[count++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+				scratch[count++] = (byte) (0x80 | (ch & 0x3F));
+			}
+		}
+
+		scratchCount = count;
+		return needsQuotes;
+	}
+
+
+	/**
+	 * Write a null field.
+	 *
+	 * @throws IOException an output exception
+	 */
+	public void writeNull() throws IOException {
+		startField();
+		put(nullBytes, 0, nullBytes.length);
+	}
+
+
+	/**
+	 * End the current line.
+	 *
+	 * @throws IOException an output exception
+	 */
+	public void endLine() throws IOException {
+		put(lineEndBytes, 0, lineEndBytes.length);
+		firstField = true;
+	}
+
+
+	/**
+	 * Write any buffered bytes to the channel.
+	 *
+	 * @throws IOException an output exception
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			bytesDrained += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+
+	/**
+	 * Return the number of bytes written, including any still in the buffer.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getBytesWritten() {
+		return bytesDrained + buffer.position();
+	}
+
+
+	/**
+	 * Write the delimiter, unless this is the first field in the line.
+	 *
+	 * @throws IOException an output exception
+	 */
+	private void startField() throws IOException {
+		if (firstField) {
+			firstField = false;
+		} else {
+			put(delimiter);
+		}
+	}
+
+
+	/**
+	 * Return whether the encoded field matches the null token.
+	 *
+	 * @param count the number of bytes in the field
+	 * @return whether it matches the null token
+	 */
+	private boolean matchesNull(final int count) {
+		for (int i = 0; i < count; ++i) {
+			if (scratch[i] != nullBytes[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Make sure the scratch buffer can hold the specified number of bytes.
+	 *
+	 * @param size the number of bytes
+	 */
+	private void ensureScratch(final int size) {
+		if (scratch.length < size) {
+			scratch = new byte[Math.max(size, scratch.length * 2)];
+		}
+	}
+
+
+	/**
+	 * Add a byte to the output buffer.
+	 *
+	 * @param b the byte
+	 * @throws IOException an output exception
+	 */
+	private void put(final byte b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			flush();
+		}
+		buffer.put(b);
+	}
+
+
+	/**
+	 * Add bytes to the output buffer, draining it as needed.
+	 *
+	 * @param bytes the bytes
+	 * @param offset the offset of the first byte
+	 * @param length the number of bytes
+	 * @throws IOException an output exception
+	 */
+	private void put(final byte[] bytes, final int offset, final int length)
+			throws IOException {
+		int off = offset;
+		int remaining = length;
+		while (remaining > 0) {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			final int chunk = Math.min(remaining, buffer.remaining());
+			buffer.put(bytes, off, chunk);
+			off += chunk;
+			remaining -= chunk;
+		}
+	}
+
+
+	/**
+	 * Encode a string as UTF-8.
+	 *
+	 * @param str the string
+	 * @return the bytes
+	 */
+	private static byte[] toBytes(final String str) {
+		try {
+			return str.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
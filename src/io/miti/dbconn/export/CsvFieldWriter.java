@@ -0,0 +1,161 @@
+package io.miti.dbconn.export;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+
+import io.miti.dbconn.util.Base64;
+
+/**
+ * Format typed values as CSV fields.  Numbers and dates are
+ * formatted into a reusable buffer and passed to a CsvEncoder.
+ * An instance is not thread-safe.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class CsvFieldWriter implements ValueSink
+{
+	/** The encoder for the CSV fields. */
+	private final CsvEncoder out;
+
+	/** The buffer for formatting a field. */
+	private final StringBuilder field = new StringBuilder(64);
+
+	/** Formats dates and timestamps. */
+	private final ValueFormatter formatter = new ValueFormatter();
+
+	/** The characters that can appear in a Base64 value. */
+	private static final String BASE64_CHARS =
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/=";
+
+	/** Whether Base64 values must be quoted. */
+	private final boolean quoteBinary;
+
+	/** The buffer for copying binary values. */
+	private byte[] bytes = null;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param out the encoder for the CSV fields
+	 */
+	CsvFieldWriter(final CsvEncoder out) {
+		super();
+		this.out = out;
+		quoteBinary = !out.isSafeUnquoted(BASE64_CHARS);
+	}
+
+
+	@Override
+	public void writeNull() throws IOException {
+		out.writeNull();
+	}
+
+
+	@Override
+	public void writeInt(final int value) throws IOException {
+		field.setLength(0);
+		field.append(value);
+		writeField();
+	}
+
+
+	@Override
+	public void writeLong(final long value) throws IOException {
+		field.setLength(0);
+		field.append(value);
+		writeField();
+	}
+
+
+	@Override
+	public void writeFloat(final float value) throws IOException {
+		field.setLength(0);
+		field.append(value);
+		writeField();
+	}
+
+
+	@Override
+	public void writeDouble(final double value) throws IOException {
+		field.setLength(0);
+		field.append(value);
+		writeField();
+	}
+
+
+	@Override
+	public void writeDecimal(final BigDecimal value) throws IOException {
+		out.writeField(value.toPlainString());
+	}
+
+
+	@Override
+	public void writeBoolean(final boolean value) throws IOException {
+		out.writeField(value ? "true" : "false");
+	}
+
+
+	@Override
+	public void writeDate(final Date value) throws IOException {
+		field.setLength(0);
+		formatter.appendDate(field, value);
+		writeField();
+	}
+
+
+	@Override
+	public void writeTimestamp(final Timestamp value) throws IOException {
+		field.setLength(0);
+		formatter.appendTimestamp(field, value);
+		writeField();
+	}
+
+
+	@Override
+	public void writeText(final String value) throws IOException {
+		out.writeField(value);
+	}
+
+
+	/**
+	 * Write a binary value as Base64, encoded as it is read.
+	 */
+	@Override
+	public void writeBinary(final InputStream in) throws IOException {
+		if (bytes == null) {
+			bytes = new byte[8192];
+		}
+
+		final OutputStream raw = out.beginRawField(quoteBinary);
+		final Base64.OutputStream b64 = new Base64.OutputStream(raw, Base64.ENCODE);
+		int len;
+		while ((len = in.read(bytes)) >= 0) {
+			b64.write(bytes, 0, len);
+		}
+		b64.flushBase64();
+		out.endRawField(quoteBinary);
+	}
+
+
+	@Override
+	public void writeCharacters(final Reader in) throws IOException {
+		out.writeField(in);
+	}
+
+
+	/**
+	 * Write the formatted field to the file.
+	 *
+	 * @throws IOException an output exception
+	 */
+	private void writeField() throws IOException {
+		out.writeField(field);
+	}
+}
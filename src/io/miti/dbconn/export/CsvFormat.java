@@ -0,0 +1,115 @@
+package io.miti.dbconn.export;
+
+import io.miti.dbconn.util.CommandOptions;
+import io.miti.dbconn.util.Utility;
+
+/**
+ * The delimiter, quote character, null token and line ending used
+ * when writing CSV files.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class CsvFormat
+{
+	/** The field delimiter. */
+	private char delimiter = ',';
+
+	/** The quote character. */
+	private char quote = '"';
+
+	/** The text written for a null value. */
+	private String nullToken = "null";
+
+	/** The line ending. */
+	private String lineEnd = Utility.getLineSeparator();
+
+
+	/**
+	 * Default constructor.
+	 */
+	public CsvFormat() {
+		super();
+	}
+
+
+	/**
+	 * Build the format from the options entered with a command.
+	 * An error message is printed if an option is invalid.
+	 *
+	 * @param opts the command options
+	 * @return the format, or null if an option is invalid
+	 */
+	public static CsvFormat fromOptions(final CommandOptions opts) {
+		CsvFormat format = new CsvFormat();
+
+		final String delim = opts.getString("delimiter", null);
+		if (delim != null) {
+			if (delim.equals("tab")) {
+				format.delimiter = '\t';
+			} else if (delim.length() == 1) {
+				format.delimiter = delim.charAt(0);
+			} else {
+				System.out.println("The delimiter must be a single character (or 'tab')");
+				return null;
+			}
+		}
+
+		final String quoteChar = opts.getString("quote", null);
+		if (quoteChar != null) {
+			if (quoteChar.length() != 1) {
+				System.out.println("The quote must be a single character");
+				return null;
+			}
+			format.quote = quoteChar.charAt(0);
+		}
+
+		if (format.quote == format.delimiter) {
+			System.out.println("The quote and delimiter must be different");
+			return null;
+		} else if ((format.quote > 0x7F) || (format.delimiter > 0x7F)
+				|| (format.quote == '\n') || (format.quote == '\r')
+				|| (format.delimiter == '\n') || (format.delimiter == '\r')) {
+			System.out.println("The quote and delimiter must be ASCII characters other than line breaks");
+			return null;
+		}
+
+		format.nullToken = opts.getString("null", format.nullToken);
+
+		final String ending = opts.getString("line-end", null);
+		if (ending != null) {
+			if (ending.equals("crlf")) {
+				format.lineEnd = "\r\n";
+			} else if (ending.equals("lf")) {
+				format.lineEnd = "\n";
+			} else if (ending.equals("cr")) {
+				format.lineEnd = "\r";
+			} else {
+				System.out.println("The line ending must be crlf, lf or cr");
+				return null;
+			}
+		}
+
+		return format;
+	}
+
+
+	public char getDelimiter() {
+		return delimiter;
+	}
+
+
+	public char getQuote() {
+		return quote;
+	}
+
+
+	public String getNullToken() {
+		return nullToken;
+	}
+
+
+	public String getLineEnd() {
+		return lineEnd;
+	}
+}
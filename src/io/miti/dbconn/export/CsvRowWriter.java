@@ -0,0 +1,262 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import io.miti.dbconn.util.RowHandler;
+
+/**
+ * Write the rows of a query to a CSV file as they are fetched,
+ * so memory use does not depend on the size of the result.  Each
+ * column is read with the getter for its type, formatted by a
+ * CsvFieldWriter, and encoded by a CsvEncoder that writes to the
+ * file's channel (compressed, if the settings ask for it).
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class CsvRowWriter implements RowHandler
+{
+	/** The output file. */
+	private final File file;
+
+	/** Whether to write the header line. */
+	private final boolean writeHeader;
+
+	/** The export settings. */
+	private final ExportSettings settings;
+
+	/** The channel for the output file. */
+	private WritableByteChannel channel = null;
+
+	/** The encoder for the CSV fields. */
+	private CsvEncoder out = null;
+
+	/** The readers for each column. */
+	private ColumnReader[] readers = null;
+
+	/** Formats the values as CSV fields. */
+	private CsvFieldWriter fields = null;
+
+	/** The number of data rows written. */
+	private long rowCount = 0L;
+
+	/** The offset in the file to start writing at, when resuming. */
+	private long startOffset = -1L;
+
+	/** Whether to add the rows to the end of an existing file. */
+	private boolean append = false;
+
+	/** The number of rows between progress updates. */
+	private static final long PROGRESS_ROWS = 1024L;
+
+	/** The progress of the export. */
+	private ExportProgress progress = ExportProgress.hidden();
+
+	/** The number of rows already added to the progress. */
+	private long reportedRows = 0L;
+
+	/** The number of bytes already added to the progress. */
+	private long reportedBytes = 0L;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file the output file
+	 */
+	public CsvRowWriter(final File file) {
+		this(file, true, new ExportSettings());
+	}
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file the output file
+	 * @param writeHeader whether to write the header line
+	 * @param settings the export settings
+	 */
+	public CsvRowWriter(final File file, final boolean writeHeader,
+			final ExportSettings settings) {
+		super();
+		this.file = file;
+		this.writeHeader = writeHeader;
+		this.settings = settings;
+	}
+
+
+	/**
+	 * Continue writing an existing (uncompressed) file at an offset,
+	 * instead of creating it.  No header line is written.
+	 *
+	 * @param offset the offset to write from
+	 */
+	public void resumeAt(final long offset) {
+		startOffset = offset;
+	}
+
+
+	/**
+	 * Add the rows to the end of the file, if it exists, instead of
+	 * replacing it.  The header line is only written to a new file.
+	 *
+	 * @param appendRows whether to append to the file
+	 */
+	public void setAppend(final boolean appendRows) {
+		append = appendRows;
+	}
+
+
+	/**
+	 * Set the progress to add the rows and bytes written to.
+	 *
+	 * @param exportProgress the progress of the export
+	 */
+	void setProgress(final ExportProgress exportProgress) {
+		progress = exportProgress;
+	}
+
+
+	/**
+	 * Add the rows and bytes written since the last update to
+	 * the progress.
+	 */
+	private void updateProgress() {
+		final long bytes = getByteCount();
+		progress.add(rowCount - reportedRows, bytes - reportedBytes);
+		reportedRows = rowCount;
+		reportedBytes = bytes;
+	}
+
+
+	/**
+	 * Open the output file and write the header line.  If the
+	 * writer is reused for more queries, the file stays open and
+	 * the rows are appended to it.
+	 *
+	 * @param metaData the result set metadata
+	 */
+	@Override
+	public void startResults(final ResultSetMetaData metaData)
+			throws SQLException, IOException {
+
+		readers = ColumnReader.forMetaData(metaData);
+		if (channel != null) {
+			return;
+		}
+
+		if (startOffset >= 0L) {
+			channel = ExportOutput.openAt(file, startOffset);
+			out = new CsvEncoder(channel, settings.getCsvFormat());
+			fields = new CsvFieldWriter(out);
+			return;
+		}
+
+		final boolean appending = (append && (file.length() > 0L));
+		channel = ExportOutput.open(file, settings, appending);
+		out = new CsvEncoder(channel, settings.getCsvFormat());
+		fields = new CsvFieldWriter(out);
+		if (writeHeader && !appending) {
+			for (int i = 1; i <= readers.length; ++i) {
+				out.writeField(metaData.getColumnLabel(i));
+			}
+			out.endLine();
+		}
+	}
+
+
+	/**
+	 * Write the current row to the file.
+	 *
+	 * @param rs the result set
+	 * @return true, to keep processing rows
+	 */
+	@Override
+	public boolean processRow(final ResultSet rs)
+			throws SQLException, IOException {
+
+		final int numColumns = readers.length;
+		for (int i = 0; i < numColumns; ++i) {
+			readers[i].read(rs, i + 1, fields);
+		}
+		out.endLine();
+
+		++rowCount;
+		if ((rowCount % PROGRESS_ROWS) == 0L) {
+			updateProgress();
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Write the buffered rows to the file, and force them to the
+	 * disk if it is a plain file.
+	 *
+	 * @throws IOException an output exception
+	 */
+	public void flush() throws IOException {
+		if (channel != null) {
+			out.flush();
+			if (channel instanceof FileChannel) {
+				((FileChannel) channel).force(false);
+			}
+		}
+	}
+
+
+	/**
+	 * Flush and close the output file.
+	 *
+	 * @throws IOException an output exception
+	 */
+	public void close() throws IOException {
+		if (channel != null) {
+			updateProgress();
+			try {
+				out.flush();
+			} finally {
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+
+
+	/**
+	 * Return the number of data rows written.
+	 *
+	 * @return the number of rows
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+
+	/**
+	 * Return the position in the file after the last row written,
+	 * including where a resumed file started.
+	 *
+	 * @return the file position
+	 */
+	public long getFilePosition() {
+		return Math.max(0L, startOffset) + getByteCount();
+	}
+
+
+	/**
+	 * Return the number of bytes written.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getByteCount() {
+		return ((out == null) ? 0L : out.getBytesWritten());
+	}
+}
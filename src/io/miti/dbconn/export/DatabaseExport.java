@@ -0,0 +1,219 @@
+package io.miti.dbconn.export;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import io.miti.dbconn.util.ConnManager;
+import io.miti.dbconn.util.Database;
+import io.miti.dbconn.util.ListFormatter;
+import io.miti.dbconn.util.Logger;
+import io.miti.dbconn.util.TimeSpan;
+import io.miti.dbconn.util.Utility;
+
+/**
+ * Export every table in the database, using a fixed number of
+ * connections.  The largest tables are exported first, so the
+ * total time is not dominated by one large table started last.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class DatabaseExport
+{
+	/** The default number of connections. */
+	public static final int DEFAULT_WORKERS = 4;
+
+	/** The export settings. */
+	private final ExportSettings settings;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param settings the export settings
+	 */
+	public DatabaseExport(final ExportSettings settings) {
+		super();
+		this.settings = settings;
+	}
+
+
+	/**
+	 * Export the tables, and print a summary.
+	 */
+	public void run() {
+		final long start = System.currentTimeMillis();
+
+		// Get the list of database tables
+		final List<String> tables = Database.getTableNames(null);
+		if ((tables == null) || tables.isEmpty()) {
+			System.out.println("No tables were found");
+			return;
+		}
+
+		// Get the columns and estimated size of each table
+		System.out.println("Estimating the size of " + tables.size() + " tables...");
+		final List<TableExport> exports = new ArrayList<TableExport>(tables.size());
+		for (String table : tables) {
+			final TableExport export = new TableExport(table, null, settings);
+			if (export.prepare()) {
+				export.setRowEstimate(Database.getRowEstimate(table));
+				exports.add(export);
+			} else {
+				System.out.println("Skipping table " + table);
+			}
+		}
+
+		// Export the largest tables first
+		Collections.sort(exports, new Comparator<TableExport>() {
+			@Override
+			public int compare(final TableExport t1, final TableExport t2) {
+				final long diff = t2.getRowEstimate() - t1.getRowEstimate();
+				return ((diff == 0L) ? t1.getTableName().compareTo(t2.getTableName())
+						: ((diff < 0L) ? -1 : 1));
+			}
+		});
+
+		// Each worker exports tables from the queue on its own connection
+		long estimate = 0L;
+		for (TableExport export : exports) {
+			estimate += Math.max(0L, export.getRowEstimate());
+		}
+		final ExportProgress progress = ExportProgress.start("Database",
+				(estimate > 0L) ? estimate : -1L, settings);
+		for (TableExport export : exports) {
+			export.setProgress(progress);
+		}
+
+		final Queue<TableExport> queue = new ConcurrentLinkedQueue<TableExport>(exports);
+		final int numWorkers = Math.max(1, Math.min(exports.size(),
+				settings.getParallel(DEFAULT_WORKERS)));
+		final List<Callable<List<ExportStats>>> tasks =
+				new ArrayList<Callable<List<ExportStats>>>(numWorkers);
+		for (int i = 0; i < numWorkers; ++i) {
+			tasks.add(new Callable<List<ExportStats>>() {
+				@Override
+				public List<ExportStats> call() {
+					return exportTables(queue);
+				}
+			});
+		}
+
+		System.out.println("Exporting " + exports.size() + " tables over "
+				+ numWorkers + " connections...");
+		final List<ExportStats> results = new ArrayList<ExportStats>(exports.size());
+		try {
+			for (List<ExportStats> list : ParallelExport.runTasks(tasks)) {
+				results.addAll(list);
+			}
+		} finally {
+			progress.stop();
+		}
+
+		printSummary(results);
+		System.out.println("Elapsed Time: "
+				+ TimeSpan.millisToTimeSpan(System.currentTimeMillis() - start));
+	}
+
+
+	/**
+	 * Export tables from the queue until it's empty, on a new connection.
+	 *
+	 * @param queue the queue of tables to export
+	 * @return the statistics for each table
+	 */
+	private static List<ExportStats> exportTables(final Queue<TableExport> queue) {
+		final List<ExportStats> results = new ArrayList<ExportStats>(20);
+		final Connection conn = ConnManager.get().openConnection();
+		if (conn == null) {
+			return results;
+		}
+
+		try {
+			TableExport export = null;
+			while ((export = queue.poll()) != null) {
+				final ExportStats stats = export.exportToFile(conn,
+						export.buildQuery(null, null), export.getOutputFile(),
+						true, export.getTableName());
+				if (stats.isSuccess()) {
+					export.report(String.format("Exported %s (%s rows)",
+							stats.getName(), Utility.formatLong(stats.getRows())));
+				} else {
+					export.report("Error exporting " + stats.getName());
+				}
+				results.add(stats);
+			}
+		} finally {
+			try {
+				conn.close();
+			} catch (SQLException e) {
+				Logger.error(e);
+			}
+		}
+
+		return results;
+	}
+
+
+	/**
+	 * Print the rows, bytes and seconds for each table, and the totals.
+	 *
+	 * @param results the statistics for each table
+	 */
+	private static void printSummary(final List<ExportStats> results) {
+		Collections.sort(results, new Comparator<ExportStats>() {
+			@Override
+			public int compare(final ExportStats s1, final ExportStats s2) {
+				return s1.getName().compareTo(s2.getName());
+			}
+		});
+
+		final List<List<String>> lines = new ArrayList<List<String>>(results.size() + 2);
+		lines.add(getSummaryLine("Table", "Rows", "Bytes", "Seconds"));
+
+		long totalRows = 0L;
+		long totalBytes = 0L;
+		int errors = 0;
+		for (ExportStats stats : results) {
+			if (stats.isSuccess()) {
+				totalRows += stats.getRows();
+				totalBytes += stats.getBytes();
+				lines.add(getSummaryLine(stats.getName(), Utility.formatLong(stats.getRows()),
+						Utility.formatLong(stats.getBytes()),
+						String.format("%.1f", stats.getMillis() / 1000.0)));
+			} else {
+				++errors;
+				lines.add(getSummaryLine(stats.getName(), "Error", "", ""));
+			}
+		}
+
+		lines.add(getSummaryLine("Total", Utility.formatLong(totalRows),
+				Utility.formatLong(totalBytes), ""));
+
+		ListFormatter fmt = new ListFormatter(lines);
+		System.out.print(ListFormatter.getTextLine(fmt.format(3, lines)));
+		if (errors > 0) {
+			System.out.println("Number of tables with errors: " + errors);
+		}
+	}
+
+
+	/**
+	 * Build one line of the summary.
+	 *
+	 * @param values the values in the line
+	 * @return the line
+	 */
+	private static List<String> getSummaryLine(final String... values) {
+		final List<String> line = new ArrayList<String>(values.length);
+		Collections.addAll(line, values);
+		return line;
+	}
+}
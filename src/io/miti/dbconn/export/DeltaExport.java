@@ -0,0 +1,257 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Properties;
+
+import io.miti.dbconn.util.ConnManager;
+import io.miti.dbconn.util.Database;
+import io.miti.dbconn.util.Logger;
+import io.miti.dbconn.util.RowHandler;
+import io.miti.dbconn.util.Utility;
+
+/**
+ * Export the rows of a table that are newer than the last export,
+ * based on an increasing column (such as a last-updated timestamp
+ * or a sequence number).  The highest value exported is saved in a
+ * watermark file next to the output.  The first run exports the
+ * whole table to the base file; later runs write the newer rows to
+ * a delta file, or append them to the base file.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class DeltaExport
+{
+	/** The table export. */
+	private final TableExport export;
+
+	/** The watermark column. */
+	private final String column;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param export the table export
+	 * @param column the watermark column
+	 */
+	DeltaExport(final TableExport export, final String column) {
+		super();
+		this.export = export;
+		this.column = column;
+	}
+
+
+	/**
+	 * Run the export.
+	 */
+	void run() {
+		final ExportSettings settings = export.getSettings();
+		if (!export.hasSimpleFilter()) {
+			export.report("Only a 'where ...' filter can be used with 'since'");
+			return;
+		} else if (settings.isResumable() || (settings.getParallel(1) > 1) || settings.isSplit()
+				|| settings.isDump() || settings.isArrow()) {
+			export.report("A 'since' export cannot use --resumable, --parallel, --max-rows, --max-bytes or --format");
+			return;
+		}
+
+		// Load the watermark from the last run
+		final String table = export.getTableName();
+		final File stateFile = settings.getOutputFile(table + ".watermark");
+		Object lastValue = null;
+		if (stateFile.isFile()) {
+			try {
+				lastValue = loadWatermark(stateFile);
+			} catch (IOException e) {
+				export.report(e.getMessage());
+				return;
+			}
+
+			if (lastValue == null) {
+				return;
+			}
+		}
+
+		// Get the new watermark first, so rows added during the export
+		// are left for the next run
+		final Connection conn = ConnManager.get().getConn();
+		final MaxValueReader reader = new MaxValueReader();
+		if (Database.executeSelect(conn, export.buildQuery("max(" + column + ")", null, null),
+				null, 0, 0, reader) < 0L) {
+			export.report("Error getting the highest value of " + column);
+			return;
+		}
+
+		final Object maxValue = reader.getValue();
+		if (maxValue == null) {
+			export.report("No values found in " + column + "; nothing to export");
+			return;
+		} else if ((lastValue != null) && (compare(maxValue, lastValue) <= 0)) {
+			export.report("No new rows since " + lastValue);
+			return;
+		}
+
+		// Choose the rows and the file
+		final String predicate;
+		final Object[] params;
+		final File file;
+		final CsvRowWriter writer;
+		if (lastValue == null) {
+			predicate = "(" + column + " <= ?) or (" + column + " is null)";
+			params = new Object[] {maxValue};
+			file = export.getOutputFile();
+			writer = new CsvRowWriter(file, true, settings);
+		} else {
+			predicate = "(" + column + " > ?) and (" + column + " <= ?)";
+			params = new Object[] {lastValue, maxValue};
+			file = (settings.isAppend() ? export.getOutputFile() : getDeltaFile());
+			writer = new CsvRowWriter(file, true, settings);
+			writer.setAppend(settings.isAppend());
+		}
+
+		// Export the rows
+		writer.setProgress(export.getProgress());
+		long rows = Database.executeSelect(conn, export.buildQuery(predicate, null),
+				params, settings.getFetchSize(), 0, settings.getThrottle().wrap(writer));
+		try {
+			writer.close();
+		} catch (IOException e) {
+			Logger.error(e);
+			rows = -1L;
+		}
+
+		if (rows < 0L) {
+			export.report("Error exporting the table data");
+			return;
+		}
+
+		// Save the new watermark
+		try {
+			saveWatermark(stateFile, reader.getType(), maxValue);
+		} catch (IOException e) {
+			Logger.error(e);
+			export.report("Error saving the watermark file " + stateFile.getName());
+			return;
+		}
+
+		export.report(String.format("Data saved to %s (%s rows); %s is now at %s",
+				file.getName(), Utility.formatLong(rows), column, maxValue));
+	}
+
+
+	/**
+	 * Load the last value exported from the watermark file.  A
+	 * message is printed if the file is for a different export.
+	 *
+	 * @param stateFile the watermark file
+	 * @return the last value exported, or null if the file does not match
+	 * @throws IOException an input exception, or an invalid file
+	 */
+	private Object loadWatermark(final File stateFile) throws IOException {
+		final Properties props = ExportCheckpoint.load(stateFile);
+		final String where = export.getWhereClause();
+		if (!column.equalsIgnoreCase(props.getProperty("column"))
+				|| !((where == null) ? "" : where).equals(props.getProperty("where", ""))) {
+			export.report("The watermark file " + stateFile.getName()
+					+ " is for a different column or filter; delete it to start over");
+			return null;
+		}
+
+		try {
+			return KeyValue.parse(Integer.parseInt(props.getProperty("type")),
+					props.getProperty("value"));
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid watermark file " + stateFile.getName());
+		}
+	}
+
+
+	/**
+	 * Save the highest value exported to the watermark file.
+	 *
+	 * @param stateFile the watermark file
+	 * @param sqlType the SQL type of the column
+	 * @param value the highest value exported
+	 * @throws IOException an output exception
+	 */
+	private void saveWatermark(final File stateFile, final int sqlType,
+			final Object value) throws IOException {
+		final String where = export.getWhereClause();
+		Properties props = new Properties();
+		props.setProperty("table", export.getTableName());
+		props.setProperty("column", column);
+		props.setProperty("where", (where == null) ? "" : where);
+		props.setProperty("type", Integer.toString(sqlType));
+		props.setProperty("value", value.toString());
+		ExportCheckpoint.store(props, stateFile, "dbconn export watermark");
+	}
+
+
+	/**
+	 * Return the file for the rows exported by this run.
+	 *
+	 * @return the delta file
+	 */
+	private File getDeltaFile() {
+		final String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		return export.getSettings().getOutputFile(export.getTableName() + ".delta-"
+				+ stamp + export.getSettings().getExtension());
+	}
+
+
+	/**
+	 * Compare two watermark values of the same type.
+	 *
+	 * @param value1 the first value
+	 * @param value2 the second value
+	 * @return the result of the comparison
+	 */
+	@SuppressWarnings("unchecked")
+	private static int compare(final Object value1, final Object value2) {
+		return ((Comparable<Object>) value1).compareTo(value2);
+	}
+
+
+	/**
+	 * Read the value and type of the single column of a query.
+	 */
+	private static final class MaxValueReader implements RowHandler
+	{
+		/** The SQL type of the column. */
+		private int type = 0;
+
+		/** The value. */
+		private Object value = null;
+
+
+		@Override
+		public void startResults(final ResultSetMetaData metaData) throws SQLException {
+			type = metaData.getColumnType(1);
+		}
+
+
+		@Override
+		public boolean processRow(final ResultSet rs) throws SQLException {
+			value = KeyValue.read(rs, 1, type);
+			return false;
+		}
+
+
+		int getType() {
+			return type;
+		}
+
+
+		Object getValue() {
+			return value;
+		}
+	}
+}
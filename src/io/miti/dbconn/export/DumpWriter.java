@@ -0,0 +1,674 @@
+package io.miti.dbconn.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import io.miti.dbconn.util.RowHandler;
+import io.miti.dbconn.util.TableColumn;
+
+/**
+ * Write the rows of a query to a dbconn dump file (.dbd), a compact
+ * binary format that keeps the type of every value.  All numbers are
+ * big-endian, and text is UTF-8.
+ * <pre>
+ * header:  "DBCDUMP" 1, column count (int), then for each column
+ *          its name (text), TableColumn type (byte) and JDBC type (int),
+ *          then the index of the key column (int, -1 for none)
+ * block:   uncompressed size (int), compressed size (int), row count (int),
+ *          then the rows, compressed with deflate (zlib)
+ * spill:   -1 (int), uncompressed size (long), compressed size (long),
+ *          then one large value, compressed with deflate (zlib)
+ * row:     length (int), then one value per column
+ * value:   a tag (byte), then the value:
+ *            INT (0) int, DOUBLE (1) double, FLOAT (2) float,
+ *            STRING (3) text, LONG (5) long, DATE (8) long millis,
+ *            BOOLEAN (9) byte, DECIMAL (10) scale (int) and the
+ *            unscaled value (length-prefixed two's complement bytes),
+ *            CLOB (11) text, BLOB (14) length (int) and bytes,
+ *            TIMESTAMP (15) long millis and int nanos, SPILL (16)
+ *            the tag of the value (CLOB or BLOB) and the file offset
+ *            of its spill (long), NULL (-1)
+ * text:    length in bytes (int), then the UTF-8 bytes
+ * index:   block count (int), then for each block its file offset
+ *          (long), first row (long), row count (int), and the lowest
+ *          and highest key values (tagged values, NULL if no key)
+ * footer:  index offset (long), total rows (long), "DBCINDEX"
+ * </pre>
+ * The tags are the TableColumn type codes, plus TIMESTAMP, SPILL and
+ * NULL.  A CLOB or BLOB value of 1 MB or more is streamed straight to
+ * the file as a spill, just before the block of its row, so it is never
+ * held in memory and can be larger than 2 GB.  A reader can seek to the
+ * footer, load the index, and jump straight to the blocks that hold
+ * a range of keys.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class DumpWriter implements RowHandler, ValueSink
+{
+	/** The tag for a timestamp (not a TableColumn type). */
+	public static final int TAG_TIMESTAMP = 15;
+
+	/** The tag for a value written to its own spill (not a TableColumn type). */
+	public static final int TAG_SPILL = 16;
+
+	/** The tag for a null value. */
+	public static final int TAG_NULL = -1;
+
+	/** The uncompressed size at which a block is written. */
+	private static final int BLOCK_SIZE = 1024 * 1024;
+
+	/** The size at which a CLOB or BLOB value is written to its own spill. */
+	private static final int SPILL_SIZE = 1024 * 1024;
+
+	/** The marker at the start of a spill, in place of a block's size. */
+	private static final int SPILL_MARKER = -1;
+
+	/** The file header. */
+	private static final byte[] MAGIC = {'D', 'B', 'C', 'D', 'U', 'M', 'P', 1};
+
+	/** The end of the footer. */
+	private static final byte[] FOOTER_MAGIC = {'D', 'B', 'C', 'I', 'N', 'D', 'E', 'X'};
+
+	/** The output file. */
+	private final File file;
+
+	/** The name of the key column, or null. */
+	private final String keyColumn;
+
+	/** The channel for the output file. */
+	private FileChannel channel = null;
+
+	/** The stream for the output file. */
+	private FileOutputStream stream = null;
+
+	/** The readers for each column. */
+	private ColumnReader[] readers = null;
+
+	/** The index of the key column (starting at 1), or -1. */
+	private int keyIndex = -1;
+
+	/** The SQL type of the key column. */
+	private int keyType = 0;
+
+	/** The bytes of the current row. */
+	private final ByteArrayOutputStream rowBytes = new ByteArrayOutputStream(256);
+
+	/** Writes values into the current row. */
+	private final DataOutputStream row = new DataOutputStream(rowBytes);
+
+	/** The uncompressed bytes of the current block. */
+	private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream(BLOCK_SIZE + BLOCK_SIZE / 4);
+
+	/** Writes rows into the current block. */
+	private final DataOutputStream block = new DataOutputStream(blockBytes);
+
+	/** Compresses the blocks. */
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+	/** The buffer for compressed bytes. */
+	private byte[] compressed = new byte[BLOCK_SIZE];
+
+	/** Holds a CLOB or BLOB value until it is known to fit in the row. */
+	private final LobOutput lob = new LobOutput();
+
+	/** The index entry for each block written. */
+	private final List<BlockEntry> blocks = new ArrayList<BlockEntry>(100);
+
+	/** The number of rows in the current block. */
+	private int blockRows = 0;
+
+	/** The lowest key in the current block. */
+	private Object minKey = null;
+
+	/** The highest key in the current block. */
+	private Object maxKey = null;
+
+	/** The number of rows written. */
+	private long rowCount = 0L;
+
+	/** The progress of the export. */
+	private ExportProgress progress = ExportProgress.hidden();
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file the output file
+	 * @param keyColumn the name of the key column for the block index, or null
+	 */
+	public DumpWriter(final File file, final String keyColumn) {
+		super();
+		this.file = file;
+		this.keyColumn = keyColumn;
+	}
+
+
+	@Override
+	public void startResults(final ResultSetMetaData metaData)
+			throws SQLException, IOException {
+		readers = ColumnReader.forMetaData(metaData);
+		final int numColumns = readers.length;
+
+		// Find the key column
+		for (int i = 1; (keyColumn != null) && (i <= numColumns); ++i) {
+			if (keyColumn.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+				keyIndex = i;
+				keyType = metaData.getColumnType(i);
+				break;
+			}
+		}
+
+		// Write the header
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(200);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.write(MAGIC);
+		out.writeInt(numColumns);
+		for (int i = 0; i < numColumns; ++i) {
+			writeText(out, metaData.getColumnLabel(i + 1));
+			out.writeByte(readers[i].getColType());
+			out.writeInt(metaData.getColumnType(i + 1));
+		}
+		out.writeInt((keyIndex > 0) ? (keyIndex - 1) : -1);
+
+		stream = new FileOutputStream(file);
+		channel = stream.getChannel();
+		write(bytes);
+	}
+
+
+	@Override
+	public boolean processRow(final ResultSet rs) throws SQLException, IOException {
+		rowBytes.reset();
+		final int numColumns = readers.length;
+		for (int i = 0; i < numColumns; ++i) {
+			readers[i].read(rs, i + 1, this);
+		}
+
+		block.writeInt(rowBytes.size());
+		rowBytes.writeTo(block);
+		++blockRows;
+		++rowCount;
+
+		if (keyIndex > 0) {
+			updateKeyRange(KeyValue.read(rs, keyIndex, keyType));
+		}
+
+		if (blockBytes.size() >= BLOCK_SIZE) {
+			writeBlock();
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Write the last block, the index and the footer, and close the file.
+	 *
+	 * @throws IOException an output exception
+	 */
+	public void close() throws IOException {
+		if (channel == null) {
+			return;
+		}
+
+		try {
+			writeBlock();
+
+			// Write the block index and the footer
+			final long indexOffset = channel.position();
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * (blocks.size() + 1));
+			final DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(blocks.size());
+			for (BlockEntry entry : blocks) {
+				out.writeLong(entry.offset);
+				out.writeLong(entry.firstRow);
+				out.writeInt(entry.rows);
+				writeKey(out, entry.minKey);
+				writeKey(out, entry.maxKey);
+			}
+
+			out.writeLong(indexOffset);
+			out.writeLong(rowCount);
+			out.write(FOOTER_MAGIC);
+			write(bytes);
+		} finally {
+			deflater.end();
+			stream.close();
+			channel = null;
+		}
+	}
+
+
+	/**
+	 * Compress and write the current block, and add it to the index.
+	 *
+	 * @throws IOException an output exception
+	 */
+	private void writeBlock() throws IOException {
+		if (blockRows == 0) {
+			return;
+		}
+
+		final int size = blockBytes.size();
+		final long offset = channel.position();
+		deflater.reset();
+		deflater.setInput(blockBytes.toByteArray());
+		deflater.finish();
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == compressed.length) {
+				final byte[] larger = new byte[compressed.length * 2];
+				System.arraycopy(compressed, 0, larger, 0, length);
+				compressed = larger;
+			}
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+
+		final ByteBuffer header = ByteBuffer.allocate(12);
+		header.putInt(size).putInt(length).putInt(blockRows).flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+
+		final ByteBuffer data = ByteBuffer.wrap(compressed, 0, length);
+		while (data.hasRemaining()) {
+			channel.write(data);
+		}
+
+		blocks.add(new BlockEntry(offset, rowCount - blockRows, blockRows, minKey, maxKey));
+		progress.add(blockRows, size);
+		blockBytes.reset();
+		blockRows = 0;
+		minKey = null;
+		maxKey = null;
+	}
+
+
+	/**
+	 * Track the lowest and highest key in the current block.
+	 *
+	 * @param key the key of the current row
+	 */
+	@SuppressWarnings("unchecked")
+	private void updateKeyRange(final Object key) {
+		if (key == null) {
+			return;
+		}
+
+		if ((minKey == null) || (((Comparable<Object>) key).compareTo(minKey) < 0)) {
+			minKey = key;
+		}
+		if ((maxKey == null) || (((Comparable<Object>) key).compareTo(maxKey) > 0)) {
+			maxKey = key;
+		}
+	}
+
+
+	/**
+	 * Write a key value (as read by KeyValue) as a tagged value.
+	 *
+	 * @param out the output stream
+	 * @param key the key value, or null
+	 * @throws IOException an output exception
+	 */
+	private static void writeKey(final DataOutputStream out, final Object key)
+			throws IOException {
+		if (key == null) {
+			out.writeByte(TAG_NULL);
+		} else if (key instanceof Long) {
+			out.writeByte(TableColumn.COL_LONG);
+			out.writeLong(((Long) key).longValue());
+		} else if (key instanceof BigDecimal) {
+			writeDecimal(out, (BigDecimal) key);
+		} else if (key instanceof Timestamp) {
+			writeTimestamp(out, (Timestamp) key);
+		} else if (key instanceof Date) {
+			out.writeByte(TableColumn.COL_DATE);
+			out.writeLong(((Date) key).getTime());
+		} else {
+			out.writeByte(TableColumn.COL_STRING);
+			writeText(out, key.toString());
+		}
+	}
+
+
+	/**
+	 * Write the bytes in a buffer to the file.
+	 *
+	 * @param bytes the bytes
+	 * @throws IOException an output exception
+	 */
+	private void write(final ByteArrayOutputStream bytes) throws IOException {
+		final ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+	}
+
+
+	/**
+	 * Write text as a length and its UTF-8 bytes.
+	 *
+	 * @param out the output stream
+	 * @param value the text
+	 * @throws IOException an output exception
+	 */
+	private static void writeText(final DataOutputStream out, final String value)
+			throws IOException {
+		final byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+
+	/**
+	 * Write a decimal as its tag, scale and unscaled bytes.
+	 *
+	 * @param out the output stream
+	 * @param value the decimal
+	 * @throws IOException an output exception
+	 */
+	private static void writeDecimal(final DataOutputStream out, final BigDecimal value)
+			throws IOException {
+		final byte[] unscaled = value.unscaledValue().toByteArray();
+		out.writeByte(TableColumn.COL_DECIMAL);
+		out.writeInt(value.scale());
+		out.writeInt(unscaled.length);
+		out.write(unscaled);
+	}
+
+
+	/**
+	 * Write a timestamp as its tag, milliseconds and nanoseconds.
+	 *
+	 * @param out the output stream
+	 * @param value the timestamp
+	 * @throws IOException an output exception
+	 */
+	private static void writeTimestamp(final DataOutputStream out, final Timestamp value)
+			throws IOException {
+		out.writeByte(TAG_TIMESTAMP);
+		out.writeLong(value.getTime());
+		out.writeInt(value.getNanos());
+	}
+
+
+	/**
+	 * Return the number of rows written.
+	 *
+	 * @return the number of rows
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+
+	/**
+	 * Return the number of bytes written to the file so far.
+	 *
+	 * @return the file size
+	 */
+	public long getByteCount() {
+		return file.length();
+	}
+
+
+	/**
+	 * Set the progress to add the rows and bytes written to.
+	 *
+	 * @param exportProgress the progress of the export
+	 */
+	void setProgress(final ExportProgress exportProgress) {
+		progress = exportProgress;
+	}
+
+
+	@Override
+	public void writeNull() throws IOException {
+		row.writeByte(TAG_NULL);
+	}
+
+
+	@Override
+	public void writeInt(final int value) throws IOException {
+		row.writeByte(TableColumn.COL_INT);
+		row.writeInt(value);
+	}
+
+
+	@Override
+	public void writeLong(final long value) throws IOException {
+		row.writeByte(TableColumn.COL_LONG);
+		row.writeLong(value);
+	}
+
+
+	@Override
+	public void writeFloat(final float value) throws IOException {
+		row.writeByte(TableColumn.COL_FLOAT);
+		row.writeFloat(value);
+	}
+
+
+	@Override
+	public void writeDouble(final double value) throws IOException {
+		row.writeByte(TableColumn.COL_DOUBLE);
+		row.writeDouble(value);
+	}
+
+
+	@Override
+	public void writeDecimal(final BigDecimal value) throws IOException {
+		writeDecimal(row, value);
+	}
+
+
+	@Override
+	public void writeBoolean(final boolean value) throws IOException {
+		row.writeByte(TableColumn.COL_BOOLEAN);
+		row.writeByte(value ? 1 : 0);
+	}
+
+
+	@Override
+	public void writeDate(final Date value) throws IOException {
+		row.writeByte(TableColumn.COL_DATE);
+		row.writeLong(value.getTime());
+	}
+
+
+	@Override
+	public void writeTimestamp(final Timestamp value) throws IOException {
+		writeTimestamp(row, value);
+	}
+
+
+	@Override
+	public void writeText(final String value) throws IOException {
+		row.writeByte(TableColumn.COL_STRING);
+		writeText(row, value);
+	}
+
+
+	@Override
+	public void writeBinary(final InputStream in) throws IOException {
+		lob.start();
+		final byte[] buf = new byte[8192];
+		int len;
+		while ((len = in.read(buf)) >= 0) {
+			lob.write(buf, 0, len);
+		}
+
+		lob.end(TableColumn.COL_BLOB);
+	}
+
+
+	@Override
+	public void writeCharacters(final Reader in) throws IOException {
+		lob.start();
+		final Writer out = new OutputStreamWriter(lob, "UTF-8");
+		final char[] buf = new char[8192];
+		int len;
+		while ((len = in.read(buf)) >= 0) {
+			out.write(buf, 0, len);
+		}
+		out.flush();
+
+		lob.end(TableColumn.COL_CLOB);
+	}
+
+
+	/**
+	 * Collects the bytes of a CLOB or BLOB value.  Up to SPILL_SIZE
+	 * bytes are held in memory and written into the row; past that,
+	 * the value is compressed straight into a spill in the file, and
+	 * the row refers to it.
+	 */
+	private final class LobOutput extends OutputStream
+	{
+		/** The bytes of a value that fits in the row. */
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+
+		/** Compresses the value into the spill, or null if it fits in the row. */
+		private DeflaterOutputStream spill = null;
+
+		/** The file offset of the spill. */
+		private long spillOffset = 0L;
+
+		/** The number of bytes in the value. */
+		private long size = 0L;
+
+
+		/**
+		 * Constructor.
+		 */
+		LobOutput() {
+			super();
+		}
+
+
+		/**
+		 * Start a new value.
+		 */
+		void start() {
+			bytes.reset();
+			spill = null;
+			size = 0L;
+		}
+
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+
+		@Override
+		public void write(final byte[] buf, final int off, final int len) throws IOException {
+			size += len;
+			if (spill != null) {
+				spill.write(buf, off, len);
+				return;
+			} else if (size < SPILL_SIZE) {
+				bytes.write(buf, off, len);
+				return;
+			}
+
+			// Too large for the row: move the value to a spill, after space for its header
+			spillOffset = channel.position();
+			channel.position(spillOffset + 20L);
+			deflater.reset();
+			spill = new DeflaterOutputStream(Channels.newOutputStream(channel), deflater, 65536);
+			bytes.writeTo(spill);
+			bytes.reset();
+			spill.write(buf, off, len);
+		}
+
+
+		/**
+		 * Write the value into the row, or finish its spill and write
+		 * a reference to it into the row.
+		 *
+		 * @param tag the tag of the value
+		 * @throws IOException an output exception
+		 */
+		void end(final int tag) throws IOException {
+			if (spill == null) {
+				row.writeByte(tag);
+				row.writeInt(bytes.size());
+				bytes.writeTo(row);
+				return;
+			}
+
+			spill.finish();
+			final ByteBuffer header = ByteBuffer.allocate(20);
+			header.putInt(SPILL_MARKER).putLong(size)
+				.putLong(channel.position() - spillOffset - 20L).flip();
+			long pos = spillOffset;
+			while (header.hasRemaining()) {
+				pos += channel.write(header, pos);
+			}
+
+			row.writeByte(TAG_SPILL);
+			row.writeByte(tag);
+			row.writeLong(spillOffset);
+			progress.add(0L, size);
+			spill = null;
+		}
+	}
+
+
+	/**
+	 * The index entry for one block.
+	 */
+	private static final class BlockEntry
+	{
+		/** The offset of the block in the file. */
+		private final long offset;
+
+		/** The number of the first row in the block (starting at 0). */
+		private final long firstRow;
+
+		/** The number of rows in the block. */
+		private final int rows;
+
+		/** The lowest key in the block. */
+		private final Object minKey;
+
+		/** The highest key in the block. */
+		private final Object maxKey;
+
+
+		BlockEntry(final long offset, final long firstRow, final int rows,
+				final Object minKey, final Object maxKey) {
+			super();
+			this.offset = offset;
+			this.firstRow = firstRow;
+			this.rows = rows;
+			this.minKey = minKey;
+			this.maxKey = maxKey;
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The sidecar file for a resumable export, recording the key of
+ * the last row written and the size of the output file at that point.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class ExportCheckpoint
+{
+	/** The checkpoint file. */
+	private final File file;
+
+	/** The table name. */
+	private String tableName = null;
+
+	/** The where clause (empty if none). */
+	private String whereClause = "";
+
+	/** The names of the key columns. */
+	private String[] keyNames = null;
+
+	/** The SQL types of the key columns. */
+	private int[] keyTypes = null;
+
+	/** The values of the key columns in the last row written. */
+	private Object[] keyValues = null;
+
+	/** The size of the output file after the last row written. */
+	private long offset = 0L;
+
+	/** The number of rows written. */
+	private long rows = 0L;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param outputFile the output file of the export
+	 */
+	ExportCheckpoint(final File outputFile) {
+		super();
+		file = new File(outputFile.getPath() + ".checkpoint");
+	}
+
+
+	/**
+	 * Return whether the checkpoint file exists.
+	 *
+	 * @return whether there is a checkpoint
+	 */
+	boolean exists() {
+		return file.isFile();
+	}
+
+
+	/**
+	 * Load the checkpoint file.
+	 *
+	 * @throws IOException an input exception, or an invalid file
+	 */
+	void load() throws IOException {
+		final Properties props = load(file);
+		try {
+			tableName = props.getProperty("table");
+			whereClause = props.getProperty("where", "");
+			offset = Long.parseLong(props.getProperty("offset"));
+			rows = Long.parseLong(props.getProperty("rows"));
+
+			final int count = Integer.parseInt(props.getProperty("keys"));
+			keyNames = new String[count];
+			keyTypes = new int[count];
+			keyValues = new Object[count];
+			for (int i = 0; i < count; ++i) {
+				keyNames[i] = props.getProperty("key." + i + ".name");
+				keyTypes[i] = Integer.parseInt(props.getProperty("key." + i + ".type"));
+				keyValues[i] = KeyValue.parse(keyTypes[i], props.getProperty("key." + i + ".value"));
+			}
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid checkpoint file " + file.getName());
+		}
+	}
+
+
+	/**
+	 * Save the checkpoint.  It is written to a temporary file
+	 * first, so a failure cannot leave a partial checkpoint.
+	 *
+	 * @throws IOException an output exception
+	 */
+	void save() throws IOException {
+		Properties props = new Properties();
+		props.setProperty("table", tableName);
+		props.setProperty("where", whereClause);
+		props.setProperty("offset", Long.toString(offset));
+		props.setProperty("rows", Long.toString(rows));
+		props.setProperty("keys", Integer.toString(keyNames.length));
+		for (int i = 0; i < keyNames.length; ++i) {
+			props.setProperty("key." + i + ".name", keyNames[i]);
+			props.setProperty("key." + i + ".type", Integer.toString(keyTypes[i]));
+			props.setProperty("key." + i + ".value", keyValues[i].toString());
+		}
+
+		store(props, file, "dbconn export checkpoint");
+	}
+
+
+	/**
+	 * Load a properties file.
+	 *
+	 * @param propsFile the file
+	 * @return the properties
+	 * @throws IOException an input exception
+	 */
+	static Properties load(final File propsFile) throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(propsFile);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+
+		return props;
+	}
+
+
+	/**
+	 * Save a properties file.  It is written to a temporary file
+	 * first, so a failure cannot leave a partial file.
+	 *
+	 * @param props the properties
+	 * @param propsFile the file
+	 * @param comment the comment for the top of the file
+	 * @throws IOException an output exception
+	 */
+	static void store(final Properties props, final File propsFile,
+			final String comment) throws IOException {
+		final File temp = new File(propsFile.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			props.store(out, comment);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		// Windows cannot rename over an existing file
+		if (!temp.renameTo(propsFile) && (!propsFile.delete() || !temp.renameTo(propsFile))) {
+			throw new IOException("Unable to save " + propsFile.getName());
+		}
+	}
+
+
+	/**
+	 * Delete the checkpoint file.
+	 */
+	void delete() {
+		if (file.exists() && !file.delete()) {
+			System.out.println("Unable to delete the checkpoint file " + file.getName());
+		}
+	}
+
+
+	/**
+	 * Return whether the checkpoint is for the same table, filter
+	 * and key columns.
+	 *
+	 * @param table the table name
+	 * @param where the where clause, or null
+	 * @param keys the key column names
+	 * @return whether the checkpoint matches the export
+	 */
+	boolean matches(final String table, final String where, final List<String> keys) {
+		if (!table.equalsIgnoreCase(tableName)
+				|| !((where == null) ? "" : where).equals(whereClause)
+				|| (keys.size() != keyNames.length)) {
+			return false;
+		}
+
+		for (int i = 0; i < keyNames.length; ++i) {
+			if (!keys.get(i).equalsIgnoreCase(keyNames[i])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Save the position after a page of rows.
+	 *
+	 * @param names the key column names
+	 * @param types the SQL types of the key columns
+	 * @param values the key values of the last row written
+	 * @param fileOffset the size of the output file
+	 * @param rowCount the number of rows written
+	 */
+	void update(final String[] names, final int[] types, final Object[] values,
+			final long fileOffset, final long rowCount) {
+		keyNames = names;
+		keyTypes = types;
+		keyValues = values;
+		offset = fileOffset;
+		rows = rowCount;
+	}
+
+
+	void setTable(final String table, final String where) {
+		tableName = table;
+		whereClause = ((where == null) ? "" : where);
+	}
+
+
+	Object[] getKeyValues() {
+		return keyValues;
+	}
+
+
+	long getOffset() {
+		return offset;
+	}
+
+
+	long getRows() {
+		return rows;
+	}
+
+
+	File getFile() {
+		return file;
+	}
+}
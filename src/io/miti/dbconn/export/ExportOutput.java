@@ -0,0 +1,161 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Open the output channel for an export file, compressing it
+ * with gzip if the settings ask for it.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class ExportOutput
+{
+	/** The buffer size for single-threaded gzip output. */
+	private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+
+	/**
+	 * Default constructor.  Private.
+	 */
+	private ExportOutput() {
+		super();
+	}
+
+
+	/**
+	 * Open a file for writing.
+	 *
+	 * @param file the output file
+	 * @param settings the export settings
+	 * @return the channel to write the data to
+	 * @throws IOException an output exception
+	 */
+	public static WritableByteChannel open(final File file, final ExportSettings settings)
+			throws IOException {
+		return open(file, settings, false);
+	}
+
+
+	/**
+	 * Open a file for writing, optionally adding to the end of it.
+	 * A compressed file is appended to as a new gzip member, which
+	 * gunzip reads as part of the same file.
+	 *
+	 * @param file the output file
+	 * @param settings the export settings
+	 * @param append whether to add to the end of the file
+	 * @return the channel to write the data to
+	 * @throws IOException an output exception
+	 */
+	public static WritableByteChannel open(final File file, final ExportSettings settings,
+			final boolean append) throws IOException {
+		return open(file, settings, append, null);
+	}
+
+
+	/**
+	 * Open a file for writing, computing a digest of the bytes
+	 * written to the file (after any compression).
+	 *
+	 * @param file the output file
+	 * @param settings the export settings
+	 * @param append whether to add to the end of the file
+	 * @param digest the digest to update, or null
+	 * @return the channel to write the data to
+	 * @throws IOException an output exception
+	 */
+	public static WritableByteChannel open(final File file, final ExportSettings settings,
+			final boolean append, final MessageDigest digest) throws IOException {
+		final FileChannel fileChannel = new FileOutputStream(file, append).getChannel();
+		final WritableByteChannel channel = ((digest == null) ? fileChannel
+				: new DigestChannel(fileChannel, digest));
+		if (!settings.isGzip()) {
+			return channel;
+		} else if (settings.getGzipThreads() > 1) {
+			return new ParallelGzipChannel(channel, settings.getGzipThreads());
+		}
+
+		return Channels.newChannel(new GZIPOutputStream(
+				Channels.newOutputStream(channel), GZIP_BUFFER_SIZE));
+	}
+
+
+	/**
+	 * Open an uncompressed file to continue writing at an offset.
+	 * Anything in the file after the offset is discarded.
+	 *
+	 * @param file the output file
+	 * @param offset the offset to write from
+	 * @return the channel to write the data to
+	 * @throws IOException an output exception
+	 */
+	public static FileChannel openAt(final File file, final long offset)
+			throws IOException {
+		final FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+		if (channel.size() < offset) {
+			channel.close();
+			throw new IOException("The file " + file.getName() + " is shorter than expected");
+		}
+
+		channel.truncate(offset);
+		channel.position(offset);
+		return channel;
+	}
+
+
+	/**
+	 * A channel that updates a digest with the bytes written to a file.
+	 */
+	private static final class DigestChannel implements WritableByteChannel
+	{
+		/** The file channel. */
+		private final FileChannel channel;
+
+		/** The digest. */
+		private final MessageDigest digest;
+
+
+		/**
+		 * Constructor.
+		 *
+		 * @param channel the file channel
+		 * @param digest the digest
+		 */
+		DigestChannel(final FileChannel channel, final MessageDigest digest) {
+			this.channel = channel;
+			this.digest = digest;
+		}
+
+
+		@Override
+		public int write(final ByteBuffer src) throws IOException {
+			final ByteBuffer written = src.duplicate();
+			final int count = channel.write(src);
+			written.limit(written.position() + count);
+			digest.update(written);
+			return count;
+		}
+
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,753 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.miti.dbconn.util.RowHandler;
+
+/**
+ * Write the rows of a query to a CSV file in three stages, so the
+ * network, the CPU and the disk are busy at the same time:
+ * <ul>
+ * <li>Fetch: the caller's thread reads each row into a batch.</li>
+ * <li>Encode: a thread formats the batches as CSV into byte buffers.</li>
+ * <li>Write: a thread writes the buffers to the (compressed) file.</li>
+ * </ul>
+ * The stages are joined by bounded queues of reusable batches and
+ * buffers, so a slow stage makes the ones before it wait instead of
+ * using more memory.  Each stage tracks its busy and idle time.
+ * <p>
+ * If the settings limit the rows or bytes per file, the encode
+ * stage starts a new part (with its own header line) when a part is
+ * full, and tells the write stage to switch to the next file.
+ * <p>
+ * LOB values are streamed from the result set, so they can only be
+ * read while the row is current.  If the results have LOB columns,
+ * each row is encoded and written as it is fetched, on one thread.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class ExportPipeline implements RowHandler
+{
+	/** The number of rows in a batch. */
+	private static final int BATCH_ROWS = 512;
+
+	/** The number of row batches. */
+	private static final int NUM_BATCHES = 4;
+
+	/** The size of a byte buffer. */
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	/** The number of byte buffers. */
+	private static final int NUM_BUFFERS = 4;
+
+	/** How long to wait on a queue before checking for a failure, in ms. */
+	private static final long POLL_MILLIS = 100L;
+
+	/** The output file. */
+	private final File file;
+
+	/** Whether to write the header line. */
+	private final boolean writeHeader;
+
+	/** The export settings. */
+	private final ExportSettings settings;
+
+	/** The empty row batches. */
+	private final BlockingQueue<RowBatch> freeBatches =
+		new ArrayBlockingQueue<RowBatch>(NUM_BATCHES);
+
+	/** The filled row batches, waiting to be encoded. */
+	private final BlockingQueue<RowBatch> fullBatches =
+		new ArrayBlockingQueue<RowBatch>(NUM_BATCHES + 1);
+
+	/** The empty byte buffers. */
+	private final BlockingQueue<ByteBuffer> freeBuffers =
+		new ArrayBlockingQueue<ByteBuffer>(NUM_BUFFERS);
+
+	/** The filled byte buffers, waiting to be written. */
+	private final BlockingQueue<ByteBuffer> fullBuffers =
+		new ArrayBlockingQueue<ByteBuffer>(NUM_BUFFERS + 1);
+
+	/** The batch that marks the end of the rows. */
+	private final RowBatch endBatch = new RowBatch(1, 1);
+
+	/** The buffer that marks the end of the bytes. */
+	private final ByteBuffer endBuffer = ByteBuffer.allocate(0);
+
+	/** The buffer that marks the end of a part file. */
+	private final ByteBuffer nextPartBuffer = ByteBuffer.allocate(0);
+
+	/** The times for the fetch stage. */
+	private final StageTimer fetchTimer = new StageTimer("Fetch");
+
+	/** The times for the encode stage. */
+	private final StageTimer encodeTimer = new StageTimer("Encode");
+
+	/** The times for the write stage. */
+	private final StageTimer writeTimer = new StageTimer("Write");
+
+	/** The readers for each column. */
+	private ColumnReader[] readers = null;
+
+	/** The column labels, for the header line. */
+	private String[] labels = null;
+
+	/** The part files, if the export is split. */
+	private SplitFiles split = null;
+
+	/** The manifest of the part files, once written. */
+	private File manifest = null;
+
+	/** Whether the rows are encoded and written on the fetch thread. */
+	private boolean direct = false;
+
+	/** Formats the values as CSV fields. */
+	private CsvFieldWriter fields = null;
+
+	/** The number of rows in the current part file. */
+	private long partRows = 0L;
+
+	/** The number of bytes encoded before the current part file. */
+	private long partStart = 0L;
+
+	/** The number of bytes already added to the progress (direct mode). */
+	private long reportedBytes = 0L;
+
+	/** The batch being filled by the fetch stage. */
+	private RowBatch current = null;
+
+	/** The channel for the output file. */
+	private WritableByteChannel channel = null;
+
+	/** The channel from the encode stage to the write stage. */
+	private PipeChannel pipe = null;
+
+	/** The encoder for the CSV fields. */
+	private CsvEncoder out = null;
+
+	/** The encode stage thread. */
+	private Thread encodeThread = null;
+
+	/** The write stage thread. */
+	private Thread writeThread = null;
+
+	/** The first failure in a stage, or null. */
+	private volatile Throwable failure = null;
+
+	/** Whether the export was stopped by the fetch stage. */
+	private volatile boolean aborted = false;
+
+	/** The number of data rows read. */
+	private long rowCount = 0L;
+
+	/** The progress of the export. */
+	private ExportProgress progress = ExportProgress.hidden();
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file the output file
+	 * @param writeHeader whether to write the header line
+	 * @param settings the export settings
+	 */
+	ExportPipeline(final File file, final boolean writeHeader,
+			final ExportSettings settings) {
+		super();
+		this.file = file;
+		this.writeHeader = writeHeader;
+		this.settings = settings;
+	}
+
+
+	/**
+	 * Set the progress to add the rows and bytes written to.
+	 *
+	 * @param exportProgress the progress of the export
+	 */
+	void setProgress(final ExportProgress exportProgress) {
+		progress = exportProgress;
+	}
+
+
+	/**
+	 * Open the output file, write the header line and start the
+	 * encode and write stages.
+	 *
+	 * @param metaData the result set metadata
+	 */
+	@Override
+	public void startResults(final ResultSetMetaData metaData)
+			throws SQLException, IOException {
+
+		fetchTimer.start();
+		readers = ColumnReader.forMetaData(metaData);
+		for (ColumnReader reader : readers) {
+			direct = (direct || reader.isStreamed());
+		}
+
+		labels = new String[readers.length];
+		for (int i = 0; i < labels.length; ++i) {
+			labels[i] = metaData.getColumnLabel(i + 1);
+		}
+
+		if (settings.isSplit()) {
+			split = new SplitFiles(file, settings);
+			channel = split.openNext();
+		} else {
+			channel = ExportOutput.open(file, settings);
+		}
+		if (direct) {
+			out = new CsvEncoder(new DirectChannel(), settings.getCsvFormat());
+			fields = new CsvFieldWriter(out);
+			if (writeHeader) {
+				writeHeaderLine();
+			}
+			return;
+		}
+
+		for (int i = 0; i < NUM_BATCHES; ++i) {
+			freeBatches.add(new RowBatch(readers.length, BATCH_ROWS));
+		}
+		for (int i = 0; i < NUM_BUFFERS; ++i) {
+			freeBuffers.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+		}
+		current = freeBatches.poll();
+
+		pipe = new PipeChannel();
+		out = new CsvEncoder(pipe, settings.getCsvFormat());
+		fields = new CsvFieldWriter(out);
+
+		encodeThread = startStage("encode", new Runnable() {
+			@Override
+			public void run() {
+				encode();
+			}
+		});
+		writeThread = startStage("write", new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		});
+
+		// The encode stage only uses the encoder once it gets a batch
+		if (writeHeader) {
+			writeHeaderLine();
+		}
+	}
+
+
+	/**
+	 * Write the header line.
+	 *
+	 * @throws IOException an output exception
+	 */
+	private void writeHeaderLine() throws IOException {
+		for (String label : labels) {
+			out.writeField(label);
+		}
+		out.endLine();
+	}
+
+
+	/**
+	 * Add the current row to the batch, passing the batch to the
+	 * encode stage when it is full.
+	 *
+	 * @param rs the result set
+	 * @return true, to keep processing rows
+	 */
+	@Override
+	public boolean processRow(final ResultSet rs)
+			throws SQLException, IOException {
+
+		final int numColumns = readers.length;
+		if (direct) {
+			startRow();
+			for (int i = 0; i < numColumns; ++i) {
+				readers[i].read(rs, i + 1, fields);
+			}
+			out.endLine();
+			++partRows;
+
+			if ((++rowCount % BATCH_ROWS) == 0L) {
+				updateProgress(BATCH_ROWS);
+			}
+			return true;
+		}
+
+		for (int i = 0; i < numColumns; ++i) {
+			readers[i].read(rs, i + 1, current);
+		}
+
+		++rowCount;
+		if (current.isFull()) {
+			progress.add(current.getRowCount(), 0L);
+			put(fullBatches, current, fetchTimer);
+			current = take(freeBatches, fetchTimer);
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Pass the last rows on, wait for the other stages to finish
+	 * and close the file.  If the fetch failed, the other stages
+	 * are stopped instead.
+	 *
+	 * @param success whether all of the rows were fetched
+	 * @throws IOException an output exception, or a failure in a stage
+	 */
+	void finish(final boolean success) throws IOException {
+		if (channel == null) {
+			return;
+		}
+
+		try {
+			if (direct) {
+				if (success) {
+					out.flush();
+					updateProgress(rowCount % BATCH_ROWS);
+					if (split != null) {
+						split.endPart(partRows);
+					}
+				}
+				fetchTimer.stop();
+			} else if (success) {
+				if (current.getRowCount() > 0) {
+					progress.add(current.getRowCount(), 0L);
+					put(fullBatches, current, fetchTimer);
+				}
+				put(fullBatches, endBatch, fetchTimer);
+			} else {
+				aborted = true;
+			}
+
+			if (!direct) {
+				fetchTimer.stop();
+				join(encodeThread);
+				join(writeThread);
+			}
+		} finally {
+			channel.close();
+			channel = null;
+		}
+
+		if (failure != null) {
+			throw toIOException(failure);
+		} else if (success && (split != null)) {
+			manifest = split.writeManifest();
+		}
+	}
+
+
+	/**
+	 * The encode stage: format each batch of rows as CSV.
+	 */
+	private void encode() {
+		encodeTimer.start();
+		try {
+			while (true) {
+				final RowBatch batch = take(fullBatches, encodeTimer);
+				if (batch == endBatch) {
+					break;
+				}
+
+				final int rows = batch.getRowCount();
+				for (int row = 0; row < rows; ++row) {
+					startRow();
+					batch.replayRow(row, fields);
+					out.endLine();
+					++partRows;
+				}
+
+				batch.clear();
+				put(freeBatches, batch, encodeTimer);
+			}
+
+			// Pass on the last bytes, then the end marker
+			out.flush();
+			pipe.close();
+			if (split != null) {
+				split.endPart(partRows);
+			}
+		} catch (Throwable t) {
+			fail(t);
+		} finally {
+			encodeTimer.stop();
+		}
+	}
+
+
+	/**
+	 * Start a new part file if the current one is full.  A new part
+	 * is only started when there is a row for it.
+	 *
+	 * @throws IOException an output exception
+	 */
+	private void startRow() throws IOException {
+		if ((split == null) || (partRows == 0L)
+				|| !split.isFull(partRows, out.getBytesWritten() - partStart)) {
+			return;
+		}
+
+		out.flush();
+		if (direct) {
+			channel.close();
+			channel = split.openNext();
+		} else {
+			pipe.nextPart();
+		}
+
+		split.endPart(partRows);
+		partRows = 0L;
+		partStart = out.getBytesWritten();
+		if (writeHeader) {
+			writeHeaderLine();
+		}
+	}
+
+
+	/**
+	 * Add the rows and bytes written since the last update to the
+	 * progress, when rows are written on the fetch thread.
+	 *
+	 * @param rows the number of rows since the last update
+	 */
+	private void updateProgress(final long rows) {
+		final long bytes = out.getBytesWritten();
+		progress.add(rows, bytes - reportedBytes);
+		reportedBytes = bytes;
+	}
+
+
+	/**
+	 * The write stage: write each buffer to the file.
+	 */
+	private void write() {
+		writeTimer.start();
+		try {
+			while (true) {
+				final ByteBuffer buffer = take(fullBuffers, writeTimer);
+				if (buffer == endBuffer) {
+					break;
+				} else if (buffer == nextPartBuffer) {
+					channel.close();
+					channel = split.openNext();
+					continue;
+				}
+
+				buffer.flip();
+				progress.add(0L, buffer.remaining());
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+
+				buffer.clear();
+				put(freeBuffers, buffer, writeTimer);
+			}
+		} catch (Throwable t) {
+			fail(t);
+		} finally {
+			writeTimer.stop();
+		}
+	}
+
+
+	/**
+	 * Take the next item from a queue, counting the wait as idle
+	 * time for the stage.
+	 *
+	 * @param queue the queue
+	 * @param timer the timer for the stage
+	 * @return the item
+	 * @throws IOException if another stage failed, or the thread was interrupted
+	 */
+	private <T> T take(final BlockingQueue<T> queue, final StageTimer timer)
+			throws IOException {
+		timer.startWait();
+		try {
+			while (true) {
+				final T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (item != null) {
+					return item;
+				}
+				checkStages();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("The export was interrupted");
+		} finally {
+			timer.endWait();
+		}
+	}
+
+
+	/**
+	 * Add an item to a queue, counting any wait for space as idle
+	 * time for the stage.
+	 *
+	 * @param queue the queue
+	 * @param item the item
+	 * @param timer the timer for the stage
+	 * @throws IOException if another stage failed, or the thread was interrupted
+	 */
+	private <T> void put(final BlockingQueue<T> queue, final T item,
+			final StageTimer timer) throws IOException {
+		timer.startWait();
+		try {
+			while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				checkStages();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("The export was interrupted");
+		} finally {
+			timer.endWait();
+		}
+	}
+
+
+	/**
+	 * Throw an exception if a stage failed or the export was stopped,
+	 * so a stage does not wait forever on the others.
+	 *
+	 * @throws IOException if the export cannot continue
+	 */
+	private void checkStages() throws IOException {
+		if (failure != null) {
+			throw toIOException(failure);
+		} else if (aborted) {
+			throw new IOException("The export was stopped");
+		}
+	}
+
+
+	/**
+	 * Save the first failure in a stage.
+	 *
+	 * @param t the failure
+	 */
+	private synchronized void fail(final Throwable t) {
+		if ((failure == null) && !aborted) {
+			failure = t;
+		}
+	}
+
+
+	/**
+	 * Return a failure as an IOException.
+	 *
+	 * @param t the failure
+	 * @return the exception
+	 */
+	private static IOException toIOException(final Throwable t) {
+		if (t instanceof IOException) {
+			return (IOException) t;
+		}
+
+		IOException ioe = new IOException("Error in the export pipeline");
+		ioe.initCause(t);
+		return ioe;
+	}
+
+
+	/**
+	 * Start a stage on a daemon thread.
+	 *
+	 * @param name the name of the stage
+	 * @param stage the code for the stage
+	 * @return the thread
+	 */
+	private Thread startStage(final String name, final Runnable stage) {
+		final Thread thread = new Thread(stage, "export-" + name + "-" + file.getName());
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+
+	/**
+	 * Wait for a stage thread to end.
+	 *
+	 * @param thread the thread
+	 * @throws IOException if the wait was interrupted
+	 */
+	private static void join(final Thread thread) throws IOException {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("The export was interrupted");
+		}
+	}
+
+
+	/**
+	 * Return the number of data rows read.
+	 *
+	 * @return the number of rows
+	 */
+	long getRowCount() {
+		return rowCount;
+	}
+
+
+	/**
+	 * Return the number of bytes written.
+	 *
+	 * @return the number of bytes
+	 */
+	long getByteCount() {
+		return ((out == null) ? 0L : out.getBytesWritten());
+	}
+
+
+	/**
+	 * Return the number of part files, if the export is split.
+	 *
+	 * @return the number of parts (0 if not split)
+	 */
+	int getPartCount() {
+		return ((split == null) ? 0 : split.getPartCount());
+	}
+
+
+	/**
+	 * Return the manifest of the part files.
+	 *
+	 * @return the manifest, or null if the export is not split
+	 */
+	File getManifest() {
+		return manifest;
+	}
+
+
+	/**
+	 * Return the busy and idle times of each stage.
+	 *
+	 * @return the stage times, as text
+	 */
+	String getStageTimes() {
+		if (direct) {
+			return "The results have LOB columns, so they were exported on one thread";
+		}
+
+		return fetchTimer + "; " + encodeTimer + "; " + writeTimer;
+	}
+
+
+	/**
+	 * Write the bytes from the encoder to the current output file,
+	 * when rows are written on the fetch thread.
+	 */
+	private final class DirectChannel implements WritableByteChannel
+	{
+		@Override
+		public int write(final ByteBuffer src) throws IOException {
+			return channel.write(src);
+		}
+
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+
+		@Override
+		public void close() {
+			// The output file is closed by finish()
+		}
+	}
+
+
+	/**
+	 * Copy the bytes from the encoder into the pooled buffers, and
+	 * pass each full buffer to the write stage.
+	 */
+	private final class PipeChannel implements WritableByteChannel
+	{
+		/** The buffer being filled. */
+		private ByteBuffer buffer = null;
+
+		/** Whether the channel is open. */
+		private boolean open = true;
+
+
+		@Override
+		public int write(final ByteBuffer src) throws IOException {
+			final int count = src.remaining();
+			while (src.hasRemaining()) {
+				if (buffer == null) {
+					buffer = take(freeBuffers, encodeTimer);
+				}
+
+				// Copy as much as fits in the buffer
+				final int limit = src.limit();
+				src.limit(src.position() + Math.min(src.remaining(), buffer.remaining()));
+				buffer.put(src);
+				src.limit(limit);
+
+				if (!buffer.hasRemaining()) {
+					put(fullBuffers, buffer, encodeTimer);
+					buffer = null;
+				}
+			}
+
+			return count;
+		}
+
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+
+		/**
+		 * Pass on the last buffer, and the marker for the write
+		 * stage to start the next part file.
+		 *
+		 * @throws IOException if the write stage failed
+		 */
+		void nextPart() throws IOException {
+			if ((buffer != null) && (buffer.position() > 0)) {
+				put(fullBuffers, buffer, encodeTimer);
+				buffer = null;
+			}
+			put(fullBuffers, nextPartBuffer, encodeTimer);
+		}
+
+
+		/**
+		 * Pass on the last buffer and the end marker.
+		 *
+		 * @throws IOException if the write stage failed
+		 */
+		@Override
+		public void close() throws IOException {
+			if (open) {
+				open = false;
+				if ((buffer != null) && (buffer.position() > 0)) {
+					put(fullBuffers, buffer, encodeTimer);
+				}
+				buffer = null;
+				put(fullBuffers, endBuffer, encodeTimer);
+			}
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package io.miti.dbconn.export;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jline.Terminal;
+import jline.console.ConsoleReader;
+
+import io.miti.dbconn.util.Logger;
+import io.miti.dbconn.util.Utility;
+
+/**
+ * Show the progress of an export on the console, refreshed in place
+ * twice a second: the rows done, rows per second, megabytes per second
+ * and (if the number of rows was estimated) the time remaining.
+ * The exporting threads add to the counters once per batch of rows,
+ * and a background thread samples them, so the cost per row is nil.
+ * Messages printed while the progress is shown should go through
+ * println(), so they do not collide with the progress line.
+ * <p>
+ * The line is drawn through the console's ConsoleReader, cut to the
+ * width of the terminal so it never wraps, and erased before the
+ * prompt is shown again.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class ExportProgress implements Runnable
+{
+	/** How often to refresh the progress line, in milliseconds. */
+	private static final long REFRESH_MILLIS = 500L;
+
+	/** The ANSI sequence to erase to the end of the line. */
+	private static final String ERASE_TO_END = "\u001B[K";
+
+	/** The console reader to draw the progress line with, or null. */
+	private static volatile ConsoleReader console = null;
+
+	/** The name of what is being exported. */
+	private final String name;
+
+	/** The estimated number of rows (-1 if unknown). */
+	private final long estimate;
+
+	/** Whether the progress is shown. */
+	private final boolean live;
+
+	/** The number of rows written. */
+	private final AtomicLong rows = new AtomicLong(0L);
+
+	/** The number of bytes written. */
+	private final AtomicLong bytes = new AtomicLong(0L);
+
+	/** When the export started. */
+	private final long startTime = System.currentTimeMillis();
+
+	/** The thread that refreshes the progress line. */
+	private Thread thread = null;
+
+	/** Whether the progress is still being shown. */
+	private volatile boolean running = false;
+
+	/** The length of the progress line on the console. */
+	private int lineLength = 0;
+
+	/** The throttle to take the bytes written from, or null. */
+	private ExportThrottle throttle = null;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name the name of what is being exported
+	 * @param estimate the estimated number of rows (-1 if unknown)
+	 * @param live whether to show the progress
+	 */
+	private ExportProgress(final String name, final long estimate, final boolean live) {
+		super();
+		this.name = name;
+		this.estimate = estimate;
+		this.live = live;
+	}
+
+
+	/**
+	 * Set the console reader the progress line is drawn with.
+	 *
+	 * @param reader the console reader
+	 */
+	public static void setConsole(final ConsoleReader reader) {
+		console = reader;
+	}
+
+
+	/**
+	 * Start showing the progress of an export.  Nothing is shown if
+	 * the output is not a console, or the settings turn it off.
+	 *
+	 * @param name the name of what is being exported
+	 * @param estimate the estimated number of rows (-1 if unknown)
+	 * @param settings the export settings
+	 * @return the progress
+	 */
+	static ExportProgress start(final String name, final long estimate,
+			final ExportSettings settings) {
+		final boolean live = (settings.isProgress() && (System.console() != null));
+		final ExportProgress progress = new ExportProgress(name, estimate, live);
+		progress.throttle = settings.getThrottle();
+		if (live) {
+			progress.running = true;
+			progress.thread = new Thread(progress, "export-progress");
+			progress.thread.setDaemon(true);
+			progress.thread.start();
+		}
+
+		return progress;
+	}
+
+
+	/**
+	 * Return a progress that counts, but shows nothing.
+	 *
+	 * @return the progress
+	 */
+	static ExportProgress hidden() {
+		return new ExportProgress("", -1L, false);
+	}
+
+
+	/**
+	 * Add to the rows and bytes written.  The bytes are also taken
+	 * from the export's throttle.
+	 *
+	 * @param rowCount the number of rows
+	 * @param byteCount the number of bytes
+	 */
+	void add(final long rowCount, final long byteCount) {
+		if (rowCount != 0L) {
+			rows.addAndGet(rowCount);
+		}
+		if (byteCount != 0L) {
+			bytes.addAndGet(byteCount);
+			if (throttle != null) {
+				throttle.takeBytes(byteCount);
+			}
+		}
+	}
+
+
+	/**
+	 * Print a message, above the progress line.
+	 *
+	 * @param msg the message
+	 */
+	synchronized void println(final String msg) {
+		clearLine();
+		print(msg + System.getProperty("line.separator"));
+		if (running) {
+			drawLine();
+		}
+	}
+
+
+	/**
+	 * Stop showing the progress.
+	 */
+	void stop() {
+		if (!running) {
+			return;
+		}
+
+		running = false;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		synchronized (this) {
+			clearLine();
+		}
+	}
+
+
+	/**
+	 * Refresh the progress line until the export is done.
+	 */
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				Thread.sleep(REFRESH_MILLIS);
+			} catch (InterruptedException e) {
+				break;
+			}
+
+			synchronized (this) {
+				if (running) {
+					drawLine();
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Draw the progress line, over the last one.
+	 */
+	private void drawLine() {
+		String line = getLine();
+		final int width = getWidth();
+		if (line.length() >= width) {
+			line = line.substring(0, width - 1);
+		}
+
+		StringBuilder sb = new StringBuilder(line.length() + lineLength + 4);
+		sb.append('\r').append(line);
+		eraseToEnd(sb, line.length());
+		print(sb.toString());
+		lineLength = line.length();
+	}
+
+
+	/**
+	 * Erase the progress line, leaving the cursor at the start of it.
+	 */
+	private void clearLine() {
+		if (lineLength > 0) {
+			StringBuilder sb = new StringBuilder(lineLength + 4);
+			sb.append('\r');
+			eraseToEnd(sb, 0);
+			sb.append('\r');
+			print(sb.toString());
+			lineLength = 0;
+		}
+	}
+
+
+	/**
+	 * Add the text to erase the rest of the progress line: the ANSI
+	 * sequence if the terminal supports it, or else spaces over the
+	 * rest of the last line drawn.
+	 *
+	 * @param sb the text to add to
+	 * @param column the column the cursor will be at
+	 */
+	private void eraseToEnd(final StringBuilder sb, final int column) {
+		final ConsoleReader reader = console;
+		if ((reader != null) && reader.getTerminal().isAnsiSupported()) {
+			sb.append(ERASE_TO_END);
+		} else {
+			for (int i = column; i < lineLength; ++i) {
+				sb.append(' ');
+			}
+		}
+	}
+
+
+	/**
+	 * Return the width of the terminal.
+	 *
+	 * @return the number of columns
+	 */
+	private static int getWidth() {
+		final ConsoleReader reader = console;
+		if (reader == null) {
+			return Integer.MAX_VALUE;
+		}
+
+		final Terminal terminal = reader.getTerminal();
+		final int width = terminal.getWidth();
+		return ((width > 1) ? width : Integer.MAX_VALUE);
+	}
+
+
+	/**
+	 * Print text on the console, through the console reader if
+	 * there is one.
+	 *
+	 * @param text the text
+	 */
+	private static void print(final String text) {
+		final ConsoleReader reader = console;
+		if (reader == null) {
+			System.out.print(text);
+			System.out.flush();
+			return;
+		}
+
+		try {
+			reader.print(text);
+			reader.flush();
+		} catch (IOException e) {
+			Logger.error(e);
+		}
+	}
+
+
+	/**
+	 * Return the text of the progress line.
+	 *
+	 * @return the progress line
+	 */
+	String getLine() {
+		final long rowCount = rows.get();
+		final long byteCount = bytes.get();
+		final double secs = Math.max(1L, System.currentTimeMillis() - startTime) / 1000.0;
+		final double rowsPerSec = rowCount / secs;
+
+		StringBuilder sb = new StringBuilder(100);
+		sb.append(name).append(": ").append(Utility.formatLong(rowCount));
+		if (estimate > 0L) {
+			sb.append(" of ~").append(Utility.formatLong(estimate));
+		}
+		sb.append(" rows");
+		if ((estimate > 0L) && (rowCount <= estimate)) {
+			sb.append(" (").append((int) (rowCount * 100L / estimate)).append("%)");
+		}
+
+		sb.append(String.format(", %s rows/s, %.1f MB/s",
+				Utility.formatLong((long) rowsPerSec), byteCount / secs / (1024.0 * 1024.0)));
+
+		if ((estimate > 0L) && (rowCount <= estimate) && (rowsPerSec > 0.0)) {
+			final long left = (long) ((estimate - rowCount) / rowsPerSec);
+			sb.append(String.format(", ETA %d:%02d:%02d", left / 3600L, (left / 60L) % 60L, left % 60L));
+		}
+
+		return sb.toString();
+	}
+}
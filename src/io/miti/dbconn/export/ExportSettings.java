@@ -0,0 +1,535 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.miti.dbconn.util.CommandOptions;
+import io.miti.dbconn.util.Database;
+
+/**
+ * The settings for a single export command.  Values not given
+ * on the command line come from the session settings.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class ExportSettings
+{
+	/** The options supported by the export commands, with their help text. */
+	private static final String[][] OPTIONS = new String[][] {
+		{"fetchsize", "--fetchsize <n>", "Rows fetched per round trip (0 for the driver default)"},
+		{"parallel", "--parallel <n>", "Number of connections to export over (writer threads for 'export blobs')"},
+		{"split-column", "--split-column <column>", "Numeric column to split a table on (default: the primary key)"},
+		{"merge", "--merge", "Merge the parts of a parallel export into one file"},
+		{"dir", "--dir <path>", "Directory for the output files"},
+		{"delimiter", "--delimiter <char>", "CSV field delimiter, or 'tab' (default: ,)"},
+		{"quote", "--quote <char>", "CSV quote character (default: \")"},
+		{"null", "--null <text>", "Text written for null values (default: null)"},
+		{"line-end", "--line-end <crlf|lf|cr>", "CSV line ending (default: the system's)"},
+		{"gzip", "--gzip", "Compress the output files with gzip"},
+		{"gzip-threads", "--gzip-threads <n>", "Compress with gzip on n threads"},
+		{"resumable", "--resumable", "Page through the table by primary key, saving a checkpoint to resume from"},
+		{"chunk-rows", "--chunk-rows <n>", "Rows per page of a resumable export (default: 100000)"},
+		{"append", "--append", "Append the new rows of a 'since' export to the base file"},
+		{"serial", "--serial", "Fetch, encode and write the rows on one thread"},
+		{"no-progress", "--no-progress", "Do not show the progress of the export"},
+		{"max-rows", "--max-rows <n>", "Split the output into part files of at most n rows"},
+		{"max-bytes", "--max-bytes <size>", "Split the output into part files of about this size (e.g., 500M or 1G)"},
+		{"format", "--format <csv|dump|arrow>", "Output format: CSV, dbconn's compressed binary dump, or an Arrow IPC stream (default: csv)"},
+		{"max-rows-per-sec", "--max-rows-per-sec <n>", "Fetch at most n rows per second (default: the session limit)"},
+		{"max-mb-per-sec", "--max-mb-per-sec <n>", "Write at most n megabytes per second (default: the session limit)"},
+		{"rows-per-insert", "--rows-per-insert <n>", "Rows in each INSERT statement of 'export inserts' (default: 100)"},
+		{"dialect", "--dialect <standard|mysql>", "String literals of 'export inserts' (default: mysql for a MySQL or MariaDB source, else standard)"}};
+
+	/** The option names supported by the export commands. */
+	public static final String[] OPTION_NAMES;
+
+	/** The options of the export commands that take no value. */
+	public static final String[] FLAG_NAMES = CommandOptions.getFlagNames(OPTIONS);
+
+	static {
+		OPTION_NAMES = new String[OPTIONS.length];
+		for (int i = 0; i < OPTIONS.length; ++i) {
+			OPTION_NAMES[i] = OPTIONS[i][0];
+		}
+	}
+
+	/** The number of rows to fetch per round trip. */
+	private int fetchSize = Database.getFetchSize();
+
+	/** The number of connections to use (0 if not specified). */
+	private int parallel = 0;
+
+	/** The numeric column used to split a table into key ranges. */
+	private String splitColumn = null;
+
+	/** Whether to merge the parts of a parallel export into one file. */
+	private boolean merge = false;
+
+	/** The directory for the output files (null for the current directory). */
+	private String outputDir = null;
+
+	/** The format for CSV files. */
+	private CsvFormat csvFormat = new CsvFormat();
+
+	/** Whether to compress the output with gzip. */
+	private boolean gzip = false;
+
+	/** The number of threads to compress the output on. */
+	private int gzipThreads = 1;
+
+	/** The default number of rows per page of a resumable export. */
+	public static final int DEFAULT_CHUNK_ROWS = 100000;
+
+	/** Whether to page through the table and save checkpoints. */
+	private boolean resumable = false;
+
+	/** The number of rows per page of a resumable export. */
+	private int chunkRows = DEFAULT_CHUNK_ROWS;
+
+	/** Whether to append the rows of a delta export to the base file. */
+	private boolean append = false;
+
+	/** Whether to export on one thread, instead of in a pipeline. */
+	private boolean serial = false;
+
+	/** Whether to show the progress of the export. */
+	private boolean progress = true;
+
+	/** The most rows in each part file (0 for no limit). */
+	private long maxRows = 0L;
+
+	/** The most (uncompressed) bytes in each part file (0 for no limit). */
+	private long maxBytes = 0L;
+
+	/** The output format: csv, dump or arrow. */
+	private String format = "csv";
+
+	/** The default number of rows in each INSERT statement. */
+	public static final int DEFAULT_ROWS_PER_INSERT = 100;
+
+	/** The number of rows in each INSERT statement. */
+	private int rowsPerInsert = DEFAULT_ROWS_PER_INSERT;
+
+	/** The SQL dialect of an INSERT script (null for the source's). */
+	private String dialect = null;
+
+	/** Limits the rate of the export. */
+	private ExportThrottle throttle = new ExportThrottle(-1.0, -1.0);
+
+
+	/**
+	 * Default constructor.
+	 */
+	public ExportSettings() {
+		super();
+	}
+
+
+	/**
+	 * Build the settings from the options entered with a command.
+	 * An error message is printed if an option is invalid.
+	 *
+	 * @param opts the command options
+	 * @return the export settings, or null if an option is invalid
+	 */
+	public static ExportSettings fromOptions(final CommandOptions opts) {
+		ExportSettings settings = new ExportSettings();
+		settings.fetchSize = Math.max(0, opts.getInt("fetchsize", settings.fetchSize));
+		settings.parallel = Math.max(0, opts.getInt("parallel", settings.parallel));
+		settings.splitColumn = opts.getString("split-column", null);
+		settings.merge = opts.has("merge");
+		settings.outputDir = opts.getString("dir", null);
+		settings.gzipThreads = Math.max(1, opts.getInt("gzip-threads", settings.gzipThreads));
+		settings.gzip = (opts.has("gzip") || opts.has("gzip-threads"));
+		settings.resumable = (opts.has("resumable") || opts.has("chunk-rows"));
+		settings.chunkRows = Math.max(1, opts.getInt("chunk-rows", settings.chunkRows));
+		settings.append = opts.has("append");
+		settings.serial = opts.has("serial");
+		settings.progress = !opts.has("no-progress");
+		settings.rowsPerInsert = Math.max(1, opts.getInt("rows-per-insert", settings.rowsPerInsert));
+
+		settings.maxRows = parseSize(opts.getString("max-rows", "0"), false);
+		settings.maxBytes = parseSize(opts.getString("max-bytes", "0"), true);
+		if (settings.maxRows < 0L) {
+			System.out.println("Invalid value for --max-rows");
+			return null;
+		} else if (settings.maxBytes < 0L) {
+			System.out.println("Invalid value for --max-bytes; use a number, optionally followed by K, M or G");
+			return null;
+		} else if (settings.isSplit() && (settings.resumable || settings.serial)) {
+			System.out.println("--max-rows and --max-bytes cannot be used with --resumable or --serial");
+			return null;
+		}
+
+		final double maxRowsPerSec = parseRate(opts.getString("max-rows-per-sec", null));
+		final double maxMbPerSec = parseRate(opts.getString("max-mb-per-sec", null));
+		if (Double.isNaN(maxRowsPerSec)) {
+			System.out.println("Invalid value for --max-rows-per-sec");
+			return null;
+		} else if (Double.isNaN(maxMbPerSec)) {
+			System.out.println("Invalid value for --max-mb-per-sec");
+			return null;
+		}
+		settings.throttle = new ExportThrottle(maxRowsPerSec, maxMbPerSec);
+
+		settings.format = opts.getString("format", "csv").toLowerCase();
+		if (!settings.format.equals("csv") && !settings.isDump() && !settings.isArrow()) {
+			System.out.println("Invalid value for --format; use csv, dump or arrow");
+			return null;
+		} else if (!settings.format.equals("csv") && (settings.gzip || settings.resumable
+				|| settings.isSplit() || settings.merge || settings.append)) {
+			System.out.println("--format " + settings.format + " cannot be used with --gzip, --resumable, "
+					+ "--max-rows, --max-bytes, --merge or --append");
+			return null;
+		}
+
+		settings.dialect = opts.getString("dialect", null);
+		if (settings.dialect != null) {
+			settings.dialect = settings.dialect.toLowerCase();
+			if (!settings.dialect.equals("standard") && !settings.dialect.equals("mysql")) {
+				System.out.println("Invalid value for --dialect; use standard or mysql");
+				return null;
+			}
+		}
+
+		settings.csvFormat = CsvFormat.fromOptions(opts);
+		if (settings.csvFormat == null) {
+			return null;
+		} else if (settings.outputDir != null) {
+			final File dir = new File(settings.outputDir);
+			if (!dir.mkdirs() && !dir.isDirectory()) {
+				System.out.println("Unable to create the directory " + settings.outputDir);
+				return null;
+			}
+		}
+
+		return settings;
+	}
+
+
+	/**
+	 * Parse a number, optionally followed by K, M, G or T for
+	 * multiples of 1024.
+	 *
+	 * @param value the value to parse
+	 * @param allowUnits whether to allow a unit suffix
+	 * @return the number, or -1 if it is invalid
+	 */
+	static long parseSize(final String value, final boolean allowUnits) {
+		String digits = value.trim().toUpperCase();
+		long multiplier = 1L;
+		if (allowUnits && !digits.isEmpty()) {
+			final int unit = "KMGT".indexOf(digits.charAt(digits.length() - 1));
+			if (unit >= 0) {
+				multiplier = 1L << (10 * (unit + 1));
+				digits = digits.substring(0, digits.length() - 1);
+			}
+		}
+
+		try {
+			final long number = Long.parseLong(digits);
+			return (((number < 0L) || (number > (Long.MAX_VALUE / multiplier)))
+					? -1L : (number * multiplier));
+		} catch (NumberFormatException e) {
+			return -1L;
+		}
+	}
+
+
+	/**
+	 * Parse a limit on a rate, such as rows per second.
+	 *
+	 * @param value the value to parse, or null if it was not given
+	 * @return the limit (0 for none, -1 if not given), or NaN if it is invalid
+	 */
+	public static double parseRate(final String value) {
+		if (value == null) {
+			return -1.0;
+		}
+
+		try {
+			final double rate = Double.parseDouble(value.trim());
+			return (((rate < 0.0) || Double.isInfinite(rate)) ? Double.NaN : rate);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+
+	/**
+	 * Return the usage and description of each export option.
+	 *
+	 * @return a list of the usage and description of each option
+	 */
+	public static List<List<String>> getOptionHelp() {
+		List<List<String>> help = new ArrayList<List<String>>(OPTIONS.length);
+		for (String[] option : OPTIONS) {
+			List<String> line = new ArrayList<String>(2);
+			line.add(option[1]);
+			line.add(option[2]);
+			help.add(line);
+		}
+
+		return help;
+	}
+
+
+	/**
+	 * Return the number of rows to fetch per round trip.
+	 *
+	 * @return the fetch size (0 for the driver default)
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+
+	/**
+	 * Set the number of rows to fetch per round trip.
+	 *
+	 * @param rowsPerFetch the fetch size (0 for the driver default)
+	 */
+	public void setFetchSize(final int rowsPerFetch) {
+		fetchSize = Math.max(0, rowsPerFetch);
+	}
+
+
+	/**
+	 * Return the number of connections to export over.
+	 *
+	 * @param defaultValue the value to use if it was not specified
+	 * @return the number of parallel connections
+	 */
+	public int getParallel(final int defaultValue) {
+		return ((parallel > 0) ? parallel : defaultValue);
+	}
+
+
+	/**
+	 * Return the numeric column used to split a table into key
+	 * ranges, or null to use the primary key.
+	 *
+	 * @return the split column
+	 */
+	public String getSplitColumn() {
+		return splitColumn;
+	}
+
+
+	/**
+	 * Return whether to merge the parts of a parallel export into
+	 * a single file, ordered by the split column.
+	 *
+	 * @return whether to merge the parts
+	 */
+	public boolean isMerge() {
+		return merge;
+	}
+
+
+	/**
+	 * Return the format for CSV files.
+	 *
+	 * @return the CSV format
+	 */
+	public CsvFormat getCsvFormat() {
+		return csvFormat;
+	}
+
+
+	/**
+	 * Return whether to compress the output with gzip.
+	 *
+	 * @return whether to compress the output
+	 */
+	public boolean isGzip() {
+		return gzip;
+	}
+
+
+	/**
+	 * Return the number of threads to compress the output on.  With
+	 * more than one, the output is compressed in independent blocks.
+	 *
+	 * @return the number of compression threads
+	 */
+	public int getGzipThreads() {
+		return gzipThreads;
+	}
+
+
+	/**
+	 * Return whether to page through the table in primary key order,
+	 * saving a checkpoint after each page.
+	 *
+	 * @return whether the export is resumable
+	 */
+	public boolean isResumable() {
+		return resumable;
+	}
+
+
+	/**
+	 * Return the number of rows per page of a resumable export.
+	 *
+	 * @return the rows per page
+	 */
+	public int getChunkRows() {
+		return chunkRows;
+	}
+
+
+	/**
+	 * Return whether to append the new rows of a delta export to
+	 * the base file, instead of writing a separate delta file.
+	 *
+	 * @return whether to append the rows
+	 */
+	public boolean isAppend() {
+		return append;
+	}
+
+
+	/**
+	 * Return whether to fetch, encode and write the rows on one
+	 * thread, instead of in a pipeline of three threads.
+	 *
+	 * @return whether to export on one thread
+	 */
+	public boolean isSerial() {
+		return serial;
+	}
+
+
+	/**
+	 * Return whether to show the progress of the export on the console.
+	 *
+	 * @return whether to show the progress
+	 */
+	public boolean isProgress() {
+		return progress;
+	}
+
+
+	/**
+	 * Return whether the output is split into part files.
+	 *
+	 * @return whether the output is split
+	 */
+	public boolean isSplit() {
+		return ((maxRows > 0L) || (maxBytes > 0L));
+	}
+
+
+	/**
+	 * Return the most rows in each part file.
+	 *
+	 * @return the row limit (0 for no limit)
+	 */
+	public long getMaxRows() {
+		return maxRows;
+	}
+
+
+	/**
+	 * Return the most bytes in each part file, before compression.
+	 * A part is closed after the first row that reaches the limit.
+	 *
+	 * @return the byte limit (0 for no limit)
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+
+	/**
+	 * Return whether to write a binary dump file, instead of CSV.
+	 *
+	 * @return whether to write a dump file
+	 */
+	public boolean isDump() {
+		return format.equals("dump");
+	}
+
+
+	/**
+	 * Return whether to write an Arrow IPC stream, instead of CSV.
+	 *
+	 * @return whether to write an Arrow stream
+	 */
+	public boolean isArrow() {
+		return format.equals("arrow");
+	}
+
+
+	/**
+	 * Return the number of rows in each INSERT statement of a
+	 * SQL script.
+	 *
+	 * @return the rows per statement
+	 */
+	public int getRowsPerInsert() {
+		return rowsPerInsert;
+	}
+
+
+	/**
+	 * Return the SQL dialect of an INSERT script: standard, or mysql
+	 * for string literals where a backslash is an escape.
+	 *
+	 * @return the dialect, or null to use the source database's
+	 */
+	public String getDialect() {
+		return dialect;
+	}
+
+
+	/**
+	 * Return the throttle that limits the rate of the export.
+	 *
+	 * @return the throttle
+	 */
+	ExportThrottle getThrottle() {
+		return throttle;
+	}
+
+
+	/**
+	 * Return the extension for the output files.
+	 *
+	 * @return the file extension
+	 */
+	public String getExtension() {
+		if (isDump()) {
+			return ".dbd";
+		} else if (isArrow()) {
+			return ".arrows";
+		}
+
+		return getCsvExtension();
+	}
+
+
+	/**
+	 * Return the extension for CSV files, such as an index.
+	 *
+	 * @return the CSV file extension
+	 */
+	public String getCsvExtension() {
+		return (gzip ? ".csv.gz" : ".csv");
+	}
+
+
+	/**
+	 * Return the output file with the specified name, in the
+	 * output directory.
+	 *
+	 * @param fileName the file name
+	 * @return the output file
+	 */
+	public File getOutputFile(final String fileName) {
+		return ((outputDir == null) ? new File(fileName) : new File(outputDir, fileName));
+	}
+}
@@ -0,0 +1,130 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+
+/**
+ * The statistics for a single export (a table, or one part of a table).
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class ExportStats
+{
+	/** The name of the exported table or part. */
+	private final String name;
+
+	/** The output file. */
+	private final File file;
+
+	/** The number of rows written, or -1 on error. */
+	private long rows = 0L;
+
+	/** The number of bytes written. */
+	private long bytes = 0L;
+
+	/** The elapsed time, in milliseconds. */
+	private long millis = 0L;
+
+	/** The busy and idle times of each stage, or null. */
+	private String stageTimes = null;
+
+	/** The number of part files (0 if the output is not split). */
+	private int parts = 0;
+
+	/** The manifest of the part files, or null. */
+	private File manifest = null;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name the name of the table or part
+	 * @param file the output file
+	 */
+	public ExportStats(final String name, final File file) {
+		super();
+		this.name = name;
+		this.file = file;
+	}
+
+
+	/**
+	 * Save the results of the export.
+	 *
+	 * @param rowCount the number of rows, or -1 on error
+	 * @param byteCount the number of bytes
+	 * @param elapsed the elapsed time, in milliseconds
+	 */
+	public void finish(final long rowCount, final long byteCount, final long elapsed) {
+		rows = rowCount;
+		bytes = byteCount;
+		millis = elapsed;
+	}
+
+
+	public String getName() {
+		return name;
+	}
+
+
+	public File getFile() {
+		return file;
+	}
+
+
+	public long getRows() {
+		return rows;
+	}
+
+
+	public long getBytes() {
+		return bytes;
+	}
+
+
+	public long getMillis() {
+		return millis;
+	}
+
+
+	public String getStageTimes() {
+		return stageTimes;
+	}
+
+
+	public void setStageTimes(final String times) {
+		stageTimes = times;
+	}
+
+
+	/**
+	 * Save the part files the output was split into.
+	 *
+	 * @param count the number of part files
+	 * @param manifestFile the manifest of the parts
+	 */
+	public void setParts(final int count, final File manifestFile) {
+		parts = count;
+		manifest = manifestFile;
+	}
+
+
+	public int getParts() {
+		return parts;
+	}
+
+
+	public File getManifest() {
+		return manifest;
+	}
+
+
+	/**
+	 * Return whether the export succeeded.
+	 *
+	 * @return whether the export succeeded
+	 */
+	public boolean isSuccess() {
+		return (rows >= 0L);
+	}
+}
@@ -0,0 +1,217 @@
+package io.miti.dbconn.export;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import io.miti.dbconn.util.RowHandler;
+
+/**
+ * Limit the rate of an export, in rows and bytes per second, with
+ * a token bucket for each.  The fetch loop takes a token for each
+ * row, and the bytes written are taken from the other bucket as they
+ * are counted; once either bucket runs dry, the fetch loop sleeps
+ * until it has refilled.  A bucket holds at most one second of
+ * tokens, so the rate can burst that far above the limit.
+ * <p>
+ * The limits can come from the command's options, or from the
+ * session limits set on the console.  The session limits are read
+ * once, when the throttle is created for an export, so a change
+ * applies to the next export that does not set its own limit.
+ * One throttle is shared by all of the connections of an export.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class ExportThrottle
+{
+	/** The number of bytes in a megabyte. */
+	private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+	/** The session limit on rows per second (0 for none). */
+	private static volatile double sessionRowsPerSec = 0.0;
+
+	/** The session limit on bytes per second (0 for none). */
+	private static volatile double sessionBytesPerSec = 0.0;
+
+	/** The limit on rows per second (0 for none). */
+	private final double rowsPerSec;
+
+	/** The limit on bytes per second (0 for none). */
+	private final double bytesPerSec;
+
+	/** The bucket of rows. */
+	private final Bucket rows = new Bucket();
+
+	/** The bucket of bytes. */
+	private final Bucket bytes = new Bucket();
+
+
+	/**
+	 * Constructor.  A limit of -1 takes the session limit set now.
+	 *
+	 * @param maxRowsPerSec the most rows per second (0 for no limit,
+	 *        -1 for the session limit)
+	 * @param maxMbPerSec the most megabytes per second (0 for no limit,
+	 *        -1 for the session limit)
+	 */
+	ExportThrottle(final double maxRowsPerSec, final double maxMbPerSec) {
+		super();
+		rowsPerSec = ((maxRowsPerSec < 0.0) ? sessionRowsPerSec : maxRowsPerSec);
+		bytesPerSec = ((maxMbPerSec < 0.0) ? sessionBytesPerSec : (maxMbPerSec * BYTES_PER_MB));
+	}
+
+
+	/**
+	 * Set the session limit on rows per second.
+	 *
+	 * @param maxRowsPerSec the most rows per second (0 for no limit)
+	 */
+	public static void setSessionRowsPerSec(final double maxRowsPerSec) {
+		sessionRowsPerSec = Math.max(0.0, maxRowsPerSec);
+	}
+
+
+	/**
+	 * Return the session limit on rows per second.
+	 *
+	 * @return the most rows per second (0 for no limit)
+	 */
+	public static double getSessionRowsPerSec() {
+		return sessionRowsPerSec;
+	}
+
+
+	/**
+	 * Set the session limit on megabytes per second.
+	 *
+	 * @param maxMbPerSec the most megabytes per second (0 for no limit)
+	 */
+	public static void setSessionMbPerSec(final double maxMbPerSec) {
+		sessionBytesPerSec = Math.max(0.0, maxMbPerSec) * BYTES_PER_MB;
+	}
+
+
+	/**
+	 * Return the session limit on megabytes per second.
+	 *
+	 * @return the most megabytes per second (0 for no limit)
+	 */
+	public static double getSessionMbPerSec() {
+		return sessionBytesPerSec / BYTES_PER_MB;
+	}
+
+
+	/**
+	 * Return whether either limit is set.
+	 *
+	 * @return whether the export is throttled
+	 */
+	boolean isLimited() {
+		return ((rowsPerSec > 0.0) || (bytesPerSec > 0.0));
+	}
+
+
+	/**
+	 * Take bytes written from the bucket, without waiting.  The fetch
+	 * loop waits for the bucket to refill.
+	 *
+	 * @param byteCount the number of bytes
+	 */
+	void takeBytes(final long byteCount) {
+		bytes.take(byteCount, bytesPerSec);
+	}
+
+
+	/**
+	 * Take rows from the bucket, and wait until both buckets
+	 * have tokens.
+	 *
+	 * @param rowCount the number of rows
+	 */
+	void acquireRows(final long rowCount) {
+		final long wait = Math.max(rows.take(rowCount, rowsPerSec),
+				bytes.take(0L, bytesPerSec));
+		if (wait <= 0L) {
+			return;
+		}
+
+		try {
+			Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * Return a row handler that passes the rows to another, taking
+	 * a token for each.
+	 *
+	 * @param handler the row handler
+	 * @return the throttled row handler
+	 */
+	RowHandler wrap(final RowHandler handler) {
+		return new RowHandler() {
+			@Override
+			public void startResults(final ResultSetMetaData metaData)
+					throws SQLException, IOException {
+				handler.startResults(metaData);
+			}
+
+			@Override
+			public boolean processRow(final ResultSet rs)
+					throws SQLException, IOException {
+				final boolean more = handler.processRow(rs);
+				if (isLimited()) {
+					acquireRows(1L);
+				}
+				return more;
+			}
+		};
+	}
+
+
+	/**
+	 * A token bucket, refilled at the current rate.  It can go into
+	 * debt, which the next caller waits out.
+	 */
+	private static final class Bucket
+	{
+		/** The tokens in the bucket (negative when in debt). */
+		private double tokens = 0.0;
+
+		/** When the bucket was last refilled, in nanoseconds. */
+		private long lastTime = System.nanoTime();
+
+
+		/**
+		 * Constructor.
+		 */
+		Bucket() {
+			super();
+		}
+
+
+		/**
+		 * Refill the bucket, then take tokens from it.
+		 *
+		 * @param amount the number of tokens
+		 * @param rate the tokens added per second (0 for no limit)
+		 * @return the nanoseconds to wait until the bucket is not in debt
+		 */
+		synchronized long take(final long amount, final double rate) {
+			final long now = System.nanoTime();
+			final long elapsed = now - lastTime;
+			lastTime = now;
+			if (rate <= 0.0) {
+				tokens = 0.0;
+				return 0L;
+			}
+
+			tokens = Math.min(rate, tokens + ((elapsed * rate) / 1.0e9)) - amount;
+			return ((tokens >= 0.0) ? 0L : (long) ((-tokens * 1.0e9) / rate));
+		}
+	}
+}
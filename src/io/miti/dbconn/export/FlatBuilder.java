@@ -0,0 +1,356 @@
+package io.miti.dbconn.export;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small FlatBuffers encoder, enough for the metadata of Arrow IPC
+ * messages: tables of scalars, strings, tables, unions, vectors of
+ * tables and vectors of structs made of longs.  Objects are laid out
+ * front to back, with every offset pointing forward, and each value
+ * aligned to its size, as the FlatBuffers verifier expects.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class FlatBuilder
+{
+	/** The bytes written so far. */
+	private byte[] data = new byte[512];
+
+	/** The number of bytes written. */
+	private int size = 0;
+
+
+	/**
+	 * Default constructor.
+	 */
+	private FlatBuilder() {
+		super();
+	}
+
+
+	/**
+	 * Encode a table as a FlatBuffer.
+	 *
+	 * @param root the root table
+	 * @return the encoded bytes
+	 */
+	static byte[] encode(final Table root) {
+		final FlatBuilder builder = new FlatBuilder();
+		builder.putInt(0);
+		final int rootPos = builder.writeTable(root);
+		builder.setInt(0, rootPos);
+
+		final byte[] bytes = new byte[builder.size];
+		System.arraycopy(builder.data, 0, bytes, 0, builder.size);
+		return bytes;
+	}
+
+
+	/**
+	 * Write a table, then the objects it refers to.
+	 *
+	 * @param table the table
+	 * @return the position of the table
+	 */
+	private int writeTable(final Table table) {
+		final List<Field> fields = table.fields;
+
+		// The vtable comes first, with a slot for each field id
+		int numSlots = 0;
+		for (Field field : fields) {
+			numSlots = Math.max(numSlots, field.id + 1);
+		}
+
+		align(2);
+		final int vtablePos = size;
+		final int vtableSize = 4 + (2 * numSlots);
+		for (int i = 0; i < vtableSize; ++i) {
+			putByte(0);
+		}
+
+		// The table starts 4 bytes before an 8-byte boundary, so after
+		// its vtable offset the fields can go largest first, unpadded
+		while ((size % 8) != 4) {
+			putByte(0);
+		}
+		final int tablePos = size;
+		putInt(tablePos - vtablePos);
+
+		final List<Field> children = new ArrayList<Field>(fields.size());
+		final List<Integer> childSlots = new ArrayList<Integer>(fields.size());
+		for (int width = 8; width >= 1; width /= 2) {
+			for (Field field : fields) {
+				if (field.width != width) {
+					continue;
+				}
+
+				setShort(vtablePos + 4 + (2 * field.id), size - tablePos);
+				if (field.child != null) {
+					children.add(field);
+					childSlots.add(Integer.valueOf(size));
+					putInt(0);
+				} else if (width == 8) {
+					putLong(field.value);
+				} else if (width == 4) {
+					putInt((int) field.value);
+				} else if (width == 2) {
+					putShort((int) field.value);
+				} else {
+					putByte((int) field.value);
+				}
+			}
+		}
+
+		setShort(vtablePos, vtableSize);
+		setShort(vtablePos + 2, size - tablePos);
+
+		// Write the objects the table refers to, and point to them
+		final int numChildren = children.size();
+		for (int i = 0; i < numChildren; ++i) {
+			final int slot = childSlots.get(i).intValue();
+			final int childPos = writeObject(children.get(i).child);
+			setInt(slot, childPos - slot);
+		}
+
+		return tablePos;
+	}
+
+
+	/**
+	 * Write a string, table or vector.
+	 *
+	 * @param child the object
+	 * @return the position of the object
+	 */
+	private int writeObject(final Object child) {
+		if (child instanceof Table) {
+			return writeTable((Table) child);
+		} else if (child instanceof byte[]) {
+			// A string: its length, its bytes and a terminating 0
+			final byte[] bytes = (byte[]) child;
+			align(4);
+			final int pos = size;
+			putInt(bytes.length);
+			for (byte b : bytes) {
+				putByte(b);
+			}
+			putByte(0);
+			return pos;
+		} else if (child instanceof long[]) {
+			// A vector of structs made of longs, aligned to 8 bytes
+			final long[] values = ((long[]) child);
+			final int structLongs = (int) values[0];
+			final int count = (values.length - 1) / Math.max(1, structLongs);
+			while ((size % 8) != 4) {
+				putByte(0);
+			}
+			final int pos = size;
+			putInt(count);
+			for (int i = 1; i < values.length; ++i) {
+				putLong(values[i]);
+			}
+			return pos;
+		}
+
+		// A vector of tables: the offsets, then the tables
+		@SuppressWarnings("unchecked")
+		final List<Table> tables = (List<Table>) child;
+		align(4);
+		final int pos = size;
+		putInt(tables.size());
+		final int firstSlot = size;
+		for (int i = 0; i < tables.size(); ++i) {
+			putInt(0);
+		}
+		for (int i = 0; i < tables.size(); ++i) {
+			final int slot = firstSlot + (4 * i);
+			final int tablePos = writeTable(tables.get(i));
+			setInt(slot, tablePos - slot);
+		}
+
+		return pos;
+	}
+
+
+	private void align(final int width) {
+		while ((size % width) != 0) {
+			putByte(0);
+		}
+	}
+
+
+	private void ensure(final int more) {
+		if ((size + more) > data.length) {
+			final byte[] larger = new byte[Math.max(data.length * 2, size + more)];
+			System.arraycopy(data, 0, larger, 0, size);
+			data = larger;
+		}
+	}
+
+
+	private void putByte(final int value) {
+		ensure(1);
+		data[size++] = (byte) value;
+	}
+
+
+	private void putShort(final int value) {
+		ensure(2);
+		setShort(size, value);
+		size += 2;
+	}
+
+
+	private void putInt(final int value) {
+		ensure(4);
+		setInt(size, value);
+		size += 4;
+	}
+
+
+	private void putLong(final long value) {
+		ensure(8);
+		setInt(size, (int) value);
+		setInt(size + 4, (int) (value >>> 32));
+		size += 8;
+	}
+
+
+	private void setShort(final int pos, final int value) {
+		data[pos] = (byte) value;
+		data[pos + 1] = (byte) (value >>> 8);
+	}
+
+
+	private void setInt(final int pos, final int value) {
+		data[pos] = (byte) value;
+		data[pos + 1] = (byte) (value >>> 8);
+		data[pos + 2] = (byte) (value >>> 16);
+		data[pos + 3] = (byte) (value >>> 24);
+	}
+
+
+	/**
+	 * A table to encode.  The setters take the field id from the
+	 * schema, and return the table so they can be chained.
+	 */
+	static final class Table
+	{
+		/** The fields that are set. */
+		private final List<Field> fields = new ArrayList<Field>(6);
+
+
+		Table() {
+			super();
+		}
+
+
+		Table addBool(final int id, final boolean value) {
+			fields.add(new Field(id, 1, value ? 1L : 0L, null));
+			return this;
+		}
+
+
+		Table addByte(final int id, final int value) {
+			fields.add(new Field(id, 1, value, null));
+			return this;
+		}
+
+
+		Table addShort(final int id, final int value) {
+			fields.add(new Field(id, 2, value, null));
+			return this;
+		}
+
+
+		Table addInt(final int id, final int value) {
+			fields.add(new Field(id, 4, value, null));
+			return this;
+		}
+
+
+		Table addLong(final int id, final long value) {
+			fields.add(new Field(id, 8, value, null));
+			return this;
+		}
+
+
+		Table addString(final int id, final String value) {
+			try {
+				fields.add(new Field(id, 4, 0L, value.getBytes("UTF-8")));
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			return this;
+		}
+
+
+		Table addTable(final int id, final Table value) {
+			fields.add(new Field(id, 4, 0L, value));
+			return this;
+		}
+
+
+		/**
+		 * Add a union: its type goes in one field, and its value in the next.
+		 */
+		Table addUnion(final int id, final int type, final Table value) {
+			addByte(id, type);
+			return addTable(id + 1, value);
+		}
+
+
+		Table addTables(final int id, final List<Table> value) {
+			fields.add(new Field(id, 4, 0L, value));
+			return this;
+		}
+
+
+		/**
+		 * Add a vector of structs, each made of the same number of longs.
+		 *
+		 * @param id the field id
+		 * @param structLongs the number of longs in each struct
+		 * @param values the longs of all of the structs, in order
+		 * @return the table
+		 */
+		Table addStructs(final int id, final int structLongs, final long[] values) {
+			final long[] vector = new long[values.length + 1];
+			vector[0] = structLongs;
+			System.arraycopy(values, 0, vector, 1, values.length);
+			fields.add(new Field(id, 4, 0L, vector));
+			return this;
+		}
+	}
+
+
+	/**
+	 * A field of a table: a scalar, or an offset to another object.
+	 */
+	private static final class Field
+	{
+		/** The field id. */
+		private final int id;
+
+		/** The size of the field in the table. */
+		private final int width;
+
+		/** The value of a scalar. */
+		private final long value;
+
+		/** The object for an offset, or null for a scalar. */
+		private final Object child;
+
+
+		Field(final int id, final int width, final long value, final Object child) {
+			super();
+			this.id = id;
+			this.width = width;
+			this.value = value;
+			this.child = child;
+		}
+	}
+}
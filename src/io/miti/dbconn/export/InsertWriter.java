@@ -0,0 +1,461 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.sql.DatabaseMetaData;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import io.miti.dbconn.util.Database;
+import io.miti.dbconn.util.RowHandler;
+
+/**
+ * Write the rows of a query to a SQL script of multi-row INSERT
+ * statements, as they are fetched.  Each value is written as a
+ * literal of its type: numbers as they are, booleans as TRUE or
+ * FALSE, dates and timestamps as DATE '...' and TIMESTAMP '...',
+ * binary values as X'...', and everything else as a quoted string.
+ * String literals are standard SQL (only quotes are doubled), unless
+ * the dialect is mysql, where backslashes are doubled too, since MySQL
+ * and MariaDB read a backslash as an escape.  The table and column
+ * names are quoted with the source database's identifier quote.
+ * <pre>
+ * INSERT INTO "TABLE" ("A", "B") VALUES
+ * (1, 'one'),
+ * (2, NULL);
+ * </pre>
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class InsertWriter implements RowHandler, ValueSink
+{
+	/** The number of characters buffered before they are written. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** The number of rows between progress updates. */
+	private static final long PROGRESS_ROWS = 1024L;
+
+	/** The hex digits, for binary values. */
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	/** The output file. */
+	private final File file;
+
+	/** The name of the table to insert into. */
+	private final String tableName;
+
+	/** The number of rows in each statement. */
+	private final int rowsPerInsert;
+
+	/** The export settings. */
+	private final ExportSettings settings;
+
+	/** Whether backslashes in string literals are doubled. */
+	private final boolean escapeBackslash;
+
+	/** The quote for table and column names (empty if not supported). */
+	private final String identifierQuote;
+
+	/** The channel for the output file. */
+	private WritableByteChannel channel = null;
+
+	/** The start of each statement, up to VALUES. */
+	private String insertPrefix = null;
+
+	/** The readers for each column. */
+	private ColumnReader[] readers = null;
+
+	/** The statement text not yet written to the file. */
+	private final StringBuilder sb = new StringBuilder(BUFFER_SIZE + 1024);
+
+	/** Formats dates and timestamps. */
+	private final ValueFormatter formatter = new ValueFormatter();
+
+	/** The buffer for copying binary values. */
+	private byte[] bytes = null;
+
+	/** The buffer for copying character values. */
+	private char[] chars = null;
+
+	/** The number of rows written. */
+	private long rowCount = 0L;
+
+	/** The number of rows in the current statement. */
+	private int statementRows = 0;
+
+	/** The number of bytes written. */
+	private long byteCount = 0L;
+
+	/** The progress of the export. */
+	private ExportProgress progress = ExportProgress.hidden();
+
+	/** The number of rows already added to the progress. */
+	private long reportedRows = 0L;
+
+	/** The number of bytes already added to the progress. */
+	private long reportedBytes = 0L;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file the output file
+	 * @param tableName the name of the table to insert into
+	 * @param dbMeta the metadata of the source database
+	 * @param settings the export settings
+	 * @throws SQLException a database exception
+	 */
+	InsertWriter(final File file, final String tableName, final DatabaseMetaData dbMeta,
+			final ExportSettings settings) throws SQLException {
+		super();
+		this.file = file;
+		this.tableName = tableName;
+		this.rowsPerInsert = settings.getRowsPerInsert();
+		this.settings = settings;
+
+		final String dialect = settings.getDialect();
+		if (dialect == null) {
+			final String ref = Database.getDriverRef(dbMeta.getURL());
+			escapeBackslash = ("mysql".equals(ref) || "mariadb".equals(ref));
+			final String quote = dbMeta.getIdentifierQuoteString();
+			identifierQuote = ((quote == null) ? "" : quote.trim());
+		} else {
+			escapeBackslash = dialect.equals("mysql");
+			identifierQuote = (escapeBackslash ? "`" : "\"");
+		}
+	}
+
+
+	/**
+	 * Set the progress to add the rows and bytes written to.
+	 *
+	 * @param exportProgress the progress of the export
+	 */
+	void setProgress(final ExportProgress exportProgress) {
+		progress = exportProgress;
+	}
+
+
+	/**
+	 * Open the output file, and build the start of each statement
+	 * from the column names.
+	 *
+	 * @param metaData the result set metadata
+	 */
+	@Override
+	public void startResults(final ResultSetMetaData metaData)
+			throws SQLException, IOException {
+
+		readers = ColumnReader.forMetaData(metaData);
+
+		// Use the table's name from the metadata, in the case it was created with
+		final String table = metaData.getTableName(1);
+		final StringBuilder prefix = new StringBuilder(100);
+		prefix.append("INSERT INTO ");
+		appendName(prefix, ((table == null) || (table.length() == 0)) ? tableName : table);
+		prefix.append(" (");
+		for (int i = 1; i <= readers.length; ++i) {
+			if (i > 1) {
+				prefix.append(", ");
+			}
+			appendName(prefix, metaData.getColumnName(i));
+		}
+		prefix.append(") VALUES");
+		insertPrefix = prefix.toString();
+
+		channel = ExportOutput.open(file, settings);
+	}
+
+
+	/**
+	 * Add a table or column name, in identifier quotes.
+	 *
+	 * @param out the text to add to
+	 * @param name the name
+	 */
+	private void appendName(final StringBuilder out, final String name) {
+		if (identifierQuote.length() == 0) {
+			out.append(name);
+		} else {
+			out.append(identifierQuote)
+				.append(name.replace(identifierQuote, identifierQuote + identifierQuote))
+				.append(identifierQuote);
+		}
+	}
+
+
+	/**
+	 * Add the current row to the statement, and end the statement
+	 * once it has the requested number of rows.
+	 *
+	 * @param rs the result set
+	 * @return true, to keep processing rows
+	 */
+	@Override
+	public boolean processRow(final ResultSet rs)
+			throws SQLException, IOException {
+
+		if (statementRows == 0) {
+			sb.append(insertPrefix).append('\n');
+		} else {
+			sb.append(",\n");
+		}
+
+		sb.append('(');
+		final int numColumns = readers.length;
+		for (int i = 0; i < numColumns; ++i) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			readers[i].read(rs, i + 1, this);
+		}
+		sb.append(')');
+
+		if (++statementRows == rowsPerInsert) {
+			endStatement();
+		}
+
+		++rowCount;
+		if ((rowCount % PROGRESS_ROWS) == 0L) {
+			updateProgress();
+		}
+
+		if (sb.length() >= BUFFER_SIZE) {
+			writeBuffer();
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * End the current statement.
+	 */
+	private void endStatement() {
+		sb.append(";\n");
+		statementRows = 0;
+	}
+
+
+	/**
+	 * Add the rows and bytes written since the last update to
+	 * the progress.
+	 */
+	private void updateProgress() {
+		progress.add(rowCount - reportedRows, byteCount - reportedBytes);
+		reportedRows = rowCount;
+		reportedBytes = byteCount;
+	}
+
+
+	/**
+	 * Write the buffered text to the file, as UTF-8.  A high surrogate
+	 * at the end is kept, so a character is never split.
+	 *
+	 * @throws IOException an output exception
+	 */
+	private void writeBuffer() throws IOException {
+		int len = sb.length();
+		if ((len > 0) && Character.isHighSurrogate(sb.charAt(len - 1))) {
+			--len;
+		}
+
+		final ByteBuffer buffer = ByteBuffer.wrap(sb.substring(0, len).getBytes("UTF-8"));
+		byteCount += buffer.remaining();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		sb.delete(0, len);
+	}
+
+
+	/**
+	 * End the last statement, and flush and close the output file.
+	 *
+	 * @throws IOException an output exception
+	 */
+	public void close() throws IOException {
+		if (channel != null) {
+			try {
+				if (statementRows > 0) {
+					endStatement();
+				}
+				writeBuffer();
+				updateProgress();
+			} finally {
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+
+
+	/**
+	 * Return the number of rows written.
+	 *
+	 * @return the number of rows
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+
+	/**
+	 * Return the number of bytes written, before any compression.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+
+	@Override
+	public void writeNull() {
+		sb.append("NULL");
+	}
+
+
+	@Override
+	public void writeInt(final int value) {
+		sb.append(value);
+	}
+
+
+	@Override
+	public void writeLong(final long value) {
+		sb.append(value);
+	}
+
+
+	@Override
+	public void writeFloat(final float value) {
+		if (Float.isNaN(value) || Float.isInfinite(value)) {
+			sb.append('\'').append(value).append('\'');
+		} else {
+			sb.append(value);
+		}
+	}
+
+
+	@Override
+	public void writeDouble(final double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			sb.append('\'').append(value).append('\'');
+		} else {
+			sb.append(value);
+		}
+	}
+
+
+	@Override
+	public void writeDecimal(final BigDecimal value) {
+		sb.append(value.toPlainString());
+	}
+
+
+	@Override
+	public void writeBoolean(final boolean value) {
+		sb.append(value ? "TRUE" : "FALSE");
+	}
+
+
+	@Override
+	public void writeDate(final Date value) {
+		sb.append("DATE '");
+		formatter.appendDate(sb, value);
+		sb.append('\'');
+	}
+
+
+	@Override
+	public void writeTimestamp(final Timestamp value) {
+		sb.append("TIMESTAMP '");
+		formatter.appendTimestamp(sb, value);
+		sb.append('\'');
+	}
+
+
+	/**
+	 * Write a string literal, doubling any quotes (and backslashes,
+	 * for MySQL).
+	 */
+	@Override
+	public void writeText(final String value) {
+		sb.append('\'');
+		final int len = value.length();
+		for (int i = 0; i < len; ++i) {
+			appendChar(value.charAt(i));
+		}
+		sb.append('\'');
+	}
+
+
+	/**
+	 * Add a character of a string literal, doubling it if it is a
+	 * quote or an escape.
+	 *
+	 * @param ch the character
+	 */
+	private void appendChar(final char ch) {
+		if ((ch == '\'') || ((ch == '\\') && escapeBackslash)) {
+			sb.append(ch);
+		}
+		sb.append(ch);
+	}
+
+
+	/**
+	 * Write a binary value as a hex literal, as it is read.
+	 */
+	@Override
+	public void writeBinary(final InputStream in) throws IOException {
+		if (bytes == null) {
+			bytes = new byte[8192];
+		}
+
+		sb.append("X'");
+		int len;
+		while ((len = in.read(bytes)) >= 0) {
+			for (int i = 0; i < len; ++i) {
+				sb.append(HEX[(bytes[i] >> 4) & 0x0F]).append(HEX[bytes[i] & 0x0F]);
+			}
+			if (sb.length() >= BUFFER_SIZE) {
+				writeBuffer();
+			}
+		}
+		sb.append('\'');
+	}
+
+
+	/**
+	 * Write a string literal, as the characters are read.
+	 */
+	@Override
+	public void writeCharacters(final Reader in) throws IOException {
+		if (chars == null) {
+			chars = new char[8192];
+		}
+
+		sb.append('\'');
+		int len;
+		while ((len = in.read(chars)) >= 0) {
+			for (int i = 0; i < len; ++i) {
+				appendChar(chars[i]);
+			}
+			if (sb.length() >= BUFFER_SIZE) {
+				writeBuffer();
+			}
+		}
+		sb.append('\'');
+	}
+}
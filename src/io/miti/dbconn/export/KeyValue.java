@@ -0,0 +1,97 @@
+package io.miti.dbconn.export;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * Read and parse the values of key columns (primary keys and
+ * watermark columns), so they can be saved to a state file as
+ * text and later bound as query parameters of the right type.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class KeyValue
+{
+	/**
+	 * Default constructor.  Private.
+	 */
+	private KeyValue() {
+		super();
+	}
+
+
+	/**
+	 * Read a key value with the getter for its type.
+	 *
+	 * @param rs the result set
+	 * @param index the column index
+	 * @param sqlType the SQL type of the column
+	 * @return the key value, or null
+	 * @throws SQLException a database exception
+	 */
+	static Object read(final ResultSet rs, final int index, final int sqlType)
+			throws SQLException {
+		Object value;
+		switch (sqlType) {
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+				value = Long.valueOf(rs.getLong(index));
+				break;
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				value = rs.getBigDecimal(index);
+				break;
+			case Types.DATE:
+				value = rs.getDate(index);
+				break;
+			case Types.TIMESTAMP:
+				value = rs.getTimestamp(index);
+				break;
+			default:
+				value = rs.getString(index);
+				break;
+		}
+
+		return (rs.wasNull() ? null : value);
+	}
+
+
+	/**
+	 * Convert a saved key value back to an object of its type.
+	 *
+	 * @param sqlType the SQL type of the column
+	 * @param value the saved value
+	 * @return the key value
+	 */
+	static Object parse(final int sqlType, final String value) {
+		switch (sqlType) {
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+				return Long.valueOf(value);
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				return new BigDecimal(value);
+			case Types.DATE:
+				return Date.valueOf(value);
+			case Types.TIMESTAMP:
+				return Timestamp.valueOf(value);
+			default:
+				return value;
+		}
+	}
+}
@@ -0,0 +1,296 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.miti.dbconn.util.ConnManager;
+import io.miti.dbconn.util.Database;
+import io.miti.dbconn.util.Logger;
+import io.miti.dbconn.util.Utility;
+
+/**
+ * Export a table by splitting it into ranges of a numeric key, and
+ * streaming each range on its own connection into its own part file.
+ * The parts can optionally be merged into one file, ordered by the key.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class ParallelExport
+{
+	/** The table export. */
+	private final TableExport export;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param export the table export
+	 */
+	ParallelExport(final TableExport export) {
+		super();
+		this.export = export;
+	}
+
+
+	/**
+	 * Run the export.
+	 */
+	void run() {
+		final ExportSettings settings = export.getSettings();
+		if (!export.hasSimpleFilter()) {
+			export.report("Only a 'where ...' filter can be used with --parallel");
+			return;
+		}
+
+		// Find the column to split the table on
+		String column = settings.getSplitColumn();
+		if (column == null) {
+			final Set<String> pk = Database.getPrimaryKeyColumns(export.getTableName());
+			if (pk.size() != 1) {
+				export.report("No single-column primary key found; use --split-column");
+				return;
+			}
+			column = pk.iterator().next();
+		}
+
+		// Get the range of values in the split column
+		final List<List<String>> range = Database.executeSelect(
+				export.buildQuery("min(" + column + "), max(" + column + ")", null, null), 2);
+		if ((range == null) || range.isEmpty()) {
+			export.report("Error getting the range of " + column);
+			return;
+		}
+
+		final BigInteger min;
+		final BigInteger max;
+		try {
+			min = toInteger(range.get(0).get(0));
+			max = toInteger(range.get(0).get(1));
+		} catch (NumberFormatException nfe) {
+			export.report("The split column " + column + " must be numeric");
+			return;
+		}
+
+		// Decide how many parts to use
+		final BigInteger span = (min == null) ? BigInteger.ZERO :
+			max.subtract(min).add(BigInteger.ONE);
+		final int numParts = (int) Math.min((long) settings.getParallel(1),
+				span.min(BigInteger.valueOf(Integer.MAX_VALUE)).longValue());
+		if (numParts < 2) {
+			// The key range is too small to split
+			export.exportSingle();
+			return;
+		}
+
+		// Build a task for each key range
+		final boolean merge = settings.isMerge();
+		final String orderBy = (merge ? column : null);
+		final List<Callable<ExportStats>> tasks = new ArrayList<Callable<ExportStats>>(numParts);
+		final List<File> files = new ArrayList<File>(numParts);
+		for (int i = 0; i < numParts; ++i) {
+			final String predicate = getRangePredicate(column, min, span, i, numParts);
+			final String query = export.buildQuery(predicate, orderBy);
+			final File file = getPartFile(i);
+			final boolean writeHeader = (!merge || (i == 0));
+			final String name = "Part " + (i + 1);
+			files.add(file);
+			tasks.add(new Callable<ExportStats>() {
+				@Override
+				public ExportStats call() {
+					return exportPart(query, file, writeHeader, name);
+				}
+			});
+		}
+
+		// Run the tasks, one connection per key range
+		final List<ExportStats> results = runTasks(tasks);
+		boolean success = (results.size() == numParts);
+		for (ExportStats stats : results) {
+			if (stats.isSuccess()) {
+				export.report(String.format("%s: %s rows", stats.getName(),
+						Utility.formatLong(stats.getRows())));
+			} else {
+				export.report(stats.getName() + ": Error exporting the table data");
+				success = false;
+			}
+		}
+
+		if (!success) {
+			export.report("Error exporting the table data");
+		} else if (!merge) {
+			export.report("Data saved to " + numParts + " part files");
+		} else if (mergeFiles(files, export.getOutputFile())) {
+			export.report("Data saved to " + export.getOutputFile().getName());
+		}
+	}
+
+
+	/**
+	 * Export one key range on a new connection.
+	 *
+	 * @param query the query for the key range
+	 * @param file the output file
+	 * @param writeHeader whether to write the header line
+	 * @param name the name of the part
+	 * @return the statistics for the part
+	 */
+	private ExportStats exportPart(final String query, final File file,
+			final boolean writeHeader, final String name) {
+
+		final Connection conn = ConnManager.get().openConnection();
+		if (conn == null) {
+			final ExportStats stats = new ExportStats(name, file);
+			stats.finish(-1L, 0L, 0L);
+			return stats;
+		}
+
+		try {
+			return export.exportToFile(conn, query, file, writeHeader, name);
+		} finally {
+			try {
+				conn.close();
+			} catch (SQLException e) {
+				Logger.error(e);
+			}
+		}
+	}
+
+
+	/**
+	 * Run the tasks on a thread pool and return their results, in order.
+	 *
+	 * @param tasks the tasks
+	 * @return the results of the tasks that completed
+	 */
+	static <T> List<T> runTasks(final List<Callable<T>> tasks) {
+		final List<T> results = new ArrayList<T>(tasks.size());
+		final ExecutorService pool = Executors.newFixedThreadPool(tasks.size());
+		try {
+			for (Future<T> future : pool.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Logger.error(e);
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Logger.error(e);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		return results;
+	}
+
+
+	/**
+	 * Return the condition selecting one range of the split column.
+	 * The first and last ranges are open-ended, and the first also
+	 * includes null keys, so no rows are missed.
+	 *
+	 * @param column the split column
+	 * @param min the smallest key
+	 * @param span the number of values between the smallest and largest keys
+	 * @param index the index of the range
+	 * @param numParts the number of ranges
+	 * @return the condition
+	 */
+	private static String getRangePredicate(final String column,
+			final BigInteger min, final BigInteger span,
+			final int index, final int numParts) {
+
+		final BigInteger parts = BigInteger.valueOf(numParts);
+		final BigInteger lower = min.add(span.multiply(BigInteger.valueOf(index)).divide(parts));
+		final BigInteger upper = min.add(span.multiply(BigInteger.valueOf(index + 1)).divide(parts));
+		if (index == 0) {
+			return "(" + column + " < " + upper + " or " + column + " is null)";
+		} else if (index == (numParts - 1)) {
+			return column + " >= " + lower;
+		}
+
+		return column + " >= " + lower + " and " + column + " < " + upper;
+	}
+
+
+	/**
+	 * Concatenate the part files into the output file, and delete them.
+	 *
+	 * @param files the part files, in order
+	 * @param target the output file
+	 * @return whether the files were merged
+	 */
+	private static boolean mergeFiles(final List<File> files, final File target) {
+		FileChannel out = null;
+		try {
+			out = new FileOutputStream(target).getChannel();
+			for (File file : files) {
+				FileChannel in = new FileInputStream(file).getChannel();
+				try {
+					long pos = 0L;
+					final long size = in.size();
+					while (pos < size) {
+						pos += in.transferTo(pos, size - pos, out);
+					}
+				} finally {
+					in.close();
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Exception while merging the files: " + e.getMessage());
+			return false;
+		} finally {
+			try {
+				if (out != null) {
+					out.close();
+				}
+			} catch (IOException e) {
+				Logger.error(e);
+			}
+		}
+
+		for (File file : files) {
+			file.delete();
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Return the file for one part of the export.
+	 *
+	 * @param index the index of the part
+	 * @return the part file
+	 */
+	private File getPartFile(final int index) {
+		return export.getSettings().getOutputFile(
+				String.format("%s.part-%04d%s", export.getTableName(), index + 1,
+						export.getSettings().getExtension()));
+	}
+
+
+	/**
+	 * Convert a key value to an integer.
+	 *
+	 * @param value the value from the database
+	 * @return the value as an integer, or null if it's null
+	 */
+	private static BigInteger toInteger(final String value) {
+		return ((value == null) ? null : new BigDecimal(value.trim()).toBigInteger());
+	}
+}
@@ -0,0 +1,248 @@
+package io.miti.dbconn.export;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A channel that gzips its data on several threads.  The stream is
+ * split into fixed-size blocks, and each block is compressed into an
+ * independent gzip member; the members are written in order, so the
+ * output is a standard multi-member gzip file that gunzip can read.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class ParallelGzipChannel implements WritableByteChannel
+{
+	/** The number of uncompressed bytes in each gzip member. */
+	private static final int BLOCK_SIZE = 1024 * 1024;
+
+	/** The gzip member header: magic number, deflate, no flags or time, unknown OS. */
+	private static final byte[] HEADER = new byte[] {
+		(byte) 0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, (byte) 0xFF};
+
+	/** The size of the gzip member trailer (CRC and length). */
+	private static final int TRAILER_SIZE = 8;
+
+	/** The channel for the compressed data. */
+	private final WritableByteChannel out;
+
+	/** The threads that compress the blocks. */
+	private final ExecutorService pool;
+
+	/** The blocks being compressed, in order. */
+	private final LinkedList<Future<ByteBuffer>> pending = new LinkedList<Future<ByteBuffer>>();
+
+	/** The most blocks to have in progress at once. */
+	private final int maxPending;
+
+	/** The block being filled. */
+	private byte[] block = new byte[BLOCK_SIZE];
+
+	/** The number of bytes in the current block. */
+	private int blockLen = 0;
+
+	/** Whether any block has been compressed. */
+	private boolean anyBlocks = false;
+
+	/** Whether the channel is open. */
+	private boolean open = true;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param out the channel for the compressed data
+	 * @param threads the number of compression threads
+	 */
+	ParallelGzipChannel(final WritableByteChannel out, final int threads) {
+		super();
+		this.out = out;
+		maxPending = threads * 2;
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				Thread thread = new Thread(r, "gzip");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+
+	@Override
+	public int write(final ByteBuffer src) throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+
+		final int total = src.remaining();
+		while (src.hasRemaining()) {
+			final int len = Math.min(src.remaining(), block.length - blockLen);
+			src.get(block, blockLen, len);
+			blockLen += len;
+			if (blockLen == block.length) {
+				submitBlock();
+			}
+		}
+
+		return total;
+	}
+
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+
+	/**
+	 * Compress the last block, write all of the compressed data,
+	 * and close the output channel.
+	 *
+	 * @throws IOException an output exception
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!open) {
+			return;
+		}
+
+		open = false;
+		try {
+			// An empty stream still needs one gzip member
+			if ((blockLen > 0) || !anyBlocks) {
+				submitBlock();
+			}
+
+			while (!pending.isEmpty()) {
+				writeOldest();
+			}
+		} finally {
+			pool.shutdownNow();
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Start compressing the current block, waiting for the oldest
+	 * blocks to be written if too many are in progress.
+	 *
+	 * @throws IOException an output exception
+	 */
+	private void submitBlock() throws IOException {
+		final byte[] data = block;
+		final int len = blockLen;
+		block = new byte[BLOCK_SIZE];
+		blockLen = 0;
+		anyBlocks = true;
+
+		pending.addLast(pool.submit(new Callable<ByteBuffer>() {
+			@Override
+			public ByteBuffer call() {
+				return compress(data, len);
+			}
+		}));
+
+		while (pending.size() >= maxPending) {
+			writeOldest();
+		}
+	}
+
+
+	/**
+	 * Wait for the oldest block to be compressed, and write it.
+	 *
+	 * @throws IOException an output exception
+	 */
+	private void writeOldest() throws IOException {
+		final Future<ByteBuffer> future = pending.removeFirst();
+		final ByteBuffer data;
+		try {
+			data = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing");
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+
+		while (data.hasRemaining()) {
+			out.write(data);
+		}
+	}
+
+
+	/**
+	 * Compress a block into a complete gzip member.
+	 *
+	 * @param data the uncompressed data
+	 * @param len the number of bytes of data
+	 * @return the gzip member
+	 */
+	private static ByteBuffer compress(final byte[] data, final int len) {
+		final CRC32 crc = new CRC32();
+		crc.update(data, 0, len);
+
+		// Leave room for the header, the trailer and incompressible data
+		byte[] buf = new byte[HEADER.length + len + (len / 100) + 64 + TRAILER_SIZE];
+		System.arraycopy(HEADER, 0, buf, 0, HEADER.length);
+		int pos = HEADER.length;
+
+		final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(data, 0, len);
+			deflater.finish();
+			while (!deflater.finished()) {
+				if (pos == buf.length) {
+					byte[] bigger = new byte[buf.length * 2];
+					System.arraycopy(buf, 0, bigger, 0, pos);
+					buf = bigger;
+				}
+				pos += deflater.deflate(buf, pos, buf.length - pos);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		if ((pos + TRAILER_SIZE) > buf.length) {
+			byte[] bigger = new byte[pos + TRAILER_SIZE];
+			System.arraycopy(buf, 0, bigger, 0, pos);
+			buf = bigger;
+		}
+
+		pos = putIntLE(buf, pos, (int) crc.getValue());
+		pos = putIntLE(buf, pos, len);
+		return ByteBuffer.wrap(buf, 0, pos);
+	}
+
+
+	/**
+	 * Store a little-endian integer.
+	 *
+	 * @param buf the buffer
+	 * @param pos the position to store it at
+	 * @param value the integer
+	 * @return the position after the integer
+	 */
+	private static int putIntLE(final byte[] buf, final int pos, final int value) {
+		buf[pos] = (byte) value;
+		buf[pos + 1] = (byte) (value >>> 8);
+		buf[pos + 2] = (byte) (value >>> 16);
+		buf[pos + 3] = (byte) (value >>> 24);
+		return pos + 4;
+	}
+}
@@ -0,0 +1,183 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+
+import io.miti.dbconn.util.ConnManager;
+import io.miti.dbconn.util.Database;
+import io.miti.dbconn.util.Logger;
+import io.miti.dbconn.util.Utility;
+
+/**
+ * Export the results of any query (such as a join or an aggregate)
+ * to a CSV file.  The header comes from the labels of the columns
+ * in the results, and the rows are streamed the same way as a
+ * table export.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class QueryExport
+{
+	/** The query. */
+	private final String query;
+
+	/** The export settings. */
+	private final ExportSettings settings;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param query the query
+	 * @param settings the export settings
+	 */
+	public QueryExport(final String query, final ExportSettings settings) {
+		super();
+		this.query = query.trim();
+		this.settings = settings;
+	}
+
+
+	/**
+	 * Run the query and save the results to a file, printing the
+	 * progress to the console.
+	 *
+	 * @param fileName the name of the output file
+	 */
+	public void run(final String fileName) {
+		if (settings.isResumable() || (settings.getParallel(1) > 1)) {
+			System.out.println("--resumable and --parallel cannot be used with 'export query'");
+			return;
+		}
+
+		final File file = getOutputFile(fileName);
+		System.out.println("Exporting the query results to " + file.getName() + "...");
+		final ExportProgress progress = ExportProgress.start("Query", -1L, settings);
+		try {
+			final ExportStats stats = exportToFile(ConnManager.get().getConn(), query,
+					file, true, "Query", null, settings, progress);
+			if (!stats.isSuccess()) {
+				progress.println("Error exporting the query results");
+			} else {
+				if (stats.getManifest() != null) {
+					progress.println(String.format("%s rows saved to %d part files, listed in %s",
+							Utility.formatLong(stats.getRows()), stats.getParts(),
+							stats.getManifest().getName()));
+				} else {
+					progress.println(String.format("%s rows saved to %s",
+							Utility.formatLong(stats.getRows()), file.getName()));
+				}
+				if (stats.getStageTimes() != null) {
+					progress.println(stats.getStageTimes());
+				}
+			}
+		} finally {
+			progress.stop();
+		}
+	}
+
+
+	/**
+	 * Return the output file.  A relative name is put in the output
+	 * directory, and .gz is added for a compressed file.
+	 *
+	 * @param fileName the name of the output file
+	 * @return the output file
+	 */
+	private File getOutputFile(final String fileName) {
+		String name = fileName;
+		if (settings.isGzip() && !name.endsWith(".gz")) {
+			name = name + ".gz";
+		}
+
+		final File file = new File(name);
+		return (file.isAbsolute() ? file : settings.getOutputFile(name));
+	}
+
+
+	/**
+	 * Run a query on a connection and save the rows to a CSV file.
+	 * Unless the settings ask for a serial export, the rows are
+	 * fetched, encoded and written on separate threads.
+	 *
+	 * @param conn the database connection
+	 * @param query the query
+	 * @param file the output file
+	 * @param writeHeader whether to write the header line
+	 * @param name the name to use for the statistics
+	 * @param keyColumn the key column for the index of a dump file, or null
+	 * @param settings the export settings
+	 * @param progress the progress of the export
+	 * @return the statistics for the export
+	 */
+	static ExportStats exportToFile(final Connection conn, final String query,
+			final File file, final boolean writeHeader, final String name,
+			final String keyColumn, final ExportSettings settings,
+			final ExportProgress progress) {
+
+		final ExportStats stats = new ExportStats(name, file);
+		final long start = System.currentTimeMillis();
+		if (settings.isDump()) {
+			final DumpWriter writer = new DumpWriter(file, keyColumn);
+			writer.setProgress(progress);
+			long rows = Database.executeSelect(conn, query,
+					settings.getFetchSize(), settings.getThrottle().wrap(writer));
+			try {
+				writer.close();
+			} catch (IOException e) {
+				Logger.error(e);
+				rows = -1L;
+			}
+
+			stats.finish(rows, writer.getByteCount(), System.currentTimeMillis() - start);
+			return stats;
+		} else if (settings.isArrow()) {
+			final ArrowWriter writer = new ArrowWriter(file);
+			writer.setProgress(progress);
+			long rows = Database.executeSelect(conn, query,
+					settings.getFetchSize(), settings.getThrottle().wrap(writer));
+			try {
+				writer.close();
+			} catch (IOException e) {
+				Logger.error(e);
+				rows = -1L;
+			}
+
+			stats.finish(rows, writer.getByteCount(), System.currentTimeMillis() - start);
+			return stats;
+		} else if (!settings.isSerial()) {
+			final ExportPipeline pipeline = new ExportPipeline(file, writeHeader, settings);
+			pipeline.setProgress(progress);
+			long rows = Database.executeSelect(conn, query,
+					settings.getFetchSize(), settings.getThrottle().wrap(pipeline));
+			try {
+				pipeline.finish(rows >= 0L);
+			} catch (IOException e) {
+				Logger.error(e);
+				rows = -1L;
+			}
+
+			stats.finish(rows, pipeline.getByteCount(), System.currentTimeMillis() - start);
+			stats.setStageTimes(pipeline.getStageTimes());
+			stats.setParts(pipeline.getPartCount(), pipeline.getManifest());
+			return stats;
+		}
+
+		// Stream the data to a CSV file as it is fetched
+		final CsvRowWriter writer = new CsvRowWriter(file, writeHeader, settings);
+		writer.setProgress(progress);
+		long rows = Database.executeSelect(conn, query,
+				settings.getFetchSize(), settings.getThrottle().wrap(writer));
+		try {
+			writer.close();
+		} catch (IOException e) {
+			Logger.error(e);
+			rows = -1L;
+		}
+
+		stats.finish(rows, writer.getByteCount(), System.currentTimeMillis() - start);
+		return stats;
+	}
+}
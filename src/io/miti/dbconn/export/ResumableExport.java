@@ -0,0 +1,305 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+import io.miti.dbconn.util.ConnManager;
+import io.miti.dbconn.util.Database;
+import io.miti.dbconn.util.Logger;
+import io.miti.dbconn.util.RowHandler;
+import io.miti.dbconn.util.Utility;
+
+/**
+ * Export a table in pages, in primary key order, using a keyset
+ * predicate ("where pk > last") for each page.  After each page is
+ * written to the disk, the key of the last row and the size of the
+ * file are saved to a checkpoint file, so running the same export
+ * again continues from there, appending to the same file.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class ResumableExport
+{
+	/** The table export. */
+	private final TableExport export;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param export the table export
+	 */
+	ResumableExport(final TableExport export) {
+		super();
+		this.export = export;
+	}
+
+
+	/**
+	 * Run the export.
+	 */
+	void run() {
+		final ExportSettings settings = export.getSettings();
+		if (settings.isGzip()) {
+			export.report("A resumable export cannot be compressed");
+			return;
+		} else if (settings.getParallel(1) > 1) {
+			export.report("A resumable export cannot use --parallel");
+			return;
+		} else if (!export.hasSimpleFilter()) {
+			export.report("Only a 'where ...' filter can be used with --resumable");
+			return;
+		}
+
+		final String table = export.getTableName();
+		final List<String> keys = Database.getPrimaryKeyColumnList(table);
+		if (keys.isEmpty()) {
+			export.report("No primary key found for " + table);
+			return;
+		}
+
+		// Check for a checkpoint from an earlier run
+		final File file = export.getOutputFile();
+		final ExportCheckpoint checkpoint = new ExportCheckpoint(file);
+		final CsvRowWriter writer = new CsvRowWriter(file, true, settings);
+		writer.setProgress(export.getProgress());
+		Object[] lastKey = null;
+		if (checkpoint.exists()) {
+			try {
+				checkpoint.load();
+			} catch (IOException e) {
+				export.report(e.getMessage());
+				return;
+			}
+
+			if (!checkpoint.matches(table, export.getWhereClause(), keys)) {
+				export.report("The checkpoint " + checkpoint.getFile().getName()
+						+ " is for a different export; delete it to start over");
+				return;
+			}
+
+			lastKey = checkpoint.getKeyValues();
+			writer.resumeAt(checkpoint.getOffset());
+			export.report("Resuming after " + Utility.formatLong(checkpoint.getRows()) + " rows");
+		}
+		checkpoint.setTable(table, export.getWhereClause());
+
+		// Export a page at a time, until a page is not full
+		final int chunkRows = settings.getChunkRows();
+		final Connection conn = ConnManager.get().getConn();
+		final KeyTracker tracker = new KeyTracker(writer, keys);
+		final String orderBy = joinKeys(keys);
+		long totalRows = (lastKey == null) ? 0L : checkpoint.getRows();
+		boolean success = true;
+		while (true) {
+			final String query = export.buildQuery(
+					(lastKey == null) ? null : getKeysetPredicate(keys), orderBy);
+			final long rows = Database.executeSelect(conn, query,
+					getKeysetParams(lastKey), settings.getFetchSize(), chunkRows,
+					settings.getThrottle().wrap(tracker));
+			if (rows < 0L) {
+				success = false;
+				break;
+			} else if (rows == 0L) {
+				break;
+			}
+
+			// Save the position once the page is on the disk
+			totalRows += rows;
+			lastKey = tracker.getLastKey();
+			try {
+				writer.flush();
+				checkpoint.update(tracker.getKeyNames(), tracker.getKeyTypes(), lastKey,
+						writer.getFilePosition(), totalRows);
+				checkpoint.save();
+			} catch (IOException e) {
+				Logger.error(e);
+				success = false;
+				break;
+			}
+
+			if (rows < chunkRows) {
+				break;
+			}
+		}
+
+		try {
+			writer.close();
+		} catch (IOException e) {
+			Logger.error(e);
+			success = false;
+		}
+
+		if (!success) {
+			export.report("Error exporting the table data; run the command again to resume");
+		} else {
+			checkpoint.delete();
+			export.report(String.format("Data saved to %s (%s rows)",
+					file.getName(), Utility.formatLong(totalRows)));
+		}
+	}
+
+
+	/**
+	 * Return the predicate for the rows after the last key.  For a
+	 * key (a, b) this is "(a > ?) or (a = ? and b > ?)".
+	 *
+	 * @param keys the key column names
+	 * @return the predicate
+	 */
+	private static String getKeysetPredicate(final List<String> keys) {
+		StringBuilder sb = new StringBuilder(100);
+		final int size = keys.size();
+		for (int i = 0; i < size; ++i) {
+			if (i > 0) {
+				sb.append(" or ");
+			}
+			sb.append("(");
+			for (int j = 0; j < i; ++j) {
+				sb.append(keys.get(j)).append(" = ? and ");
+			}
+			sb.append(keys.get(i)).append(" > ?)");
+		}
+
+		return sb.toString();
+	}
+
+
+	/**
+	 * Return the parameters for the keyset predicate.
+	 *
+	 * @param lastKey the key values of the last row written, or null
+	 * @return the parameters, or null for the first page
+	 */
+	private static Object[] getKeysetParams(final Object[] lastKey) {
+		if (lastKey == null) {
+			return null;
+		}
+
+		final int size = lastKey.length;
+		Object[] params = new Object[size * (size + 1) / 2];
+		int index = 0;
+		for (int i = 0; i < size; ++i) {
+			for (int j = 0; j <= i; ++j) {
+				params[index++] = lastKey[j];
+			}
+		}
+
+		return params;
+	}
+
+
+	/**
+	 * Join the key column names with commas.
+	 *
+	 * @param keys the key column names
+	 * @return the column list
+	 */
+	private static String joinKeys(final List<String> keys) {
+		StringBuilder sb = new StringBuilder(50);
+		for (String key : keys) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(key);
+		}
+
+		return sb.toString();
+	}
+
+
+	/**
+	 * Pass the rows to a writer, remembering the key of the last row.
+	 */
+	private static final class KeyTracker implements RowHandler
+	{
+		/** The writer for the rows. */
+		private final CsvRowWriter writer;
+
+		/** The key column names. */
+		private final String[] keyNames;
+
+		/** The SQL types of the key columns. */
+		private final int[] keyTypes;
+
+		/** The result set index of each key column. */
+		private final int[] keyIndexes;
+
+		/** The key values of the last row. */
+		private Object[] lastKey = null;
+
+
+		/**
+		 * Constructor.
+		 *
+		 * @param writer the writer for the rows
+		 * @param keys the key column names
+		 */
+		KeyTracker(final CsvRowWriter writer, final List<String> keys) {
+			this.writer = writer;
+			keyNames = keys.toArray(new String[keys.size()]);
+			keyTypes = new int[keyNames.length];
+			keyIndexes = new int[keyNames.length];
+		}
+
+
+		@Override
+		public void startResults(final ResultSetMetaData metaData)
+				throws SQLException, IOException {
+
+			// Find the key columns in the results
+			final int count = metaData.getColumnCount();
+			for (int i = 0; i < keyNames.length; ++i) {
+				keyIndexes[i] = 0;
+				for (int col = 1; col <= count; ++col) {
+					if (keyNames[i].equalsIgnoreCase(metaData.getColumnName(col))) {
+						keyIndexes[i] = col;
+						keyTypes[i] = metaData.getColumnType(col);
+						break;
+					}
+				}
+
+				if (keyIndexes[i] == 0) {
+					throw new SQLException("The key column " + keyNames[i] + " was not found");
+				}
+			}
+
+			writer.startResults(metaData);
+		}
+
+
+		@Override
+		public boolean processRow(final ResultSet rs) throws SQLException, IOException {
+			writer.processRow(rs);
+
+			Object[] key = new Object[keyNames.length];
+			for (int i = 0; i < key.length; ++i) {
+				key[i] = KeyValue.read(rs, keyIndexes[i], keyTypes[i]);
+			}
+			lastKey = key;
+
+			return true;
+		}
+
+
+		Object[] getLastKey() {
+			return lastKey;
+		}
+
+
+		String[] getKeyNames() {
+			return keyNames;
+		}
+
+
+		int[] getKeyTypes() {
+			return keyTypes;
+		}
+	}
+}
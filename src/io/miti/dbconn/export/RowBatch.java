@@ -0,0 +1,249 @@
+package io.miti.dbconn.export;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+/**
+ * A reusable batch of rows, filled by the fetch stage of an export
+ * pipeline and replayed into a ValueSink by the encode stage.  Numbers
+ * and booleans are kept in a long array, so they are not boxed; other
+ * values are kept by reference.  The arrays are allocated once and
+ * reused for every batch.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class RowBatch implements ValueSink
+{
+	/** The tag for a null value. */
+	private static final byte NULL = 0;
+
+	/** The tag for an int value. */
+	private static final byte INT = 1;
+
+	/** The tag for a long value. */
+	private static final byte LONG = 2;
+
+	/** The tag for a float value. */
+	private static final byte FLOAT = 3;
+
+	/** The tag for a double value. */
+	private static final byte DOUBLE = 4;
+
+	/** The tag for a boolean value. */
+	private static final byte BOOLEAN = 5;
+
+	/** The tag for a decimal value. */
+	private static final byte DECIMAL = 6;
+
+	/** The tag for a date value. */
+	private static final byte DATE = 7;
+
+	/** The tag for a timestamp value. */
+	private static final byte TIMESTAMP = 8;
+
+	/** The tag for a text value. */
+	private static final byte TEXT = 9;
+
+	/** The number of columns in each row. */
+	private final int numColumns;
+
+	/** The maximum number of rows in the batch. */
+	private final int capacity;
+
+	/** The type tag of each value. */
+	private final byte[] tags;
+
+	/** The numeric and boolean values. */
+	private final long[] longs;
+
+	/** The other values. */
+	private final Object[] objects;
+
+	/** The index of the next value to write. */
+	private int position = 0;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param numColumns the number of columns in each row
+	 * @param capacity the maximum number of rows in the batch
+	 */
+	RowBatch(final int numColumns, final int capacity) {
+		super();
+		this.numColumns = numColumns;
+		this.capacity = capacity;
+		tags = new byte[numColumns * capacity];
+		longs = new long[numColumns * capacity];
+		objects = new Object[numColumns * capacity];
+	}
+
+
+	/**
+	 * Empty the batch, so it can be filled again.
+	 */
+	void clear() {
+		// Drop the references, so the values can be collected
+		Arrays.fill(objects, 0, position, null);
+		position = 0;
+	}
+
+
+	/**
+	 * Return the number of complete rows in the batch.
+	 *
+	 * @return the number of rows
+	 */
+	int getRowCount() {
+		return (position / numColumns);
+	}
+
+
+	/**
+	 * Return whether the batch has no room for another row.
+	 *
+	 * @return whether the batch is full
+	 */
+	boolean isFull() {
+		return (getRowCount() >= capacity);
+	}
+
+
+	/**
+	 * Pass the values of one row to a sink.
+	 *
+	 * @param row the row index
+	 * @param sink the target for the values
+	 * @throws IOException an output exception
+	 */
+	void replayRow(final int row, final ValueSink sink) throws IOException {
+		final int end = (row + 1) * numColumns;
+		for (int i = row * numColumns; i < end; ++i) {
+			switch (tags[i]) {
+				case INT:
+					sink.writeInt((int) longs[i]);
+					break;
+				case LONG:
+					sink.writeLong(longs[i]);
+					break;
+				case FLOAT:
+					sink.writeFloat(Float.intBitsToFloat((int) longs[i]));
+					break;
+				case DOUBLE:
+					sink.writeDouble(Double.longBitsToDouble(longs[i]));
+					break;
+				case BOOLEAN:
+					sink.writeBoolean(longs[i] != 0L);
+					break;
+				case DECIMAL:
+					sink.writeDecimal((BigDecimal) objects[i]);
+					break;
+				case DATE:
+					sink.writeDate((Date) objects[i]);
+					break;
+				case TIMESTAMP:
+					sink.writeTimestamp((Timestamp) objects[i]);
+					break;
+				case TEXT:
+					sink.writeText((String) objects[i]);
+					break;
+				default:
+					sink.writeNull();
+					break;
+			}
+		}
+	}
+
+
+	@Override
+	public void writeNull() {
+		tags[position++] = NULL;
+	}
+
+
+	@Override
+	public void writeInt(final int value) {
+		longs[position] = value;
+		tags[position++] = INT;
+	}
+
+
+	@Override
+	public void writeLong(final long value) {
+		longs[position] = value;
+		tags[position++] = LONG;
+	}
+
+
+	@Override
+	public void writeFloat(final float value) {
+		longs[position] = Float.floatToRawIntBits(value);
+		tags[position++] = FLOAT;
+	}
+
+
+	@Override
+	public void writeDouble(final double value) {
+		longs[position] = Double.doubleToRawLongBits(value);
+		tags[position++] = DOUBLE;
+	}
+
+
+	@Override
+	public void writeDecimal(final BigDecimal value) {
+		objects[position] = value;
+		tags[position++] = DECIMAL;
+	}
+
+
+	@Override
+	public void writeBoolean(final boolean value) {
+		longs[position] = (value ? 1L : 0L);
+		tags[position++] = BOOLEAN;
+	}
+
+
+	@Override
+	public void writeDate(final Date value) {
+		objects[position] = value;
+		tags[position++] = DATE;
+	}
+
+
+	@Override
+	public void writeTimestamp(final Timestamp value) {
+		objects[position] = value;
+		tags[position++] = TIMESTAMP;
+	}
+
+
+	@Override
+	public void writeText(final String value) {
+		objects[position] = value;
+		tags[position++] = TEXT;
+	}
+
+
+	/**
+	 * LOB columns are streamed, never batched.
+	 */
+	@Override
+	public void writeBinary(final InputStream in) {
+		throw new IllegalStateException("LOB values cannot be batched");
+	}
+
+
+	/**
+	 * LOB columns are streamed, never batched.
+	 */
+	@Override
+	public void writeCharacters(final Reader in) {
+		throw new IllegalStateException("LOB values cannot be batched");
+	}
+}
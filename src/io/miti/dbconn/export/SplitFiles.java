@@ -0,0 +1,167 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The part files of an export that is split by rows or bytes
+ * (TABLE.part-0001.csv, and so on), and the manifest that lists the
+ * rows, size and SHA-256 checksum of each part (TABLE.manifest.csv).
+ * <p>
+ * The parts are opened by the thread that writes the files, while
+ * the rows are counted by the thread that encodes them, so the two
+ * are kept in separate lists and only combined for the manifest.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class SplitFiles
+{
+	/** The digest algorithm for the checksums. */
+	private static final String DIGEST_NAME = "SHA-256";
+
+	/** The hex digits. */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/** The export settings. */
+	private final ExportSettings settings;
+
+	/** The directory for the files. */
+	private final File dir;
+
+	/** The file name, without the extension. */
+	private final String baseName;
+
+	/** The part files opened so far. */
+	private final List<File> files = new ArrayList<File>(10);
+
+	/** The digest of each part file. */
+	private final List<MessageDigest> digests = new ArrayList<MessageDigest>(10);
+
+	/** The number of rows in each finished part. */
+	private final List<Long> rowCounts = new ArrayList<Long>(10);
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file the file the export would be saved to without splitting
+	 * @param settings the export settings
+	 */
+	SplitFiles(final File file, final ExportSettings settings) {
+		super();
+		this.settings = settings;
+		dir = file.getParentFile();
+
+		final String name = file.getName();
+		final String ext = settings.getExtension();
+		baseName = (name.endsWith(ext) ? name.substring(0, name.length() - ext.length()) : name);
+	}
+
+
+	/**
+	 * Return whether a part has reached the row or byte limit.
+	 *
+	 * @param rows the rows in the part
+	 * @param bytes the (uncompressed) bytes in the part
+	 * @return whether the part is full
+	 */
+	boolean isFull(final long rows, final long bytes) {
+		final long maxRows = settings.getMaxRows();
+		final long maxBytes = settings.getMaxBytes();
+		return (((maxRows > 0L) && (rows >= maxRows)) || ((maxBytes > 0L) && (bytes >= maxBytes)));
+	}
+
+
+	/**
+	 * Open the next part file.
+	 *
+	 * @return the channel to write the part to
+	 * @throws IOException an output exception
+	 */
+	WritableByteChannel openNext() throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(DIGEST_NAME);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(DIGEST_NAME + " is not available");
+		}
+
+		final File file = new File(dir, String.format("%s.part-%04d%s", baseName,
+				files.size() + 1, settings.getExtension()));
+		final WritableByteChannel channel = ExportOutput.open(file, settings, false, digest);
+		files.add(file);
+		digests.add(digest);
+		return channel;
+	}
+
+
+	/**
+	 * Save the number of rows in the part that was just finished.
+	 *
+	 * @param rows the rows in the part
+	 */
+	void endPart(final long rows) {
+		rowCounts.add(Long.valueOf(rows));
+	}
+
+
+	/**
+	 * Write the manifest, once all of the parts are closed.
+	 *
+	 * @return the manifest file
+	 * @throws IOException an output exception
+	 */
+	File writeManifest() throws IOException {
+		final File manifest = new File(dir, baseName + ".manifest.csv");
+		Writer out = new OutputStreamWriter(new FileOutputStream(manifest), "UTF-8");
+		try {
+			out.write("file,rows,bytes,sha256\n");
+			final int size = files.size();
+			for (int i = 0; i < size; ++i) {
+				final File file = files.get(i);
+				final long rows = ((i < rowCounts.size()) ? rowCounts.get(i).longValue() : 0L);
+				out.write(file.getName() + "," + rows + "," + file.length() + ","
+						+ toHex(digests.get(i).digest()) + "\n");
+			}
+		} finally {
+			out.close();
+		}
+
+		return manifest;
+	}
+
+
+	/**
+	 * Return the number of part files.
+	 *
+	 * @return the number of parts
+	 */
+	int getPartCount() {
+		return files.size();
+	}
+
+
+	/**
+	 * Return bytes as lowercase hex.
+	 *
+	 * @param bytes the bytes
+	 * @return the hex string
+	 */
+	static String toHex(final byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(HEX[(b >> 4) & 0x0F]).append(HEX[b & 0x0F]);
+		}
+
+		return sb.toString();
+	}
+}
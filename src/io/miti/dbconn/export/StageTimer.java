@@ -0,0 +1,89 @@
+package io.miti.dbconn.export;
+
+/**
+ * Track how long a stage of an export pipeline is busy, and how
+ * long it is idle waiting on the stages before or after it.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class StageTimer
+{
+	/** The name of the stage. */
+	private final String name;
+
+	/** When the stage started, in nanoseconds. */
+	private long startTime = 0L;
+
+	/** When the stage ended, in nanoseconds. */
+	private long endTime = 0L;
+
+	/** When the current wait started, in nanoseconds. */
+	private long waitStart = 0L;
+
+	/** The total time spent waiting, in nanoseconds. */
+	private long waitTime = 0L;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name the name of the stage
+	 */
+	StageTimer(final String name) {
+		super();
+		this.name = name;
+	}
+
+
+	void start() {
+		startTime = System.nanoTime();
+	}
+
+
+	void stop() {
+		endTime = System.nanoTime();
+	}
+
+
+	void startWait() {
+		waitStart = System.nanoTime();
+	}
+
+
+	void endWait() {
+		waitTime += System.nanoTime() - waitStart;
+	}
+
+
+	/**
+	 * Return the time the stage was busy, in milliseconds.
+	 *
+	 * @return the busy time
+	 */
+	long getBusyMillis() {
+		return Math.max(0L, endTime - startTime - waitTime) / 1000000L;
+	}
+
+
+	/**
+	 * Return the time the stage was idle, in milliseconds.
+	 *
+	 * @return the idle time
+	 */
+	long getIdleMillis() {
+		return waitTime / 1000000L;
+	}
+
+
+	/**
+	 * Return the busy and idle times, as text.
+	 *
+	 * @return the times for the stage
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s %.2fs busy, %.2fs idle", name,
+				getBusyMillis() / 1000.0, getIdleMillis() / 1000.0);
+	}
+}
@@ -0,0 +1,383 @@
+package io.miti.dbconn.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.miti.dbconn.util.ConnManager;
+import io.miti.dbconn.util.Database;
+import io.miti.dbconn.util.Logger;
+import io.miti.dbconn.util.Utility;
+
+/**
+ * Export the data in a database table to a CSV file.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class TableExport
+{
+	/** The table name. */
+	private final String tableName;
+
+	/** The optional where/order-by clause. */
+	private final String whereClause;
+
+	/** The export settings. */
+	private final ExportSettings settings;
+
+	/** The names of the columns in the table. */
+	private List<String> columns = null;
+
+	/** The estimated number of rows in the table (-1 if unknown). */
+	private long rowEstimate = -1L;
+
+	/** The progress of the export. */
+	private ExportProgress progress = ExportProgress.hidden();
+
+	/** The first primary key column, for the index of a dump file. */
+	private String keyColumn = null;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param tableName the table name
+	 * @param whereClause the optional where/order-by clause
+	 * @param settings the export settings
+	 */
+	public TableExport(final String tableName, final String whereClause,
+			final ExportSettings settings) {
+		super();
+		this.tableName = tableName;
+		this.whereClause = (((whereClause == null) || whereClause.trim().isEmpty())
+				? null : whereClause.trim());
+		this.settings = settings;
+	}
+
+
+	/**
+	 * Export the table, printing the progress to the console.
+	 */
+	public void run() {
+		if (!prepare()) {
+			return;
+		}
+
+		System.out.println("Exporting table data for " + tableName + "...");
+
+		// The estimate is for the whole table, so only use it without a filter
+		progress = ExportProgress.start(tableName,
+				(whereClause == null) ? Database.getRowEstimate(tableName) : -1L, settings);
+		try {
+			if (settings.isResumable()) {
+				new ResumableExport(this).run();
+			} else if ((settings.getParallel(1) > 1) && settings.isSplit()) {
+				report("--max-rows and --max-bytes cannot be used with --parallel");
+			} else if (settings.getParallel(1) > 1) {
+				new ParallelExport(this).run();
+			} else {
+				exportSingle();
+			}
+		} finally {
+			progress.stop();
+		}
+	}
+
+
+	/**
+	 * Export the rows added or changed since the last time this
+	 * command was run, based on the values in a watermark column.
+	 *
+	 * @param column the watermark column
+	 */
+	public void runSince(final String column) {
+		if (!prepare()) {
+			return;
+		}
+
+		System.out.println("Exporting table data for " + tableName + " since the last "
+				+ column + "...");
+		progress = ExportProgress.start(tableName, -1L, settings);
+		try {
+			new DeltaExport(this, column).run();
+		} finally {
+			progress.stop();
+		}
+	}
+
+
+	/**
+	 * Export the BLOB, CLOB and binary columns of the table to one
+	 * file per value, keyed by the primary key.
+	 */
+	public void runBlobs() {
+		if (!prepare()) {
+			return;
+		}
+
+		System.out.println("Exporting the LOB columns of " + tableName + "...");
+		progress = ExportProgress.start(tableName,
+				(whereClause == null) ? Database.getRowEstimate(tableName) : -1L, settings);
+		try {
+			new BlobExport(this).run();
+		} finally {
+			progress.stop();
+		}
+	}
+
+
+	/**
+	 * Export the table to a SQL script of multi-row INSERT statements.
+	 */
+	public void runInserts() {
+		if (settings.isResumable() || (settings.getParallel(1) > 1) || settings.isSplit()
+				|| settings.isDump() || settings.isArrow()) {
+			System.out.println("--resumable, --parallel, --max-rows, --max-bytes and --format "
+					+ "cannot be used with 'export inserts'");
+			return;
+		} else if (!prepare()) {
+			return;
+		}
+
+		final File file = settings.getOutputFile(tableName
+				+ (settings.isGzip() ? ".sql.gz" : ".sql"));
+		final InsertWriter writer;
+		try {
+			writer = new InsertWriter(file, tableName, ConnManager.get().getConn().getMetaData(),
+					settings);
+		} catch (SQLException e) {
+			Logger.error(e);
+			System.out.println("Error getting the database metadata");
+			return;
+		}
+
+		System.out.println("Exporting table data for " + tableName + " to " + file.getName() + "...");
+		progress = ExportProgress.start(tableName,
+				(whereClause == null) ? Database.getRowEstimate(tableName) : -1L, settings);
+		try {
+			writer.setProgress(progress);
+			long rows = Database.executeSelect(ConnManager.get().getConn(),
+					buildQuery(null, null), settings.getFetchSize(),
+					settings.getThrottle().wrap(writer));
+			try {
+				writer.close();
+			} catch (IOException e) {
+				Logger.error(e);
+				rows = -1L;
+			}
+
+			if (rows < 0L) {
+				report("Error exporting the table data");
+			} else {
+				report(String.format("%s rows saved to %s", Utility.formatLong(rows),
+						file.getName()));
+			}
+		} finally {
+			progress.stop();
+		}
+	}
+
+
+	/**
+	 * Export the table to a single file on the current connection.
+	 */
+	void exportSingle() {
+		final ExportStats stats = exportToFile(ConnManager.get().getConn(),
+				buildQuery(null, null), getOutputFile(), true, tableName);
+		if (!stats.isSuccess()) {
+			report("Error exporting the table data");
+		} else {
+			if (stats.getManifest() != null) {
+				report(String.format("Data saved to %d part files, listed in %s",
+						stats.getParts(), stats.getManifest().getName()));
+			} else {
+				report("Data saved to " + stats.getFile().getName());
+			}
+			if (stats.getStageTimes() != null) {
+				report(stats.getStageTimes());
+			}
+		}
+	}
+
+
+	/**
+	 * Verify the table exists and load the names of its columns.
+	 *
+	 * @return whether the table was found
+	 */
+	public boolean prepare() {
+		// Verify this table exists
+		List<String> info = Database.getTableNames(tableName);
+		if ((info == null) || info.isEmpty() || (info.size() > 1)) {
+			System.out.println("Error getting table data");
+			return false;
+		}
+
+		// Get the column names
+		List<List<String>> results = Database.getColumns(tableName, true);
+		if ((results == null) || results.isEmpty()) {
+			System.out.println("Error getting column information");
+			return false;
+		}
+
+		columns = new ArrayList<String>(results.size());
+		for (List<String> result : results) {
+			columns.add(result.get(1));
+		}
+
+		if (settings.isDump()) {
+			final List<String> keys = Database.getPrimaryKeyColumnList(tableName);
+			keyColumn = (((keys == null) || keys.isEmpty()) ? null : keys.get(0));
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Build the query to select the table data.
+	 *
+	 * @param predicate an additional condition for the rows, or null
+	 * @param orderBy the column(s) to order by, or null
+	 * @return the query
+	 */
+	public String buildQuery(final String predicate, final String orderBy) {
+		StringBuilder sb = new StringBuilder(100);
+		final int size = columns.size();
+		for (int i = 0; i < size; ++i) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(columns.get(i));
+		}
+
+		return buildQuery(sb.toString(), predicate, orderBy);
+	}
+
+
+	/**
+	 * Build a query on the table, with the user's where clause.
+	 *
+	 * @param selectList the expressions to select
+	 * @param predicate an additional condition for the rows, or null
+	 * @param orderBy the column(s) to order by, or null
+	 * @return the query
+	 */
+	public String buildQuery(final String selectList, final String predicate,
+			final String orderBy) {
+		StringBuilder sb = new StringBuilder(100);
+		sb.append("select ").append(selectList).append(" from ").append(tableName);
+
+		if (predicate == null) {
+			// If there's a where/order-by clause, add it
+			if (whereClause != null) {
+				sb.append(" ").append(whereClause);
+			}
+		} else if (whereClause != null) {
+			// Combine the predicate with the user's filter
+			sb.append(" where (").append(predicate).append(") and (")
+			  .append(whereClause.substring(5).trim()).append(")");
+		} else {
+			sb.append(" where ").append(predicate);
+		}
+
+		if (orderBy != null) {
+			sb.append(" order by ").append(orderBy);
+		}
+
+		return sb.toString();
+	}
+
+
+	/**
+	 * Return whether the where clause is missing or only filters the
+	 * rows (so more conditions can be added to it).
+	 *
+	 * @return whether the where clause is a simple filter
+	 */
+	public boolean hasSimpleFilter() {
+		if (whereClause == null) {
+			return true;
+		}
+
+		final String clause = whereClause.toLowerCase();
+		return (clause.startsWith("where ") && !clause.contains(" order by "));
+	}
+
+
+	/**
+	 * Run the query on a connection and save the rows to a CSV file.
+	 *
+	 * @param conn the database connection
+	 * @param query the query
+	 * @param file the output file
+	 * @param writeHeader whether to write the header line
+	 * @param name the name to use for the statistics
+	 * @return the statistics for the export
+	 */
+	public ExportStats exportToFile(final Connection conn, final String query,
+			final File file, final boolean writeHeader, final String name) {
+
+		return QueryExport.exportToFile(conn, query, file, writeHeader, name,
+				keyColumn, settings, progress);
+	}
+
+
+	/**
+	 * Print a message, without disturbing the progress line.
+	 *
+	 * @param msg the message
+	 */
+	void report(final String msg) {
+		progress.println(msg);
+	}
+
+
+	/**
+	 * Return the file the table is exported to.
+	 *
+	 * @return the output file
+	 */
+	public File getOutputFile() {
+		return settings.getOutputFile(tableName + settings.getExtension());
+	}
+
+
+	public String getTableName() {
+		return tableName;
+	}
+
+
+	public String getWhereClause() {
+		return whereClause;
+	}
+
+
+	public ExportSettings getSettings() {
+		return settings;
+	}
+
+
+	ExportProgress getProgress() {
+		return progress;
+	}
+
+
+	void setProgress(final ExportProgress exportProgress) {
+		progress = exportProgress;
+	}
+
+
+	public long getRowEstimate() {
+		return rowEstimate;
+	}
+
+
+	public void setRowEstimate(final long estimate) {
+		rowEstimate = estimate;
+	}
+}
@@ -0,0 +1,105 @@
+package io.miti.dbconn.export;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.sql.Timestamp;
+
+/**
+ * Append dates and timestamps to a buffer as text, digit by digit,
+ * without creating a formatter or a String for each value.  An
+ * instance is not thread-safe.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class ValueFormatter
+{
+	/** The calendar used to split a time into its fields. */
+	private final Calendar cal = Calendar.getInstance();
+
+
+	/**
+	 * Default constructor.
+	 */
+	ValueFormatter() {
+		super();
+	}
+
+
+	/**
+	 * Append a date, as yyyy-MM-dd.
+	 *
+	 * @param sb the buffer
+	 * @param date the date
+	 */
+	void appendDate(final StringBuilder sb, final Date date) {
+		cal.setTime(date);
+		appendDateFields(sb);
+	}
+
+
+	/**
+	 * Append a timestamp, as yyyy-MM-dd HH:mm:ss, followed by the
+	 * fractional seconds if there are any.
+	 *
+	 * @param sb the buffer
+	 * @param ts the timestamp
+	 */
+	void appendTimestamp(final StringBuilder sb, final Timestamp ts) {
+		cal.setTime(ts);
+		appendDateFields(sb);
+		sb.append(' ');
+		appendDigits(sb, cal.get(Calendar.HOUR_OF_DAY), 2);
+		sb.append(':');
+		appendDigits(sb, cal.get(Calendar.MINUTE), 2);
+		sb.append(':');
+		appendDigits(sb, cal.get(Calendar.SECOND), 2);
+
+		int nanos = ts.getNanos();
+		if (nanos > 0) {
+			// Drop any trailing zeros from the fraction
+			int digits = 9;
+			while ((nanos % 10) == 0) {
+				nanos /= 10;
+				--digits;
+			}
+			sb.append('.');
+			appendDigits(sb, nanos, digits);
+		}
+	}
+
+
+	/**
+	 * Append the year, month and day in the calendar.
+	 *
+	 * @param sb the buffer
+	 */
+	private void appendDateFields(final StringBuilder sb) {
+		appendDigits(sb, cal.get(Calendar.YEAR), 4);
+		sb.append('-');
+		appendDigits(sb, cal.get(Calendar.MONTH) + 1, 2);
+		sb.append('-');
+		appendDigits(sb, cal.get(Calendar.DAY_OF_MONTH), 2);
+	}
+
+
+	/**
+	 * Append a non-negative number, padded with leading zeros.
+	 *
+	 * @param sb the buffer
+	 * @param value the number
+	 * @param width the minimum number of digits
+	 */
+	private static void appendDigits(final StringBuilder sb, final int value,
+			final int width) {
+		int pad = width - 1;
+		for (int limit = 10; (pad > 0) && (value >= limit); limit *= 10) {
+			--pad;
+		}
+
+		for (int i = 0; i < pad; ++i) {
+			sb.append('0');
+		}
+		sb.append(value);
+	}
+}
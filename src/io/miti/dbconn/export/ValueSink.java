@@ -0,0 +1,43 @@
+package io.miti.dbconn.export;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+
+/**
+ * The target for typed column values read from a result set.  Each
+ * output format encodes the values directly, without first turning
+ * every value into a String.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public interface ValueSink
+{
+	void writeNull() throws IOException;
+
+	void writeInt(int value) throws IOException;
+
+	void writeLong(long value) throws IOException;
+
+	void writeFloat(float value) throws IOException;
+
+	void writeDouble(double value) throws IOException;
+
+	void writeDecimal(BigDecimal value) throws IOException;
+
+	void writeBoolean(boolean value) throws IOException;
+
+	void writeDate(Date value) throws IOException;
+
+	void writeTimestamp(Timestamp value) throws IOException;
+
+	void writeText(String value) throws IOException;
+
+	void writeBinary(InputStream in) throws IOException;
+
+	void writeCharacters(Reader in) throws IOException;
+}
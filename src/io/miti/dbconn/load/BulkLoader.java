@@ -0,0 +1,484 @@
+package io.miti.dbconn.load;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import io.miti.dbconn.export.CsvFormat;
+import io.miti.dbconn.util.Database;
+import io.miti.dbconn.util.Logger;
+import io.miti.dbconn.util.TableColumn;
+
+/**
+ * Load a CSV file with the bulk load API of the database driver, which
+ * is much faster than batches of inserts.  The driver is found from the
+ * JDBC URL, and its API is called through reflection, so the drivers
+ * are not needed to build or run the application.  The whole file is
+ * loaded in the caller's transaction.
+ * <p>
+ * A loader is only used when the database reads each field the same way
+ * the batched inserts would; for example, binary columns (in Base64)
+ * are always loaded with inserts.  H2's CSVREAD is not used, since it
+ * reads an empty field as a null, and is no faster than batched inserts
+ * for an embedded database.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+abstract class BulkLoader
+{
+	/** The buffer size for reading the file. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+
+	/**
+	 * Default constructor.
+	 */
+	BulkLoader() {
+		super();
+	}
+
+
+	/**
+	 * Return the bulk loader for the driver behind a connection.
+	 *
+	 * @param conn the database connection
+	 * @return the loader, or null if the driver has no bulk load API
+	 * @throws SQLException a database exception
+	 */
+	static BulkLoader forConnection(final Connection conn) throws SQLException {
+		final String ref = Database.getDriverRef(conn.getMetaData().getURL());
+		if ("postgresql".equals(ref)) {
+			return new PostgresLoader();
+		} else if ("mysql".equals(ref) || "mariadb".equals(ref)) {
+			return new MySqlLoader();
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Return the name of the bulk load API, for the console.
+	 *
+	 * @return the name of the API
+	 */
+	abstract String getName();
+
+
+	/**
+	 * Return whether the loader can read a file into the columns.
+	 *
+	 * @param file the CSV file
+	 * @param columns the columns for the CSV fields
+	 * @param settings the import settings
+	 * @return whether the loader can be used
+	 */
+	boolean canLoad(final File file, final List<TableColumn> columns,
+			final ImportSettings settings) {
+		for (TableColumn column : columns) {
+			if (isBinary(column)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Load the file into the table, in the current transaction.
+	 *
+	 * @param conn the database connection
+	 * @param table the table name
+	 * @param columns the columns for the CSV fields
+	 * @param file the CSV file
+	 * @param settings the import settings
+	 * @return the number of rows loaded
+	 * @throws SQLException a database exception, or the API could not be called
+	 * @throws IOException an input exception
+	 */
+	abstract long load(Connection conn, String table, List<TableColumn> columns,
+			File file, ImportSettings settings) throws SQLException, IOException;
+
+
+	/**
+	 * Return whether a column holds binary data, which is written as Base64.
+	 *
+	 * @param column the column
+	 * @return whether the column is binary
+	 */
+	static boolean isBinary(final TableColumn column) {
+		final int sqlType = column.getSqlType();
+		return ((column.getColType() == TableColumn.COL_BLOB) || (sqlType == Types.BINARY)
+				|| (sqlType == Types.VARBINARY) || (sqlType == Types.LONGVARBINARY));
+	}
+
+
+	/**
+	 * Open the file, through gzip if it ends in .gz.
+	 *
+	 * @param file the file
+	 * @return the input stream
+	 * @throws IOException an input exception
+	 */
+	static InputStream openFile(final File file) throws IOException {
+		final InputStream in = new FileInputStream(file);
+		return (file.getName().endsWith(".gz") ? new GZIPInputStream(in, BUFFER_SIZE) : in);
+	}
+
+
+	/**
+	 * Return a SQL string literal.
+	 *
+	 * @param value the text
+	 * @return the quoted text
+	 */
+	static String literal(final String value) {
+		return "'" + value.replace("'", "''") + "'";
+	}
+
+
+	/**
+	 * Call a public method through reflection.  The method is looked up
+	 * on a public interface or class (loaded with the driver's class
+	 * loader), since the driver's own classes may not be public.
+	 *
+	 * @param target the object to call the method on
+	 * @param className the interface or class that declares the method
+	 * @param name the method name
+	 * @param types the parameter types
+	 * @param args the arguments
+	 * @return the result of the method
+	 * @throws SQLException the method threw an exception, or could not be called
+	 */
+	static Object invoke(final Object target, final String className, final String name,
+			final Class<?>[] types, final Object... args) throws SQLException {
+		try {
+			final Class<?> cls = Class.forName(className, true, target.getClass().getClassLoader());
+			final Method method = cls.getMethod(name, types);
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			throw new SQLException(String.valueOf(cause), cause);
+		} catch (ClassNotFoundException e) {
+			throw new SQLException("The driver has no class " + className, e);
+		} catch (NoSuchMethodException e) {
+			throw new SQLException("The driver has no method " + className + "." + name, e);
+		} catch (IllegalAccessException e) {
+			throw new SQLException("Cannot call " + className + "." + name, e);
+		}
+	}
+
+
+	/**
+	 * PostgreSQL: stream the file to COPY ... FROM STDIN with CopyManager.
+	 * COPY reads the null token (unquoted only), booleans, dates and
+	 * timestamps the same way the inserts do.
+	 */
+	private static final class PostgresLoader extends BulkLoader
+	{
+		/**
+		 * Default constructor.
+		 */
+		PostgresLoader() {
+			super();
+		}
+
+
+		@Override
+		String getName() {
+			return "COPY";
+		}
+
+
+		@Override
+		long load(final Connection conn, final String table, final List<TableColumn> columns,
+				final File file, final ImportSettings settings) throws SQLException, IOException {
+			final CsvFormat fmt = settings.getCsvFormat();
+			final String sql = "COPY " + table + " (" + Columns.join(columns)
+					+ ") FROM STDIN WITH (FORMAT csv, HEADER " + settings.hasHeader()
+					+ ", DELIMITER " + literal(String.valueOf(fmt.getDelimiter()))
+					+ ", QUOTE " + literal(String.valueOf(fmt.getQuote()))
+					+ ", NULL " + literal(fmt.getNullToken()) + ", ENCODING 'UTF8')";
+
+			final String pgConnection = "org.postgresql.PGConnection";
+			final Object pgConn;
+			try {
+				pgConn = conn.unwrap(Class.forName(pgConnection, true,
+						conn.getClass().getClassLoader()));
+			} catch (ClassNotFoundException e) {
+				throw new SQLException("The driver has no class " + pgConnection, e);
+			}
+
+			final Object copyApi = invoke(pgConn, pgConnection, "getCopyAPI", new Class<?>[0]);
+			final InputStream in = openFile(file);
+			try {
+				final Object rows = invoke(copyApi, "org.postgresql.copy.CopyManager", "copyIn",
+						new Class<?>[] {String.class, InputStream.class}, sql, in);
+				return ((Long) rows).longValue();
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+
+	/**
+	 * MySQL and MariaDB: LOAD DATA LOCAL INFILE, with the file passed to
+	 * the statement as a stream.  The server must allow local_infile.
+	 * Since LOAD DATA can't tell a quoted field from an unquoted one,
+	 * the file is read first, and the inserts are used if it has a quoted
+	 * field that matches the null token, or an unquoted NULL that isn't
+	 * the null token (LOAD DATA reads it as a null).  Otherwise, unquoted
+	 * fields that match the null token byte for byte are read as nulls.
+	 * A load with warnings, or that skipped records, fails and is rolled
+	 * back.
+	 */
+	private static final class MySqlLoader extends BulkLoader
+	{
+		/** The statement interfaces that can take a stream, newest first. */
+		private static final String[] STATEMENT_CLASSES = new String[] {
+			"com.mysql.cj.jdbc.JdbcStatement", "com.mysql.jdbc.Statement",
+			"org.mariadb.jdbc.MariaDbStatement"};
+
+		/** The number of records in the file, found by canLoad(). */
+		private long records = -1L;
+
+
+		/**
+		 * Default constructor.
+		 */
+		MySqlLoader() {
+			super();
+		}
+
+
+		@Override
+		String getName() {
+			return "LOAD DATA LOCAL";
+		}
+
+
+		@Override
+		boolean canLoad(final File file, final List<TableColumn> columns,
+				final ImportSettings settings) {
+			// MySQL reads 'true' as 0 for a BOOLEAN (TINYINT) column
+			for (TableColumn column : columns) {
+				if (column.getColType() == TableColumn.COL_BOOLEAN) {
+					return false;
+				}
+			}
+			if (!super.canLoad(file, columns, settings)) {
+				return false;
+			}
+
+			try {
+				records = scan(file, settings);
+			} catch (IOException e) {
+				// The inserts report the error, with its line
+				return false;
+			}
+			return (records >= 0L);
+		}
+
+
+		/**
+		 * Count the records in the file, and check that LOAD DATA reads
+		 * every field the same way the inserts do.  It can't tell a
+		 * quoted null token from an unquoted one, and it reads an
+		 * unquoted NULL (in any case) as a null.
+		 *
+		 * @param file the CSV file
+		 * @param settings the import settings
+		 * @return the number of records, not counting the header, or -1
+		 *         if LOAD DATA would read a field differently
+		 * @throws IOException an input exception, or a malformed record
+		 */
+		private static long scan(final File file, final ImportSettings settings)
+				throws IOException {
+			final String nullToken = settings.getCsvFormat().getNullToken();
+			final int tokenLength = nullToken.getBytes("UTF-8").length;
+			final InputStream in = openFile(file);
+			try {
+				final CsvReader csv = new CsvReader(ByteSource.fromStream(in), settings.getCsvFormat());
+				long count = (settings.hasHeader() ? -1L : 0L);
+				while (csv.next()) {
+					if (++count == 0L) {
+						continue;
+					}
+
+					for (int i = 0; i < csv.size(); ++i) {
+						final int len = csv.getByteLength(i);
+						if (csv.isQuoted(i)) {
+							if ((len == tokenLength) && nullToken.equals(csv.get(i))) {
+								return -1L;
+							}
+						} else if ((len == 4) && !csv.isNull(i) && csv.get(i).equalsIgnoreCase("NULL")) {
+							return -1L;
+						}
+					}
+				}
+				return Math.max(0L, count);
+			} finally {
+				in.close();
+			}
+		}
+
+
+		@Override
+		long load(final Connection conn, final String table, final List<TableColumn> columns,
+				final File file, final ImportSettings settings) throws SQLException, IOException {
+			final CsvFormat fmt = settings.getCsvFormat();
+			final InputStream in = openFile(file);
+			Statement stmt = null;
+			try {
+				final String lineEnd = (endsWithCrLf(file) ? "\r\n" : "\n");
+				StringBuilder vars = new StringBuilder(100);
+				StringBuilder sets = new StringBuilder(100);
+				for (int i = 0; i < columns.size(); ++i) {
+					vars.append((i == 0) ? "@v" : ", @v").append(i);
+					// Compare the bytes, since the collation may ignore case and accents
+					sets.append((i == 0) ? "" : ", ").append(columns.get(i).getColName())
+						.append(" = IF(CAST(@v").append(i).append(" AS BINARY) = CAST(")
+						.append(mysqlLiteral(fmt.getNullToken())).append(" AS BINARY), NULL, @v")
+						.append(i).append(")");
+				}
+
+				final String sql = "LOAD DATA LOCAL INFILE 'stream' INTO TABLE " + table
+						+ " CHARACTER SET utf8mb4 FIELDS TERMINATED BY "
+						+ mysqlLiteral(String.valueOf(fmt.getDelimiter()))
+						+ " OPTIONALLY ENCLOSED BY " + mysqlLiteral(String.valueOf(fmt.getQuote()))
+						+ " ESCAPED BY '' LINES TERMINATED BY " + mysqlLiteral(lineEnd)
+						+ (settings.hasHeader() ? " IGNORE 1 LINES" : "")
+						+ " (" + vars + ") SET " + sets;
+
+				stmt = conn.createStatement();
+				final Object target = setStream(stmt, in);
+				final long rows = ((Statement) target).executeUpdate(sql);
+
+				// LOAD DATA LOCAL acts as if IGNORE was given: rows with a
+				// duplicate key are skipped, and bad values are changed, with
+				// only a warning.  Fail instead, so the inserts find the line.
+				final long warnings = countWarnings(stmt);
+				if (warnings > 0L) {
+					throw new SQLException("The load gave " + warnings
+							+ " warnings (duplicate keys or invalid values)");
+				}
+
+				if (rows != records) {
+					throw new SQLException("Only " + rows + " of the " + records
+							+ " records in the file were loaded");
+				}
+
+				return rows;
+			} finally {
+				if (stmt != null) {
+					try {
+						stmt.close();
+					} catch (SQLException e) {
+						Logger.error(e);
+					}
+				}
+				in.close();
+			}
+		}
+
+
+		/**
+		 * Return a MySQL string literal, where a backslash is an escape.
+		 *
+		 * @param value the text
+		 * @return the quoted text
+		 */
+		private static String mysqlLiteral(final String value) {
+			return "'" + value.replace("\\", "\\\\").replace("'", "''") + "'";
+		}
+
+
+		/**
+		 * Give the statement the stream to read for LOAD DATA LOCAL.
+		 *
+		 * @param stmt the statement
+		 * @param in the input stream
+		 * @return the unwrapped statement to run the command on
+		 * @throws SQLException the driver has no way to take a stream
+		 */
+		private static Object setStream(final Statement stmt, final InputStream in)
+				throws SQLException {
+			final ClassLoader loader = stmt.getClass().getClassLoader();
+			for (String className : STATEMENT_CLASSES) {
+				final Class<?> cls;
+				try {
+					cls = Class.forName(className, true, loader);
+				} catch (ClassNotFoundException e) {
+					continue;
+				}
+
+				if (stmt.isWrapperFor(cls)) {
+					final Object target = stmt.unwrap(cls);
+					invoke(target, className, "setLocalInfileInputStream",
+							new Class<?>[] {InputStream.class}, in);
+					return target;
+				}
+			}
+
+			throw new SQLException("The driver cannot stream a file to LOAD DATA LOCAL");
+		}
+
+
+		/**
+		 * Return the number of warnings from the last statement.
+		 *
+		 * @param stmt the statement
+		 * @return the number of warnings
+		 * @throws SQLException a database exception
+		 */
+		private static long countWarnings(final Statement stmt) throws SQLException {
+			final ResultSet rs = stmt.executeQuery("SHOW COUNT(*) WARNINGS");
+			try {
+				return (rs.next() ? rs.getLong(1) : 0L);
+			} finally {
+				rs.close();
+			}
+		}
+
+
+		/**
+		 * Return whether the first line of the file ends with CRLF.
+		 *
+		 * @param file the file
+		 * @return whether the file uses CRLF line endings
+		 * @throws IOException an input exception
+		 */
+		private static boolean endsWithCrLf(final File file) throws IOException {
+			final InputStream in = new BufferedInputStream(openFile(file));
+			try {
+				int last = -1;
+				int ch;
+				while ((ch = in.read()) >= 0) {
+					if (ch == '\n') {
+						return (last == '\r');
+					}
+					last = ch;
+				}
+				return false;
+			} finally {
+				in.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package io.miti.dbconn.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Supply the bytes of a file to the CSV reader as a series of buffers.
+ * Each new buffer starts with the unread bytes at the end of the last
+ * one, so a record is always in a single buffer.  A file (or a range
+ * of it) is memory-mapped a window at a time, so its bytes are never
+ * copied; any other stream is read into a heap buffer.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+abstract class ByteSource
+{
+	/** The size of the buffer for a stream. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+
+	/**
+	 * Default constructor.
+	 */
+	ByteSource() {
+		super();
+	}
+
+
+	/**
+	 * Return the next buffer, starting with the bytes of the current
+	 * buffer from the given position to its limit.  The buffer may
+	 * be reused, so positions in the current buffer are not valid
+	 * after this is called, unless it returns null.
+	 *
+	 * @param current the current buffer, or null for the first one
+	 * @param keep the position of the first byte to keep
+	 * @return the next buffer, or null if there are no more bytes
+	 * @throws IOException an input exception
+	 */
+	abstract ByteBuffer next(ByteBuffer current, int keep) throws IOException;
+
+
+	/**
+	 * Return a source that maps a range of a file.  Several sources
+	 * can share a channel.
+	 *
+	 * @param channel the file channel
+	 * @param start the offset of the first byte
+	 * @param end the offset after the last byte
+	 * @return the byte source
+	 */
+	static ByteSource fromChannel(final FileChannel channel, final long start, final long end) {
+		return new MappedSource(channel, start, end);
+	}
+
+
+	/**
+	 * Return a source that reads a stream.
+	 *
+	 * @param in the input stream
+	 * @return the byte source
+	 */
+	static ByteSource fromStream(final InputStream in) {
+		return new StreamSource(in);
+	}
+
+
+	/**
+	 * Map a range of a file, a window at a time.
+	 */
+	private static final class MappedSource extends ByteSource
+	{
+		/** The file channel. */
+		private final FileChannel channel;
+
+		/** The offset after the last byte. */
+		private final long end;
+
+		/** The offset of the current buffer in the file. */
+		private long base;
+
+
+		/**
+		 * Constructor.
+		 *
+		 * @param channel the file channel
+		 * @param start the offset of the first byte
+		 * @param end the offset after the last byte
+		 */
+		MappedSource(final FileChannel channel, final long start, final long end) {
+			super();
+			this.channel = channel;
+			this.base = start;
+			this.end = end;
+		}
+
+
+		@Override
+		ByteBuffer next(final ByteBuffer current, final int keep) throws IOException {
+			long start = base;
+			long kept = 0L;
+			if (current != null) {
+				if ((base + current.limit()) >= end) {
+					return null;
+				}
+				start = base + keep;
+				kept = current.limit() - keep;
+			}
+
+			// Grow the window when a record fills it
+			final long size = Math.min(end - start,
+					Math.min(Integer.MAX_VALUE, Math.max(CsvSplitter.WINDOW_SIZE, kept * 2L)));
+			if (size <= 0L) {
+				return null;
+			}
+
+			base = start;
+			return channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		}
+	}
+
+
+	/**
+	 * Read a stream into a heap buffer.
+	 */
+	private static final class StreamSource extends ByteSource
+	{
+		/** The input stream. */
+		private final InputStream in;
+
+		/** The buffer. */
+		private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		/** Whether the end of the stream was reached. */
+		private boolean eof = false;
+
+
+		/**
+		 * Constructor.
+		 *
+		 * @param in the input stream
+		 */
+		StreamSource(final InputStream in) {
+			super();
+			this.in = in;
+		}
+
+
+		@Override
+		ByteBuffer next(final ByteBuffer current, final int keep) throws IOException {
+			if (eof) {
+				return null;
+			}
+
+			int kept = 0;
+			if (current != null) {
+				kept = current.limit() - keep;
+				if (kept == buffer.capacity()) {
+					// Grow the buffer when a record fills it
+					final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+					System.arraycopy(buffer.array(), keep, larger.array(), 0, kept);
+					buffer = larger;
+				} else if (keep > 0) {
+					System.arraycopy(buffer.array(), keep, buffer.array(), 0, kept);
+				}
+			}
+
+			final byte[] array = buffer.array();
+			int count;
+			do {
+				count = in.read(array, kept, array.length - kept);
+			} while (count == 0);
+
+			if (count < 0) {
+				eof = true;
+				count = 0;
+			}
+
+			buffer.clear();
+			buffer.limit(kept + count);
+			return buffer;
+		}
+	}
+}
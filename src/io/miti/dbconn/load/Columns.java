@@ -0,0 +1,76 @@
+package io.miti.dbconn.load;
+
+import java.util.List;
+
+import io.miti.dbconn.util.TableColumn;
+
+/**
+ * Helpers for the lists of table columns used by the imports and copies.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class Columns
+{
+	/**
+	 * Default constructor.
+	 */
+	private Columns() {
+		super();
+	}
+
+
+	/**
+	 * Find a column by name, ignoring case.
+	 *
+	 * @param tableColumns the columns in the table
+	 * @param name the column name
+	 * @return the column, or null if it is not found
+	 */
+	static TableColumn find(final List<TableColumn> tableColumns, final String name) {
+		for (TableColumn column : tableColumns) {
+			if (column.getColName().equalsIgnoreCase(name)) {
+				return column;
+			}
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Return the column names, separated by commas.
+	 *
+	 * @param columns the columns
+	 * @return the column names
+	 */
+	static String join(final List<TableColumn> columns) {
+		StringBuilder sb = new StringBuilder(100);
+		for (TableColumn column : columns) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(column.getColName());
+		}
+		return sb.toString();
+	}
+
+
+	/**
+	 * Return the statement to insert a row into the columns.
+	 *
+	 * @param table the table name
+	 * @param columns the columns
+	 * @return the insert statement, with a parameter for each column
+	 */
+	static String buildInsert(final String table, final List<TableColumn> columns) {
+		StringBuilder sb = new StringBuilder(100);
+		sb.append("insert into ").append(table).append(" (").append(join(columns))
+			.append(") values (");
+		for (int i = 0; i < columns.size(); ++i) {
+			sb.append((i == 0) ? "?" : ", ?");
+		}
+		sb.append(")");
+		return sb.toString();
+	}
+}
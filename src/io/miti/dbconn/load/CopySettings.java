@@ -0,0 +1,192 @@
+package io.miti.dbconn.load;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.miti.dbconn.util.CommandOptions;
+
+/**
+ * The settings for a single copy command.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class CopySettings
+{
+	/** The options supported by the copy command, with their help text. */
+	private static final String[][] OPTIONS = new String[][] {
+		{"batch-size", "--batch-size <n>", "Rows sent to the target per batch (default: 1000)"},
+		{"commit-every", "--commit-every <n>", "Rows per transaction (default: 10000; 0 to commit once at the end)"},
+		{"buffer", "--buffer <n>", "Batches held between the reader and the writer (default: 8)"},
+		{"create", "--create", "Create the target table if it does not exist"},
+		{"from-user", "--from-user <name>", "User name for the source database (default: prompt)"},
+		{"from-password", "--from-password <pw>", "Password for the source database (default: prompt)"},
+		{"to-user", "--to-user <name>", "User name for the target database (default: prompt)"},
+		{"to-password", "--to-password <pw>", "Password for the target database (default: prompt)"}};
+
+	/** The option names supported by the copy command. */
+	public static final String[] OPTION_NAMES;
+
+	/** The options of the copy command that take no value. */
+	public static final String[] FLAG_NAMES = CommandOptions.getFlagNames(OPTIONS);
+
+	static {
+		OPTION_NAMES = new String[OPTIONS.length];
+		for (int i = 0; i < OPTIONS.length; ++i) {
+			OPTION_NAMES[i] = OPTIONS[i][0];
+		}
+	}
+
+	/** The default number of batches held between the reader and writer. */
+	public static final int DEFAULT_BUFFER = 8;
+
+	/** The number of rows per batch. */
+	private int batchSize = ImportSettings.DEFAULT_BATCH_SIZE;
+
+	/** The number of rows per transaction (0 for one transaction). */
+	private int commitRows = ImportSettings.DEFAULT_COMMIT_ROWS;
+
+	/** The number of batches held between the reader and the writer. */
+	private int buffer = DEFAULT_BUFFER;
+
+	/** Whether to create the target table if it does not exist. */
+	private boolean create = false;
+
+	/** The user name for the source database, or null to prompt. */
+	private String fromUser = null;
+
+	/** The password for the source database, or null to prompt. */
+	private String fromPassword = null;
+
+	/** The user name for the target database, or null to prompt. */
+	private String toUser = null;
+
+	/** The password for the target database, or null to prompt. */
+	private String toPassword = null;
+
+
+	/**
+	 * Default constructor.
+	 */
+	public CopySettings() {
+		super();
+	}
+
+
+	/**
+	 * Build the settings from the options entered with a command.
+	 *
+	 * @param opts the command options
+	 * @return the copy settings
+	 */
+	public static CopySettings fromOptions(final CommandOptions opts) {
+		CopySettings settings = new CopySettings();
+		settings.batchSize = Math.max(1, opts.getInt("batch-size", settings.batchSize));
+		settings.commitRows = Math.max(0, opts.getInt("commit-every", settings.commitRows));
+		settings.buffer = Math.max(1, opts.getInt("buffer", settings.buffer));
+		settings.create = opts.has("create");
+		settings.fromUser = opts.getString("from-user", null);
+		settings.fromPassword = opts.getString("from-password", null);
+		settings.toUser = opts.getString("to-user", null);
+		settings.toPassword = opts.getString("to-password", null);
+		return settings;
+	}
+
+
+	/**
+	 * Return the usage and description of each copy option.
+	 *
+	 * @return a list of the usage and description of each option
+	 */
+	public static List<List<String>> getOptionHelp() {
+		List<List<String>> help = new ArrayList<List<String>>(OPTIONS.length);
+		for (String[] option : OPTIONS) {
+			List<String> line = new ArrayList<String>(2);
+			line.add(option[1]);
+			line.add(option[2]);
+			help.add(line);
+		}
+
+		return help;
+	}
+
+
+	/**
+	 * Return the number of rows sent to the target per batch.
+	 *
+	 * @return the batch size
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+
+	/**
+	 * Return the number of rows per transaction.
+	 *
+	 * @return the rows per transaction (0 to commit once at the end)
+	 */
+	public int getCommitRows() {
+		return commitRows;
+	}
+
+
+	/**
+	 * Return the number of batches held between the reader and the writer.
+	 *
+	 * @return the number of batches
+	 */
+	public int getBuffer() {
+		return buffer;
+	}
+
+
+	/**
+	 * Return whether to create the target table if it does not exist.
+	 *
+	 * @return whether to create the table
+	 */
+	public boolean isCreate() {
+		return create;
+	}
+
+
+	/**
+	 * Return the user name for the source database.
+	 *
+	 * @return the user name, or null to prompt for it
+	 */
+	public String getFromUser() {
+		return fromUser;
+	}
+
+
+	/**
+	 * Return the password for the source database.
+	 *
+	 * @return the password, or null to prompt for it
+	 */
+	public String getFromPassword() {
+		return fromPassword;
+	}
+
+
+	/**
+	 * Return the user name for the target database.
+	 *
+	 * @return the user name, or null to prompt for it
+	 */
+	public String getToUser() {
+		return toUser;
+	}
+
+
+	/**
+	 * Return the password for the target database.
+	 *
+	 * @return the password, or null to prompt for it
+	 */
+	public String getToPassword() {
+		return toPassword;
+	}
+}
@@ -0,0 +1,649 @@
+package io.miti.dbconn.load;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import io.miti.dbconn.export.CsvFormat;
+
+/**
+ * Read the records of a UTF-8 CSV file (following RFC 4180) one at a
+ * time, from a series of buffers, so memory use does not depend on the
+ * size of the file.  Quoted fields can hold delimiters, doubled quotes
+ * and line breaks, and lines can end with CRLF, LF or CR.  An unquoted
+ * field that matches the null token is read as a null, and blank lines
+ * are skipped.
+ * <p>
+ * A record is only split into the offsets of its fields; the bytes of
+ * a field are not copied or decoded until it is asked for, and numbers
+ * are parsed straight from the bytes.  Since the delimiter and quote
+ * are ASCII, they never occur inside a multi-byte UTF-8 character, so
+ * the file can be split without decoding it.  An instance is not
+ * thread-safe.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class CsvReader
+{
+	/** The character set of the file. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The result of a scan that reached the end of the buffer. */
+	private static final int NEED_MORE = 0;
+
+	/** The result of a scan that read a record. */
+	private static final int RECORD = 1;
+
+	/** The result of a scan at the end of the file. */
+	private static final int END = 2;
+
+	/** The flag for a quoted field. */
+	private static final byte QUOTED = 1;
+
+	/** The flag for a quoted field with doubled quotes. */
+	private static final byte ESCAPED = 2;
+
+	/** The flag for a null field. */
+	private static final byte NULL = 4;
+
+	/** The powers of ten that are exact as doubles. */
+	private static final double[] POW10 = new double[23];
+
+	static {
+		POW10[0] = 1.0;
+		for (int i = 1; i < POW10.length; ++i) {
+			POW10[i] = POW10[i - 1] * 10.0;
+		}
+	}
+
+	/** The largest mantissa that is exact as a double. */
+	private static final long MAX_EXACT = 1L << 53;
+
+	/** The supplier of the bytes. */
+	private final ByteSource source;
+
+	/** The field delimiter. */
+	private final byte delimiter;
+
+	/** The quote character. */
+	private final byte quote;
+
+	/** The text read as a null value, as UTF-8. */
+	private final byte[] nullToken;
+
+	/** The current buffer, or null before the first. */
+	private ByteBuffer buf = null;
+
+	/** The position of the next record in the buffer. */
+	private int pos = 0;
+
+	/** The limit of the buffer. */
+	private int limit = 0;
+
+	/** Whether the source has no more buffers. */
+	private boolean exhausted = false;
+
+	/** The number of fields in the current record. */
+	private int numFields = 0;
+
+	/** The start of each field in the buffer. */
+	private int[] starts = new int[20];
+
+	/** The end of each field in the buffer. */
+	private int[] ends = new int[20];
+
+	/** The flags for each field. */
+	private byte[] flags = new byte[20];
+
+	/** Holds the bytes of a field being decoded. */
+	private byte[] scratch = new byte[256];
+
+	/** The number of lines read. */
+	private long lineCount = 0L;
+
+	/** The line the current record starts on. */
+	private long recordLine = 0L;
+
+	/** Whether the last line read was blank. */
+	private boolean blankLine = false;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param source the supplier of the bytes
+	 * @param format the CSV format
+	 */
+	CsvReader(final ByteSource source, final CsvFormat format) {
+		super();
+		this.source = source;
+		delimiter = (byte) format.getDelimiter();
+		quote = (byte) format.getQuote();
+		try {
+			nullToken = format.getNullToken().getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+
+
+	/**
+	 * Set the line number of the first line, when reading part of a file.
+	 *
+	 * @param firstLine the line number of the first line (starting at 1)
+	 */
+	void setFirstLine(final long firstLine) {
+		lineCount = firstLine - 1L;
+	}
+
+
+	/**
+	 * Read the next record.
+	 *
+	 * @return whether a record was read (false at the end of the file)
+	 * @throws IOException an input exception, or a malformed record
+	 */
+	boolean next() throws IOException {
+		while (true) {
+			final int result = scanRecord();
+			if (result == END) {
+				return false;
+			} else if ((result == RECORD) && !blankLine) {
+				return true;
+			} else if (result == NEED_MORE) {
+				// Get more bytes, and scan the record again
+				final ByteBuffer more = (exhausted ? null : source.next(buf, pos));
+				if (more == null) {
+					exhausted = true;
+				} else {
+					buf = more;
+					pos = 0;
+					limit = buf.limit();
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Find the fields of the next line, which may be blank.  If the
+	 * line does not end in the buffer, nothing is changed, so it can
+	 * be scanned again once there are more bytes.
+	 *
+	 * @return RECORD, END, or NEED_MORE if the buffer ends first
+	 * @throws IOException a malformed record
+	 */
+	private int scanRecord() throws IOException {
+		int p = pos;
+		if (p >= limit) {
+			return (exhausted ? END : NEED_MORE);
+		}
+
+		final ByteBuffer b = buf;
+		long lines = 0L;
+		int count = 0;
+		while (true) {
+			int start = p;
+			int end;
+			byte flag = 0;
+			if ((p < limit) && (b.get(p) == quote)) {
+				flag = QUOTED;
+				start = ++p;
+				while (true) {
+					if (p >= limit) {
+						if (exhausted) {
+							throw new IOException("The quoted field on line "
+									+ (lineCount + 1L) + " is not closed");
+						}
+						return NEED_MORE;
+					}
+
+					final byte ch = b.get(p);
+					if (ch == quote) {
+						if ((p + 1 >= limit) && !exhausted) {
+							return NEED_MORE;
+						} else if ((p + 1 < limit) && (b.get(p + 1) == quote)) {
+							flag |= ESCAPED;
+							p += 2;
+							continue;
+						}
+						break;
+					} else if (ch == '\n') {
+						++lines;
+					} else if (ch == '\r') {
+						if ((p + 1 >= limit) && !exhausted) {
+							return NEED_MORE;
+						} else if ((p + 1 >= limit) || (b.get(p + 1) != '\n')) {
+							++lines;
+						}
+					}
+					++p;
+				}
+
+				end = p++;
+				if (p < limit) {
+					final byte ch = b.get(p);
+					if ((ch != delimiter) && (ch != '\n') && (ch != '\r')) {
+						throw new IOException("Unexpected text after a quoted field on line "
+								+ (lineCount + lines + 1L));
+					}
+				}
+			} else {
+				while (p < limit) {
+					final byte ch = b.get(p);
+					if ((ch == delimiter) || (ch == '\n') || (ch == '\r')) {
+						break;
+					}
+					++p;
+				}
+
+				if ((p >= limit) && !exhausted) {
+					return NEED_MORE;
+				}
+				end = p;
+				if (isNullToken(start, end)) {
+					flag = NULL;
+				}
+			}
+
+			addField(count++, start, end, flag);
+			if ((p < limit) && (b.get(p) == delimiter)) {
+				if ((++p >= limit) && !exhausted) {
+					return NEED_MORE;
+				}
+				continue;
+			}
+
+			// The end of the line, or of the file
+			if (p < limit) {
+				if (b.get(p) == '\r') {
+					if ((p + 1 >= limit) && !exhausted) {
+						return NEED_MORE;
+					}
+					++p;
+					if ((p < limit) && (b.get(p) == '\n')) {
+						++p;
+					}
+				} else {
+					++p;
+				}
+				++lines;
+			}
+
+			recordLine = lineCount + 1L;
+			lineCount += lines;
+			numFields = count;
+			pos = p;
+			blankLine = ((count == 1) && ((flag & QUOTED) == 0) && (end == start));
+			return RECORD;
+		}
+	}
+
+
+	/**
+	 * Return whether the bytes of an unquoted field match the null token.
+	 *
+	 * @param start the start of the field
+	 * @param end the end of the field
+	 * @return whether the field is the null token
+	 */
+	private boolean isNullToken(final int start, final int end) {
+		if ((end - start) != nullToken.length) {
+			return false;
+		}
+
+		for (int i = 0; i < nullToken.length; ++i) {
+			if (buf.get(start + i) != nullToken[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Save the position of a field.
+	 *
+	 * @param index the field index
+	 * @param start the start of the field
+	 * @param end the end of the field
+	 * @param flag the flags for the field
+	 */
+	private void addField(final int index, final int start, final int end, final byte flag) {
+		if (index == starts.length) {
+			final int size = starts.length * 2;
+			int[] newStarts = new int[size];
+			int[] newEnds = new int[size];
+			byte[] newFlags = new byte[size];
+			System.arraycopy(starts, 0, newStarts, 0, index);
+			System.arraycopy(ends, 0, newEnds, 0, index);
+			System.arraycopy(flags, 0, newFlags, 0, index);
+			starts = newStarts;
+			ends = newEnds;
+			flags = newFlags;
+		}
+
+		starts[index] = start;
+		ends[index] = end;
+		flags[index] = flag;
+	}
+
+
+	/**
+	 * Return the number of fields in the current record.
+	 *
+	 * @return the number of fields
+	 */
+	int size() {
+		return numFields;
+	}
+
+
+	/**
+	 * Return whether a field of the current record is null.
+	 *
+	 * @param index the field index (starting at 0)
+	 * @return whether the field is null
+	 */
+	boolean isNull(final int index) {
+		return ((flags[index] & NULL) != 0);
+	}
+
+
+	/**
+	 * Return whether a field of the current record is quoted.
+	 *
+	 * @param index the field index (starting at 0)
+	 * @return whether the field is quoted
+	 */
+	boolean isQuoted(final int index) {
+		return ((flags[index] & QUOTED) != 0);
+	}
+
+
+	/**
+	 * Return the number of bytes in a field of the current record,
+	 * counting both quotes of each doubled pair.
+	 *
+	 * @param index the field index (starting at 0)
+	 * @return the length of the field in the file
+	 */
+	int getByteLength(final int index) {
+		return (ends[index] - starts[index]);
+	}
+
+
+	/**
+	 * Return a field of the current record, decoded from UTF-8.
+	 *
+	 * @param index the field index (starting at 0)
+	 * @return the field value, or null for a null value
+	 */
+	String get(final int index) {
+		final byte flag = flags[index];
+		if ((flag & NULL) != 0) {
+			return null;
+		}
+
+		final int start = starts[index];
+		final int len = ends[index] - start;
+		if (((flag & ESCAPED) == 0) && buf.hasArray()) {
+			return new String(buf.array(), buf.arrayOffset() + start, len, UTF8);
+		}
+
+		if (scratch.length < len) {
+			scratch = new byte[Math.max(len, scratch.length * 2)];
+		}
+
+		// Copy the bytes, without the second quote of each pair
+		int n = 0;
+		for (int i = start; i < start + len; ++i) {
+			final byte b = buf.get(i);
+			scratch[n++] = b;
+			if ((b == quote) && ((flag & ESCAPED) != 0)) {
+				++i;
+			}
+		}
+
+		return new String(scratch, 0, n, UTF8);
+	}
+
+
+	/**
+	 * Parse a field of the current record as a long, ignoring any
+	 * spaces around it.
+	 *
+	 * @param index the field index (starting at 0)
+	 * @return the value
+	 * @throws NumberFormatException the field is not a valid long
+	 */
+	long getLong(final int index) {
+		int p = trimStart(index);
+		final int end = trimEnd(index, p);
+		if (p == end) {
+			throw new NumberFormatException(get(index));
+		}
+
+		boolean negative = false;
+		final byte sign = buf.get(p);
+		if ((sign == '-') || (sign == '+')) {
+			negative = (sign == '-');
+			if (++p == end) {
+				throw new NumberFormatException(get(index));
+			}
+		}
+
+		// Accumulate as a negative number, like Long.parseLong
+		final long min = (negative ? Long.MIN_VALUE : -Long.MAX_VALUE);
+		final long multMin = min / 10L;
+		long value = 0L;
+		for (; p < end; ++p) {
+			final int digit = buf.get(p) - '0';
+			if ((digit < 0) || (digit > 9) || (value < multMin)) {
+				throw new NumberFormatException(get(index));
+			}
+			value *= 10L;
+			if (value < (min + digit)) {
+				throw new NumberFormatException(get(index));
+			}
+			value -= digit;
+		}
+
+		return (negative ? value : -value);
+	}
+
+
+	/**
+	 * Parse a field of the current record as an int, ignoring any
+	 * spaces around it.
+	 *
+	 * @param index the field index (starting at 0)
+	 * @return the value
+	 * @throws NumberFormatException the field is not a valid int
+	 */
+	int getInt(final int index) {
+		final long value = getLong(index);
+		if ((value < Integer.MIN_VALUE) || (value > Integer.MAX_VALUE)) {
+			throw new NumberFormatException(get(index));
+		}
+		return (int) value;
+	}
+
+
+	/**
+	 * Parse a field of the current record as a double, ignoring any
+	 * spaces around it.  A number with up to 15 digits and a small
+	 * exponent is converted exactly from the bytes; anything else
+	 * (including NaN and Infinity) goes through Double.parseDouble.
+	 *
+	 * @param index the field index (starting at 0)
+	 * @return the value
+	 * @throws NumberFormatException the field is not a valid double
+	 */
+	double getDouble(final int index) {
+		final long[] parts = parseDecimal(index);
+		if ((parts != null) && (parts[0] <= MAX_EXACT) && (parts[1] <= 15L)) {
+			final int scale = (int) parts[2];
+			if ((scale >= -22) && (scale <= 22)) {
+				// Both values are exact, so the result is correctly rounded
+				final double value = ((scale >= 0) ? (parts[0] / POW10[scale])
+						: (parts[0] * POW10[-scale]));
+				return ((parts[3] != 0L) ? -value : value);
+			}
+		}
+
+		final String value = get(index);
+		if (value == null) {
+			throw new NumberFormatException("null");
+		}
+		return Double.parseDouble(value.trim());
+	}
+
+
+	/**
+	 * Parse a field of the current record as a BigDecimal, ignoring any
+	 * spaces around it.  A number with up to 18 digits is built from
+	 * its unscaled value, without decoding the field.
+	 *
+	 * @param index the field index (starting at 0)
+	 * @return the value
+	 * @throws NumberFormatException the field is not a valid number
+	 */
+	BigDecimal getBigDecimal(final int index) {
+		final long[] parts = parseDecimal(index);
+		if ((parts != null) && (parts[1] <= 18L)) {
+			return BigDecimal.valueOf((parts[3] != 0L) ? -parts[0] : parts[0], (int) parts[2]);
+		}
+
+		final String value = get(index);
+		if (value == null) {
+			throw new NumberFormatException("null");
+		}
+		return new BigDecimal(value.trim());
+	}
+
+
+	/**
+	 * Split a decimal number (digits, with an optional sign, decimal
+	 * point and exponent) into its parts, if it has at most 18 digits.
+	 *
+	 * @param index the field index (starting at 0)
+	 * @return the unscaled value, the number of digits, the scale and
+	 *         1 if it is negative; or null if the field is not a
+	 *         decimal number or has too many digits
+	 */
+	private long[] parseDecimal(final int index) {
+		int p = trimStart(index);
+		final int end = trimEnd(index, p);
+		if (p == end) {
+			return null;
+		}
+
+		long negative = 0L;
+		final byte sign = buf.get(p);
+		if ((sign == '-') || (sign == '+')) {
+			negative = ((sign == '-') ? 1L : 0L);
+			++p;
+		}
+
+		long unscaled = 0L;
+		int digits = 0;
+		int scale = 0;
+		boolean point = false;
+		boolean any = false;
+		for (; p < end; ++p) {
+			final byte b = buf.get(p);
+			if ((b >= '0') && (b <= '9')) {
+				any = true;
+				if ((unscaled != 0L) || (b != '0')) {
+					if (++digits > 18) {
+						return null;
+					}
+				}
+				unscaled = (unscaled * 10L) + (b - '0');
+				if (point) {
+					++scale;
+				}
+			} else if ((b == '.') && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+
+		if (!any) {
+			return null;
+		}
+
+		if ((p < end) && ((buf.get(p) == 'e') || (buf.get(p) == 'E'))) {
+			boolean negExp = false;
+			if ((++p < end) && ((buf.get(p) == '-') || (buf.get(p) == '+'))) {
+				negExp = (buf.get(p++) == '-');
+			}
+
+			int exp = 0;
+			boolean expDigits = false;
+			for (; p < end; ++p) {
+				final int digit = buf.get(p) - '0';
+				if ((digit < 0) || (digit > 9) || (exp > 100000)) {
+					return null;
+				}
+				exp = (exp * 10) + digit;
+				expDigits = true;
+			}
+
+			if (!expDigits) {
+				return null;
+			}
+			scale += (negExp ? exp : -exp);
+		}
+
+		return ((p == end) ? new long[] {unscaled, digits, scale, negative} : null);
+	}
+
+
+	/**
+	 * Return the start of a field, after any leading spaces.
+	 *
+	 * @param index the field index
+	 * @return the position of the first character that is not a space
+	 */
+	private int trimStart(final int index) {
+		int p = starts[index];
+		final int end = ends[index];
+		while ((p < end) && ((buf.get(p) & 0xFF) <= ' ')) {
+			++p;
+		}
+		return p;
+	}
+
+
+	/**
+	 * Return the end of a field, before any trailing spaces.
+	 *
+	 * @param index the field index
+	 * @param start the trimmed start of the field
+	 * @return the position after the last character that is not a space
+	 */
+	private int trimEnd(final int index, final int start) {
+		int end = ends[index];
+		while ((end > start) && ((buf.get(end - 1) & 0xFF) <= ' ')) {
+			--end;
+		}
+		return end;
+	}
+
+
+	/**
+	 * Return the line the current record starts on.
+	 *
+	 * @return the line number (starting at 1)
+	 */
+	long getLineNumber() {
+		return recordLine;
+	}
+}
@@ -0,0 +1,351 @@
+package io.miti.dbconn.load;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import io.miti.dbconn.export.CsvFormat;
+
+/**
+ * Split a memory-mapped CSV file into byte ranges that start at the
+ * beginning of a record, so each range can be loaded on its own.
+ * <p>
+ * A line break inside a quoted field does not end a record, so a
+ * split point can't be found by looking for the next line break.
+ * The file is cut into equal chunks, each starting after a line break,
+ * and the chunks are scanned in parallel with the same rules as
+ * {@link CsvReader}: a quote only opens a quoted field at the start of
+ * a field, so a bare quote inside an unquoted field is plain text.
+ * A chunk starts either at the start of a record or inside a quoted
+ * field, so it is scanned from both states at once.  The state at the
+ * start of each chunk then follows from the one before, and each split
+ * point is the first line break after the start of a chunk that is
+ * outside quotes.  A line ends with a line feed, a carriage return, or
+ * both.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+final class CsvSplitter
+{
+	/** The most bytes mapped at a time. */
+	static final long WINDOW_SIZE = 64L * 1024L * 1024L;
+
+	/** The smallest range worth loading on its own connection. */
+	private static final long MIN_RANGE_SIZE = 1024L * 1024L;
+
+	/** The states of a scan: at the start of a field, outside quotes. */
+	private static final int FIELD_START = 0;
+
+	/** In an unquoted field. */
+	private static final int UNQUOTED = 1;
+
+	/** In a quoted field. */
+	private static final int QUOTED = 2;
+
+	/** After a quote in a quoted field (its end, or the first of two). */
+	private static final int QUOTE_SEEN = 3;
+
+
+	/**
+	 * Default constructor.  Private.
+	 */
+	private CsvSplitter() {
+		super();
+	}
+
+
+	/**
+	 * Split a file into ranges that start at the beginning of a record.
+	 * A small file, or one with long records, may give fewer ranges
+	 * than were asked for.
+	 *
+	 * @param channel the file channel
+	 * @param parts the number of ranges
+	 * @param format the CSV format, for the quote and delimiter
+	 * @param pool the threads to scan the chunks on
+	 * @return the ranges, in order
+	 * @throws IOException an input exception
+	 */
+	static List<Range> split(final FileChannel channel, final int parts,
+			final CsvFormat format, final ExecutorService pool) throws IOException {
+
+		final byte quote = (byte) format.getQuote();
+		final byte delimiter = (byte) format.getDelimiter();
+		final long size = channel.size();
+		final int numChunks = (int) Math.max(1L, Math.min(parts, size / MIN_RANGE_SIZE));
+		final long[] chunkStarts = new long[numChunks + 1];
+		for (int i = 1; i < numChunks; ++i) {
+			chunkStarts[i] = Math.max(chunkStarts[i - 1],
+					skipLine(channel, (size * i) / numChunks));
+		}
+		chunkStarts[numChunks] = size;
+
+		// Scan each chunk, from the start of a record and from inside quotes
+		final List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>(numChunks);
+		for (int i = 0; i < numChunks; ++i) {
+			final long from = chunkStarts[i];
+			final long to = chunkStarts[i + 1];
+			tasks.add(new Callable<long[]>() {
+				@Override
+				public long[] call() throws IOException {
+					return scan(channel, from, to, quote, delimiter);
+				}
+			});
+		}
+
+		final List<long[]> counts = new ArrayList<long[]>(numChunks);
+		try {
+			for (Future<long[]> future : pool.invokeAll(tasks)) {
+				counts.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while splitting the file");
+		} catch (ExecutionException e) {
+			throw new IOException("Error splitting the file: " + e.getCause().getMessage());
+		}
+
+		// Move the start of each chunk to the start of the next record
+		final List<Range> ranges = new ArrayList<Range>(numChunks);
+		long start = 0L;
+		long firstLine = 1L;
+		int state = FIELD_START;
+		long lines = 0L;
+		for (int i = 1; i <= numChunks; ++i) {
+			final long[] chunk = counts.get(i - 1);
+			state = (int) chunk[(state == QUOTED) ? 1 : 0];
+			lines += chunk[2];
+
+			long end = size;
+			long endLine = 0L;
+			if (i < numChunks) {
+				if (start >= chunkStarts[i]) {
+					// A long record already crossed this chunk
+					continue;
+				} else if (state == QUOTED) {
+					final long[] recordEnd = findRecordEnd(channel, chunkStarts[i],
+							quote, delimiter);
+					end = recordEnd[0];
+					endLine = lines + recordEnd[1] + 1L;
+				} else {
+					end = chunkStarts[i];
+					endLine = lines + 1L;
+				}
+			}
+
+			if (end > start) {
+				ranges.add(new Range(start, end, firstLine));
+				start = end;
+				firstLine = endLine;
+			}
+		}
+
+		return ranges;
+	}
+
+
+	/**
+	 * Return the state of a scan after a byte.
+	 *
+	 * @param state the state before the byte
+	 * @param b the byte
+	 * @param quote the quote character
+	 * @param delimiter the field delimiter
+	 * @return the state after the byte
+	 */
+	private static int next(final int state, final byte b, final byte quote,
+			final byte delimiter) {
+		if (b == quote) {
+			if (state == UNQUOTED) {
+				return UNQUOTED;
+			}
+			return ((state == QUOTED) ? QUOTE_SEEN : QUOTED);
+		} else if (state == QUOTED) {
+			return QUOTED;
+		} else if ((b == delimiter) || (b == '\n') || (b == '\r')) {
+			return FIELD_START;
+		}
+
+		return UNQUOTED;
+	}
+
+
+	/**
+	 * Scan part of the file, which starts after a line break, once from
+	 * the start of a record and once from inside a quoted field.
+	 *
+	 * @param channel the file channel
+	 * @param from the start of the part
+	 * @param to the end of the part
+	 * @param quote the quote character
+	 * @param delimiter the field delimiter
+	 * @return the state at the end from each of the two starting states,
+	 *         and the number of line breaks
+	 * @throws IOException an input exception
+	 */
+	private static long[] scan(final FileChannel channel, final long from,
+			final long to, final byte quote, final byte delimiter) throws IOException {
+		int fromStart = FIELD_START;
+		int fromQuoted = QUOTED;
+		long lines = 0L;
+		byte prev = 0;
+		for (long pos = from; pos < to; pos += WINDOW_SIZE) {
+			final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+					pos, Math.min(WINDOW_SIZE, to - pos));
+			final int limit = buf.limit();
+			for (int i = 0; i < limit; ++i) {
+				final byte b = buf.get(i);
+				fromStart = next(fromStart, b, quote, delimiter);
+				fromQuoted = next(fromQuoted, b, quote, delimiter);
+				if ((b == '\r') || ((b == '\n') && (prev != '\r'))) {
+					++lines;
+				}
+				prev = b;
+			}
+		}
+
+		return new long[] {fromStart, fromQuoted, lines};
+	}
+
+
+	/**
+	 * Return the position after the first line break, ignoring quotes.
+	 *
+	 * @param channel the file channel
+	 * @param from where to start looking
+	 * @return the position after the line break (or the file size if
+	 *         there is none)
+	 * @throws IOException an input exception
+	 */
+	private static long skipLine(final FileChannel channel, final long from)
+			throws IOException {
+		final long size = channel.size();
+		for (long pos = from; pos < size; pos += WINDOW_SIZE) {
+			final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+					pos, Math.min(WINDOW_SIZE, size - pos));
+			final int limit = buf.limit();
+			for (int i = 0; i < limit; ++i) {
+				final byte b = buf.get(i);
+				if ((b == '\n') || (b == '\r')) {
+					return afterLineBreak(channel, pos + i, b);
+				}
+			}
+		}
+
+		return size;
+	}
+
+
+	/**
+	 * Find the end of the first record that starts inside a quoted field.
+	 *
+	 * @param channel the file channel
+	 * @param from where to start looking, inside a quoted field
+	 * @param quote the quote character
+	 * @param delimiter the field delimiter
+	 * @return the position after the line break that ends the record (or
+	 *         the file size if there is none), and the number of line
+	 *         breaks before it
+	 * @throws IOException an input exception
+	 */
+	private static long[] findRecordEnd(final FileChannel channel, final long from,
+			final byte quote, final byte delimiter) throws IOException {
+		final long size = channel.size();
+		int state = QUOTED;
+		long lines = 0L;
+		byte prev = 0;
+		for (long pos = from; pos < size; pos += WINDOW_SIZE) {
+			final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+					pos, Math.min(WINDOW_SIZE, size - pos));
+			final int limit = buf.limit();
+			for (int i = 0; i < limit; ++i) {
+				final byte b = buf.get(i);
+				if (((b == '\n') || (b == '\r')) && (state != QUOTED)) {
+					return new long[] {afterLineBreak(channel, pos + i, b), lines};
+				} else if ((b == '\r') || ((b == '\n') && (prev != '\r'))) {
+					++lines;
+				}
+				state = next(state, b, quote, delimiter);
+				prev = b;
+			}
+		}
+
+		return new long[] {size, lines};
+	}
+
+
+	/**
+	 * Return the position after a line break, taking a carriage
+	 * return and line feed as one.
+	 *
+	 * @param channel the file channel
+	 * @param pos the position of the line break
+	 * @param b the byte at that position
+	 * @return the position after the line break
+	 * @throws IOException an input exception
+	 */
+	private static long afterLineBreak(final FileChannel channel, final long pos,
+			final byte b) throws IOException {
+		if ((b == '\r') && ((pos + 1L) < channel.size())) {
+			final ByteBuffer next = ByteBuffer.allocate(1);
+			if ((channel.read(next, pos + 1L) == 1) && (next.get(0) == '\n')) {
+				return pos + 2L;
+			}
+		}
+
+		return pos + 1L;
+	}
+
+
+	/**
+	 * A range of the file, starting at the beginning of a record.
+	 */
+	static final class Range
+	{
+		/** The offset of the first byte. */
+		private final long start;
+
+		/** The offset after the last byte. */
+		private final long end;
+
+		/** The line number of the first byte (starting at 1). */
+		private final long firstLine;
+
+
+		/**
+		 * Constructor.
+		 *
+		 * @param start the offset of the first byte
+		 * @param end the offset after the last byte
+		 * @param firstLine the line number of the first byte
+		 */
+		Range(final long start, final long end, final long firstLine) {
+			this.start = start;
+			this.end = end;
+			this.firstLine = firstLine;
+		}
+
+
+		long getStart() {
+			return start;
+		}
+
+
+		long getEnd() {
+			return end;
+		}
+
+
+		long getFirstLine() {
+			return firstLine;
+		}
+	}
+}
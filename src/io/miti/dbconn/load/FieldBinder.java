@@ -0,0 +1,288 @@
+package io.miti.dbconn.load;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+import io.miti.dbconn.util.Base64;
+import io.miti.dbconn.util.TableColumn;
+
+/**
+ * Bind a CSV field to a statement parameter with the setter that
+ * matches the type of its column.  The binder for each column is
+ * chosen once, from the table metadata, so loading a row is just a
+ * call to each column's binder.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+abstract class FieldBinder
+{
+	/** The JDBC type of the column, for binding a null. */
+	private final int sqlType;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sqlType the JDBC type of the column
+	 */
+	FieldBinder(final int sqlType) {
+		super();
+		this.sqlType = sqlType;
+	}
+
+
+	/**
+	 * Bind a field of the current record, or a null.
+	 *
+	 * @param ps the statement
+	 * @param index the parameter index (starting at 1)
+	 * @param csv the CSV records
+	 * @param field the field index (starting at 0)
+	 * @throws SQLException a database exception
+	 * @throws IllegalArgumentException the field is not a valid value
+	 */
+	final void bind(final PreparedStatement ps, final int index, final CsvReader csv,
+			final int field) throws SQLException {
+		if (csv.isNull(field)) {
+			ps.setNull(index, sqlType);
+		} else {
+			bindValue(ps, index, csv, field);
+		}
+	}
+
+
+	/**
+	 * Bind a field that is not null.
+	 *
+	 * @param ps the statement
+	 * @param index the parameter index (starting at 1)
+	 * @param csv the CSV records
+	 * @param field the field index (starting at 0)
+	 * @throws SQLException a database exception
+	 * @throws IllegalArgumentException the field is not a valid value
+	 */
+	abstract void bindValue(PreparedStatement ps, int index, CsvReader csv, int field)
+			throws SQLException;
+
+
+	/**
+	 * Return the binders for the columns, in order.
+	 *
+	 * @param columns the columns
+	 * @return the binders
+	 */
+	static FieldBinder[] forColumns(final List<TableColumn> columns) {
+		final FieldBinder[] binders = new FieldBinder[columns.size()];
+		for (int i = 0; i < binders.length; ++i) {
+			binders[i] = forColumn(columns.get(i));
+		}
+
+		return binders;
+	}
+
+
+	/**
+	 * Return the binder for a column.
+	 *
+	 * @param column the column
+	 * @return the binder
+	 */
+	static FieldBinder forColumn(final TableColumn column) {
+		final int sqlType = column.getSqlType();
+		switch (column.getColType()) {
+			case TableColumn.COL_INT:
+			case TableColumn.COL_SHORT:
+				return new IntBinder(sqlType);
+
+			case TableColumn.COL_LONG:
+				return new LongBinder(sqlType);
+
+			case TableColumn.COL_DOUBLE:
+			case TableColumn.COL_FLOAT:
+				// NUMERIC columns can hold values that don't fit in a double
+				return ((sqlType == Types.NUMERIC) ? new DecimalBinder(sqlType)
+						: new DoubleBinder(sqlType));
+
+			case TableColumn.COL_DECIMAL:
+				return new DecimalBinder(sqlType);
+
+			case TableColumn.COL_BOOLEAN:
+				return new BooleanBinder(sqlType);
+
+			case TableColumn.COL_DATE:
+				return ((sqlType == Types.DATE) ? new DateBinder(sqlType)
+						: new TimestampBinder(sqlType));
+
+			case TableColumn.COL_BLOB:
+				return new BinaryBinder(sqlType);
+
+			default:
+				if ((sqlType == Types.BINARY) || (sqlType == Types.VARBINARY)
+						|| (sqlType == Types.LONGVARBINARY)) {
+					return new BinaryBinder(sqlType);
+				}
+				return new TextBinder(sqlType);
+		}
+	}
+
+
+	/** Bind an integer column. */
+	private static final class IntBinder extends FieldBinder
+	{
+		IntBinder(final int sqlType) {
+			super(sqlType);
+		}
+
+		@Override
+		void bindValue(final PreparedStatement ps, final int index, final CsvReader csv,
+				final int field) throws SQLException {
+			ps.setInt(index, csv.getInt(field));
+		}
+	}
+
+
+	/** Bind a long integer column. */
+	private static final class LongBinder extends FieldBinder
+	{
+		LongBinder(final int sqlType) {
+			super(sqlType);
+		}
+
+		@Override
+		void bindValue(final PreparedStatement ps, final int index, final CsvReader csv,
+				final int field) throws SQLException {
+			ps.setLong(index, csv.getLong(field));
+		}
+	}
+
+
+	/** Bind a floating point column. */
+	private static final class DoubleBinder extends FieldBinder
+	{
+		DoubleBinder(final int sqlType) {
+			super(sqlType);
+		}
+
+		@Override
+		void bindValue(final PreparedStatement ps, final int index, final CsvReader csv,
+				final int field) throws SQLException {
+			ps.setDouble(index, csv.getDouble(field));
+		}
+	}
+
+
+	/** Bind a fixed-point decimal column. */
+	private static final class DecimalBinder extends FieldBinder
+	{
+		DecimalBinder(final int sqlType) {
+			super(sqlType);
+		}
+
+		@Override
+		void bindValue(final PreparedStatement ps, final int index, final CsvReader csv,
+				final int field) throws SQLException {
+			ps.setBigDecimal(index, csv.getBigDecimal(field));
+		}
+	}
+
+
+	/** Bind a boolean column: true, t, yes, y or 1, or false, f, no, n or 0. */
+	private static final class BooleanBinder extends FieldBinder
+	{
+		BooleanBinder(final int sqlType) {
+			super(sqlType);
+		}
+
+		@Override
+		void bindValue(final PreparedStatement ps, final int index, final CsvReader csv,
+				final int field) throws SQLException {
+			final String value = csv.get(field).trim();
+			if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("t")
+					|| value.equalsIgnoreCase("yes") || value.equalsIgnoreCase("y")
+					|| value.equals("1")) {
+				ps.setBoolean(index, true);
+			} else if (value.equalsIgnoreCase("false") || value.equalsIgnoreCase("f")
+					|| value.equalsIgnoreCase("no") || value.equalsIgnoreCase("n")
+					|| value.equals("0")) {
+				ps.setBoolean(index, false);
+			} else {
+				throw new IllegalArgumentException(value);
+			}
+		}
+	}
+
+
+	/** Bind a date column (yyyy-MM-dd). */
+	private static final class DateBinder extends FieldBinder
+	{
+		DateBinder(final int sqlType) {
+			super(sqlType);
+		}
+
+		@Override
+		void bindValue(final PreparedStatement ps, final int index, final CsvReader csv,
+				final int field) throws SQLException {
+			ps.setDate(index, Date.valueOf(csv.get(field).trim()));
+		}
+	}
+
+
+	/**
+	 * Bind a timestamp column, as yyyy-MM-dd HH:mm:ss[.fffffffff],
+	 * or a date (yyyy-MM-dd) at midnight.
+	 */
+	private static final class TimestampBinder extends FieldBinder
+	{
+		TimestampBinder(final int sqlType) {
+			super(sqlType);
+		}
+
+		@Override
+		void bindValue(final PreparedStatement ps, final int index, final CsvReader csv,
+				final int field) throws SQLException {
+			final String value = csv.get(field).trim();
+			ps.setTimestamp(index, Timestamp.valueOf((value.length() == 10)
+					? (value + " 00:00:00") : value));
+		}
+	}
+
+
+	/** Bind a binary column, from Base64 as written by the exports. */
+	private static final class BinaryBinder extends FieldBinder
+	{
+		BinaryBinder(final int sqlType) {
+			super(sqlType);
+		}
+
+		@Override
+		void bindValue(final PreparedStatement ps, final int index, final CsvReader csv,
+				final int field) throws SQLException {
+			try {
+				ps.setBytes(index, Base64.decode(csv.get(field)));
+			} catch (IOException e) {
+				throw new IllegalArgumentException(e.getMessage());
+			}
+		}
+	}
+
+
+	/** Bind a text column. */
+	private static final class TextBinder extends FieldBinder
+	{
+		TextBinder(final int sqlType) {
+			super(sqlType);
+		}
+
+		@Override
+		void bindValue(final PreparedStatement ps, final int index, final CsvReader csv,
+				final int field) throws SQLException {
+			ps.setString(index, csv.get(field));
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package io.miti.dbconn.load;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.miti.dbconn.export.CsvFormat;
+import io.miti.dbconn.util.CommandOptions;
+
+/**
+ * The settings for a single import command.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class ImportSettings
+{
+	/** The options supported by the import command, with their help text. */
+	private static final String[][] OPTIONS = new String[][] {
+		{"batch-size", "--batch-size <n>", "Rows sent to the database per batch (default: 1000)"},
+		{"commit-every", "--commit-every <n>", "Rows per transaction (default: 10000; 0 to commit once at the end)"},
+		{"parallel", "--parallel <n>", "Split the file into n ranges, each loaded on its own connection"},
+		{"no-bulk", "--no-bulk", "Use batched inserts, even if the driver has a bulk load API"},
+		{"columns", "--columns \"<a,b,c>\"", "The table columns for the CSV fields, in order (default: the header names, or all in table order with --no-header)"},
+		{"no-header", "--no-header", "The file has no header line; load the fields by position"},
+		{"delimiter", "--delimiter <char>", "CSV field delimiter, or 'tab' (default: ,)"},
+		{"quote", "--quote <char>", "CSV quote character (default: \")"},
+		{"null", "--null <text>", "Unquoted text read as a null value (default: null)"}};
+
+	/** The option names supported by the import command. */
+	public static final String[] OPTION_NAMES;
+
+	/** The options of the import command that take no value. */
+	public static final String[] FLAG_NAMES = CommandOptions.getFlagNames(OPTIONS);
+
+	static {
+		OPTION_NAMES = new String[OPTIONS.length];
+		for (int i = 0; i < OPTIONS.length; ++i) {
+			OPTION_NAMES[i] = OPTIONS[i][0];
+		}
+	}
+
+	/** The default number of rows per batch. */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	/** The default number of rows per transaction. */
+	public static final int DEFAULT_COMMIT_ROWS = 10000;
+
+	/** The number of rows per batch. */
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	/** The number of rows per transaction (0 for one transaction). */
+	private int commitRows = DEFAULT_COMMIT_ROWS;
+
+	/** The number of connections to load over. */
+	private int parallel = 1;
+
+	/** Whether to use the driver's bulk load API, if it has one. */
+	private boolean bulk = true;
+
+	/** The table columns for the CSV fields, or null for all of them. */
+	private List<String> columns = null;
+
+	/** Whether the file starts with a header line. */
+	private boolean header = true;
+
+	/** The format of the CSV file. */
+	private CsvFormat csvFormat = new CsvFormat();
+
+
+	/**
+	 * Default constructor.
+	 */
+	public ImportSettings() {
+		super();
+	}
+
+
+	/**
+	 * Build the settings from the options entered with a command.
+	 * An error message is printed if an option is invalid.
+	 *
+	 * @param opts the command options
+	 * @return the import settings, or null if an option is invalid
+	 */
+	public static ImportSettings fromOptions(final CommandOptions opts) {
+		ImportSettings settings = new ImportSettings();
+		settings.batchSize = Math.max(1, opts.getInt("batch-size", settings.batchSize));
+		settings.commitRows = Math.max(0, opts.getInt("commit-every", settings.commitRows));
+		settings.parallel = Math.max(1, opts.getInt("parallel", settings.parallel));
+		settings.bulk = !opts.has("no-bulk");
+		settings.header = !opts.has("no-header");
+
+		final String names = opts.getString("columns", null);
+		if (names != null) {
+			settings.columns = new ArrayList<String>(10);
+			for (String name : names.split(",")) {
+				if (!name.trim().isEmpty()) {
+					settings.columns.add(name.trim());
+				}
+			}
+
+			if (settings.columns.isEmpty()) {
+				System.out.println("No columns were given with --columns");
+				return null;
+			}
+		}
+
+		settings.csvFormat = CsvFormat.fromOptions(opts);
+		return ((settings.csvFormat == null) ? null : settings);
+	}
+
+
+	/**
+	 * Return the usage and description of each import option.
+	 *
+	 * @return a list of the usage and description of each option
+	 */
+	public static List<List<String>> getOptionHelp() {
+		List<List<String>> help = new ArrayList<List<String>>(OPTIONS.length);
+		for (String[] option : OPTIONS) {
+			List<String> line = new ArrayList<String>(2);
+			line.add(option[1]);
+			line.add(option[2]);
+			help.add(line);
+		}
+
+		return help;
+	}
+
+
+	/**
+	 * Return the number of rows sent to the database per batch.
+	 *
+	 * @return the batch size
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+
+	/**
+	 * Return the number of rows per transaction.
+	 *
+	 * @return the rows per transaction (0 to commit once at the end)
+	 */
+	public int getCommitRows() {
+		return commitRows;
+	}
+
+
+	/**
+	 * Return the number of connections to load the file over.
+	 *
+	 * @return the number of connections
+	 */
+	public int getParallel() {
+		return parallel;
+	}
+
+
+	/**
+	 * Return whether to use the driver's bulk load API, if it has one.
+	 *
+	 * @return whether to use a bulk load
+	 */
+	public boolean useBulk() {
+		return bulk;
+	}
+
+
+	/**
+	 * Return the names of the table columns for the CSV fields,
+	 * in order.
+	 *
+	 * @return the column names, or null for all of the columns
+	 */
+	public List<String> getColumns() {
+		return columns;
+	}
+
+
+	/**
+	 * Return whether the file starts with a header line.
+	 *
+	 * @return whether there is a header line
+	 */
+	public boolean hasHeader() {
+		return header;
+	}
+
+
+	/**
+	 * Return the format of the CSV file.
+	 *
+	 * @return the CSV format
+	 */
+	public CsvFormat getCsvFormat() {
+		return csvFormat;
+	}
+}
@@ -0,0 +1,512 @@
+package io.miti.dbconn.load;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.miti.dbconn.util.Database;
+import io.miti.dbconn.util.Logger;
+import io.miti.dbconn.util.RowHandler;
+import io.miti.dbconn.util.TableColumn;
+import io.miti.dbconn.util.TimeSpan;
+import io.miti.dbconn.util.Utility;
+
+/**
+ * Copy the rows of a table from one database to another, without
+ * writing them to disk.  The calling thread reads the rows from a
+ * SELECT on the source, and a writer thread inserts them in batches
+ * into the target, with a bounded queue of batches between them, so
+ * both databases are busy at the same time and the copy takes about
+ * as long as the slower side.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class TableCopy
+{
+	/** The batch that marks the end of the rows. */
+	private static final Object[][] END = new Object[0][];
+
+	/** How long to wait on the queue before checking for a failure. */
+	private static final long POLL_MILLIS = 100L;
+
+	/** The table name. */
+	private final String tableName;
+
+	/** The copy settings. */
+	private final CopySettings settings;
+
+	/** The batches of rows read from the source. */
+	private final BlockingQueue<Object[][]> queue;
+
+	/** The columns of the source table. */
+	private List<TableColumn> columns = null;
+
+	/** The JDBC type of each column in the target table. */
+	private int[] targetTypes = null;
+
+	/** Whether the reader or the writer failed. */
+	private volatile boolean failed = false;
+
+	/** The number of rows committed in the target. */
+	private volatile long committedRows = 0L;
+
+	/** The time the reader waited for room in the queue, in nanoseconds. */
+	private long readerWait = 0L;
+
+	/** The time the writer waited for a batch, in nanoseconds. */
+	private volatile long writerWait = 0L;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param tableName the table name
+	 * @param settings the copy settings
+	 */
+	public TableCopy(final String tableName, final CopySettings settings) {
+		super();
+		this.tableName = tableName;
+		this.settings = settings;
+		queue = new ArrayBlockingQueue<Object[][]>(settings.getBuffer());
+	}
+
+
+	/**
+	 * Copy the table, printing the result to the console.
+	 *
+	 * @param source the connection to read from
+	 * @param target the connection to write to
+	 */
+	public void run(final Connection source, final Connection target) {
+		if (!prepare(source, target)) {
+			return;
+		}
+
+		System.out.println("Copying " + tableName + "...");
+		final long start = System.currentTimeMillis();
+		final ExecutorService pool = Executors.newSingleThreadExecutor();
+		long rows = -1L;
+		try {
+			final Future<Long> writer = pool.submit(new Callable<Long>() {
+				@Override
+				public Long call() {
+					return Long.valueOf(write(target));
+				}
+			});
+
+			final long read = read(source);
+			rows = writer.get().longValue();
+			if (read < 0L) {
+				rows = -1L;
+			}
+		} catch (InterruptedException e) {
+			Logger.error(e);
+			failed = true;
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Logger.error(e);
+			System.out.println("Error inserting the rows: " + e.getCause());
+			failed = true;
+		} finally {
+			pool.shutdownNow();
+		}
+
+		if (rows < 0L) {
+			System.out.println(Utility.formatLong(committedRows)
+					+ " rows were committed before the error");
+			return;
+		}
+
+		final long millis = System.currentTimeMillis() - start;
+		System.out.println(String.format("%s rows copied into %s in %s (%s rows/s)",
+				Utility.formatLong(rows), tableName, TimeSpan.millisToTimeSpan(millis),
+				Utility.formatLong((rows * 1000L) / Math.max(1L, millis))));
+		System.out.println(String.format("The reader waited %s for the writer, and the writer waited %s for the reader",
+				TimeSpan.millisToTimeSpan(readerWait / 1000000L),
+				TimeSpan.millisToTimeSpan(writerWait / 1000000L)));
+	}
+
+
+	/**
+	 * Look up the columns of the table in both databases, creating
+	 * the target table if needed.
+	 *
+	 * @param source the connection to read from
+	 * @param target the connection to write to
+	 * @return whether the table can be copied
+	 */
+	private boolean prepare(final Connection source, final Connection target) {
+		columns = Database.getTableColumns(source, tableName);
+		if ((columns == null) || columns.isEmpty()) {
+			System.out.println("Error getting column information for " + tableName);
+			return false;
+		}
+
+		List<TableColumn> targetColumns = Database.getTableColumns(target, tableName);
+		if (targetColumns == null) {
+			System.out.println("Error getting column information for " + tableName
+					+ " in the target database");
+			return false;
+		} else if (targetColumns.isEmpty()) {
+			if (!settings.isCreate()) {
+				System.out.println("The table " + tableName
+						+ " was not found in the target database (use --create to create it)");
+				return false;
+			} else if (!createTable(source, target)) {
+				return false;
+			}
+			targetColumns = Database.getTableColumns(target, tableName);
+		}
+
+		targetTypes = new int[columns.size()];
+		for (int i = 0; i < columns.size(); ++i) {
+			final TableColumn column = Columns.find(targetColumns, columns.get(i).getColName());
+			if (column == null) {
+				System.out.println("The column " + columns.get(i).getColName()
+						+ " is not in " + tableName + " in the target database");
+				return false;
+			}
+			targetTypes[i] = column.getSqlType();
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Create the target table, from the column metadata of the source.
+	 *
+	 * @param source the connection to read from
+	 * @param target the connection to write to
+	 * @return whether the table was created
+	 */
+	private boolean createTable(final Connection source, final Connection target) {
+		final String ddl = Database.getCreateTable(source, tableName);
+		if (ddl == null) {
+			System.out.println("Error building the table definition for " + tableName);
+			return false;
+		}
+
+		Statement stmt = null;
+		try {
+			stmt = target.createStatement();
+			stmt.executeUpdate(ddl);
+			if (!target.getAutoCommit()) {
+				target.commit();
+			}
+			System.out.println("Created " + tableName + " in the target database");
+			return true;
+		} catch (SQLException e) {
+			System.out.println("Error creating " + tableName + ": " + e.getMessage());
+			System.out.println(ddl);
+			return false;
+		} finally {
+			if (stmt != null) {
+				try {
+					stmt.close();
+				} catch (SQLException e) {
+					Logger.error(e);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Read the rows from the source into batches on the queue, and
+	 * add the end marker.  Stops early if the writer fails.
+	 *
+	 * @param source the connection to read from
+	 * @return the number of rows read, or -1 on an error
+	 */
+	private long read(final Connection source) {
+		final String sql = "select " + Columns.join(columns) + " from " + tableName;
+		final BatchReader reader = new BatchReader();
+		final long rows = Database.executeSelect(source, sql, null,
+				Database.getFetchSize(), 0, reader);
+		if ((rows < 0L) || failed) {
+			failed = true;
+			return -1L;
+		}
+
+		return ((reader.flush() && offer(END)) ? rows : -1L);
+	}
+
+
+	/**
+	 * Put a batch on the queue, waiting for room, unless the writer fails.
+	 *
+	 * @param batch the batch
+	 * @return whether the batch was queued
+	 */
+	private boolean offer(final Object[][] batch) {
+		final long start = System.nanoTime();
+		try {
+			while (!failed) {
+				if (queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failed = true;
+		} finally {
+			readerWait += System.nanoTime() - start;
+		}
+
+		return false;
+	}
+
+
+	/**
+	 * Insert the batches from the queue into the target, until the
+	 * end marker, in one or more transactions.  On an error, the
+	 * current transaction is rolled back and the reader is stopped.
+	 *
+	 * @param target the connection to write to
+	 * @return the number of rows inserted, or -1 on an error
+	 */
+	private long write(final Connection target) {
+		final int numColumns = columns.size();
+		final int commitRows = settings.getCommitRows();
+		PreparedStatement ps = null;
+		boolean autoCommit = true;
+		long rows = 0L;
+		long lastCommit = 0L;
+		boolean done = false;
+		try {
+			autoCommit = target.getAutoCommit();
+			target.setAutoCommit(false);
+			ps = target.prepareStatement(Columns.buildInsert(tableName, columns));
+
+			while (true) {
+				final long start = System.nanoTime();
+				final Object[][] batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				writerWait += System.nanoTime() - start;
+				if (failed) {
+					return -1L;
+				} else if (batch == null) {
+					continue;
+				} else if (batch == END) {
+					break;
+				}
+
+				for (Object[] row : batch) {
+					for (int i = 0; i < numColumns; ++i) {
+						if (row[i] == null) {
+							ps.setNull(i + 1, targetTypes[i]);
+						} else {
+							ps.setObject(i + 1, row[i]);
+						}
+					}
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				rows += batch.length;
+
+				if ((commitRows > 0) && ((rows - lastCommit) >= commitRows)) {
+					target.commit();
+					committedRows = rows;
+					lastCommit = rows;
+				}
+			}
+
+			target.commit();
+			committedRows = rows;
+			done = true;
+			return rows;
+		} catch (SQLException e) {
+			System.out.println("Error inserting the rows: " + e.getMessage());
+			if (e.getNextException() != null) {
+				System.out.println(e.getNextException().getMessage());
+			}
+			return -1L;
+		} catch (InterruptedException e) {
+			return -1L;
+		} finally {
+			// On any other exit (including a RuntimeException or an Error),
+			// stop the reader, which would otherwise wait for room forever
+			if (!done) {
+				failed = true;
+				rollback(target);
+			}
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (SQLException e) {
+					Logger.error(e);
+				}
+			}
+			try {
+				target.setAutoCommit(autoCommit);
+			} catch (SQLException e) {
+				Logger.error(e);
+			}
+		}
+	}
+
+
+	/**
+	 * Roll back the current transaction.
+	 *
+	 * @param conn the database connection
+	 */
+	private static void rollback(final Connection conn) {
+		try {
+			conn.rollback();
+		} catch (SQLException e) {
+			Logger.error(e);
+		}
+	}
+
+
+	/**
+	 * Read the rows of the result set into batches.  Each value is
+	 * read with the getter for the type of its column, and large
+	 * objects are read in full, so the rows don't depend on the
+	 * result set once they are queued.
+	 */
+	private final class BatchReader implements RowHandler
+	{
+		/** The current batch. */
+		private Object[][] batch;
+
+		/** The number of rows in the current batch. */
+		private int count = 0;
+
+
+		/**
+		 * Default constructor.
+		 */
+		BatchReader() {
+			batch = new Object[settings.getBatchSize()][];
+		}
+
+
+		@Override
+		public void startResults(final ResultSetMetaData metaData) {
+			// The columns are already known
+		}
+
+
+		@Override
+		public boolean processRow(final ResultSet rs) throws SQLException {
+			final int numColumns = columns.size();
+			final Object[] row = new Object[numColumns];
+			for (int i = 0; i < numColumns; ++i) {
+				row[i] = getValue(rs, i + 1, columns.get(i));
+			}
+
+			batch[count++] = row;
+			if (count == batch.length) {
+				if (!offer(batch)) {
+					return false;
+				}
+				batch = new Object[batch.length][];
+				count = 0;
+			}
+
+			return !failed;
+		}
+
+
+		/**
+		 * Queue the last, partial batch.
+		 *
+		 * @return whether the batch was queued (or was empty)
+		 */
+		boolean flush() {
+			if (count == 0) {
+				return true;
+			}
+
+			final Object[][] last = new Object[count][];
+			System.arraycopy(batch, 0, last, 0, count);
+			count = 0;
+			return offer(last);
+		}
+	}
+
+
+	/**
+	 * Read a value from the result set, with the getter for the type
+	 * of its column.
+	 *
+	 * @param rs the result set
+	 * @param index the column index (starting at 1)
+	 * @param column the column
+	 * @return the value, or null
+	 * @throws SQLException a database exception
+	 */
+	private static Object getValue(final ResultSet rs, final int index,
+			final TableColumn column) throws SQLException {
+		final int sqlType = column.getSqlType();
+		final Object value;
+		switch (column.getColType()) {
+			case TableColumn.COL_INT:
+			case TableColumn.COL_SHORT:
+				value = Integer.valueOf(rs.getInt(index));
+				break;
+
+			case TableColumn.COL_LONG:
+				value = Long.valueOf(rs.getLong(index));
+				break;
+
+			case TableColumn.COL_DOUBLE:
+			case TableColumn.COL_FLOAT:
+				if ((sqlType == Types.NUMERIC) || (sqlType == Types.DECIMAL)) {
+					value = rs.getBigDecimal(index);
+				} else {
+					value = Double.valueOf(rs.getDouble(index));
+				}
+				break;
+
+			case TableColumn.COL_DECIMAL:
+				value = rs.getBigDecimal(index);
+				break;
+
+			case TableColumn.COL_BOOLEAN:
+				value = Boolean.valueOf(rs.getBoolean(index));
+				break;
+
+			case TableColumn.COL_DATE:
+				if (sqlType == Types.DATE) {
+					value = rs.getDate(index);
+				} else if (sqlType == Types.TIME) {
+					value = rs.getTime(index);
+				} else {
+					value = rs.getTimestamp(index);
+				}
+				break;
+
+			case TableColumn.COL_BLOB:
+				value = rs.getBytes(index);
+				break;
+
+			default:
+				if ((sqlType == Types.BINARY) || (sqlType == Types.VARBINARY)
+						|| (sqlType == Types.LONGVARBINARY)) {
+					value = rs.getBytes(index);
+				} else {
+					value = rs.getString(index);
+				}
+				break;
+		}
+
+		return (rs.wasNull() ? null : value);
+	}
+}
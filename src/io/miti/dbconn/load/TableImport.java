@@ -0,0 +1,534 @@
+package io.miti.dbconn.load;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import io.miti.dbconn.util.ConnManager;
+import io.miti.dbconn.util.Database;
+import io.miti.dbconn.util.Logger;
+import io.miti.dbconn.util.TableColumn;
+import io.miti.dbconn.util.TimeSpan;
+import io.miti.dbconn.util.Utility;
+
+/**
+ * Load the rows of a CSV file into a database table.  The file is
+ * read a record at a time, each field is bound with the setter for
+ * the type of its column, and the rows are sent in batches, with a
+ * commit after every so many rows.  Files ending in .gz are read
+ * through gzip.  With --parallel, the file is memory-mapped and split
+ * into ranges that are loaded at the same time, each on its own
+ * connection.  Otherwise, if the driver has a bulk load API, it is
+ * tried first.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class TableImport
+{
+	/** The buffer size for reading the file. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** The table name. */
+	private final String tableName;
+
+	/** The import settings. */
+	private final ImportSettings settings;
+
+	/** The columns the CSV fields are loaded into, in order. */
+	private List<TableColumn> columns = null;
+
+	/** The number of rows committed. */
+	private final AtomicLong committedRows = new AtomicLong(0L);
+
+	/** Whether loading a range of the file failed. */
+	private volatile boolean failed = false;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param tableName the table name
+	 * @param settings the import settings
+	 */
+	public TableImport(final String tableName, final ImportSettings settings) {
+		super();
+		this.tableName = tableName;
+		this.settings = settings;
+	}
+
+
+	/**
+	 * Load a file into the table, printing the result to the console.
+	 *
+	 * @param fileName the name of the CSV file
+	 */
+	public void run(final String fileName) {
+		final File file = new File(fileName);
+		if (!file.isFile()) {
+			System.out.println("The file " + fileName + " was not found");
+			return;
+		} else if ((settings.getParallel() > 1) && file.getName().endsWith(".gz")) {
+			System.out.println("--parallel cannot be used with a compressed file");
+			return;
+		}
+
+		// Without --columns, the header names the columns for the fields
+		List<String> names = settings.getColumns();
+		final boolean fromHeader = ((names == null) && settings.hasHeader());
+		if (fromHeader) {
+			names = readHeader(file);
+			if (names == null) {
+				return;
+			}
+		}
+
+		if (!prepare(ConnManager.get().getConn(), names, fromHeader)) {
+			return;
+		}
+
+		final long start = System.currentTimeMillis();
+		long rows = -2L;
+		if (settings.useBulk() && (settings.getParallel() <= 1)) {
+			rows = loadBulk(file);
+		}
+
+		if (rows == -2L) {
+			rows = ((settings.getParallel() > 1) ? loadParallel(file) : loadSerial(file));
+		}
+		if (rows >= 0L) {
+			final long millis = System.currentTimeMillis() - start;
+			System.out.println(String.format("%s rows imported into %s in %s (%s rows/s)",
+					Utility.formatLong(rows), tableName, TimeSpan.millisToTimeSpan(millis),
+					Utility.formatLong((rows * 1000L) / Math.max(1L, millis))));
+		} else {
+			System.out.println(Utility.formatLong(committedRows.get())
+					+ " rows were committed before the error");
+		}
+	}
+
+
+	/**
+	 * Load the file with the bulk load API of the driver, in one
+	 * transaction.  If the bulk load fails, it is rolled back, so the
+	 * file can be loaded with inserts instead (which also finds the
+	 * line of a bad record).
+	 *
+	 * @param file the CSV file
+	 * @return the number of rows loaded, -1 on an error reading the
+	 *         file, or -2 if the file should be loaded with inserts
+	 */
+	private long loadBulk(final File file) {
+		final Connection conn = ConnManager.get().getConn();
+		final BulkLoader loader;
+		try {
+			loader = BulkLoader.forConnection(conn);
+		} catch (SQLException e) {
+			Logger.error(e);
+			return -2L;
+		}
+
+		if ((loader == null) || !loader.canLoad(file, columns, settings)) {
+			return -2L;
+		}
+
+		System.out.println("Importing " + file.getName() + " into " + tableName
+				+ " with " + loader.getName() + "...");
+		boolean autoCommit = true;
+		try {
+			autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			final long rows = loader.load(conn, tableName, columns, file, settings);
+			conn.commit();
+			committedRows.set(rows);
+			return rows;
+		} catch (SQLException e) {
+			rollback(conn);
+			System.out.println(loader.getName() + " failed: " + e.getMessage());
+			System.out.println("Loading with batched inserts instead");
+			return -2L;
+		} catch (IOException e) {
+			rollback(conn);
+			System.out.println("Error reading the file: " + e.getMessage());
+			return -1L;
+		} finally {
+			try {
+				conn.setAutoCommit(autoCommit);
+			} catch (SQLException e) {
+				Logger.error(e);
+			}
+		}
+	}
+
+
+	/**
+	 * Load the file on the current connection.
+	 *
+	 * @param file the CSV file
+	 * @return the number of rows loaded, or -1 on an error
+	 */
+	private long loadSerial(final File file) {
+		System.out.println("Importing " + file.getName() + " into " + tableName + "...");
+		final List<Closeable> inputs = new ArrayList<Closeable>(1);
+		try {
+			final CsvReader csv = new CsvReader(openSource(file, inputs), settings.getCsvFormat());
+			if (settings.hasHeader() && !csv.next()) {
+				return 0L;
+			}
+
+			return load(ConnManager.get().getConn(), csv);
+		} catch (IOException e) {
+			System.out.println("Error reading the file: " + e.getMessage());
+			return -1L;
+		} finally {
+			close(inputs);
+		}
+	}
+
+
+	/**
+	 * Open the file for reading.  The file is memory-mapped, or read
+	 * through gzip if it ends in .gz.
+	 *
+	 * @param file the file
+	 * @param inputs gets the objects to close when done
+	 * @return the source of the bytes of the file
+	 * @throws IOException an input exception
+	 */
+	private static ByteSource openSource(final File file, final List<Closeable> inputs)
+			throws IOException {
+		if (file.getName().endsWith(".gz")) {
+			final InputStream in = new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+			inputs.add(in);
+			return ByteSource.fromStream(in);
+		}
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		inputs.add(raf);
+		return ByteSource.fromChannel(raf.getChannel(), 0L, raf.length());
+	}
+
+
+	/**
+	 * Close the inputs opened for a file.
+	 *
+	 * @param inputs the objects to close
+	 */
+	private static void close(final List<Closeable> inputs) {
+		for (Closeable input : inputs) {
+			try {
+				input.close();
+			} catch (IOException e) {
+				Logger.error(e);
+			}
+		}
+	}
+
+
+	/**
+	 * Read the column names from the header line of the file.
+	 *
+	 * @param file the CSV file
+	 * @return the names, or null on an error
+	 */
+	private List<String> readHeader(final File file) {
+		final List<Closeable> inputs = new ArrayList<Closeable>(1);
+		try {
+			final CsvReader csv = new CsvReader(openSource(file, inputs), settings.getCsvFormat());
+			if (!csv.next()) {
+				System.out.println("The file " + file.getName() + " is empty");
+				return null;
+			}
+
+			final List<String> names = new ArrayList<String>(csv.size());
+			for (int i = 0; i < csv.size(); ++i) {
+				final String name = csv.get(i);
+				names.add((name == null) ? "" : name.trim());
+			}
+			return names;
+		} catch (IOException e) {
+			System.out.println("Error reading the file: " + e.getMessage());
+			return null;
+		} finally {
+			close(inputs);
+		}
+	}
+
+
+	/**
+	 * Memory-map the file, split it into ranges that start at the
+	 * beginning of a record, and load each range on its own connection,
+	 * in its own transactions.  If a range fails, the others stop and
+	 * roll back their current transaction.
+	 *
+	 * @param file the CSV file
+	 * @return the number of rows loaded, or -1 on an error
+	 */
+	private long loadParallel(final File file) {
+		final int parts = settings.getParallel();
+		final ExecutorService pool = Executors.newFixedThreadPool(parts);
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			final FileChannel channel = raf.getChannel();
+			final List<CsvSplitter.Range> ranges = CsvSplitter.split(channel, parts,
+					settings.getCsvFormat(), pool);
+			if (ranges.size() < parts) {
+				System.out.println("The file only splits into " + ranges.size()
+						+ ((ranges.size() == 1) ? " range" : " ranges")
+						+ " (each range is at least 1 MB and starts at a record)");
+			}
+
+			System.out.println("Importing " + file.getName() + " into " + tableName
+					+ " over " + ranges.size()
+					+ ((ranges.size() == 1) ? " connection..." : " connections..."));
+			final List<Callable<Long>> tasks = new ArrayList<Callable<Long>>(ranges.size());
+			for (int i = 0; i < ranges.size(); ++i) {
+				final CsvSplitter.Range range = ranges.get(i);
+				final boolean skipHeader = ((i == 0) && settings.hasHeader());
+				tasks.add(new Callable<Long>() {
+					@Override
+					public Long call() {
+						return Long.valueOf(loadRange(channel, range, skipHeader));
+					}
+				});
+			}
+
+			long total = 0L;
+			for (Future<Long> future : pool.invokeAll(tasks)) {
+				final long rows = future.get().longValue();
+				total = (((rows < 0L) || (total < 0L)) ? -1L : (total + rows));
+			}
+			return total;
+		} catch (IOException e) {
+			System.out.println("Error reading the file: " + e.getMessage());
+			return -1L;
+		} catch (InterruptedException e) {
+			Logger.error(e);
+			Thread.currentThread().interrupt();
+			return -1L;
+		} catch (ExecutionException e) {
+			Logger.error(e);
+			return -1L;
+		} finally {
+			pool.shutdownNow();
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					Logger.error(e);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Load one range of the file on a new connection.
+	 *
+	 * @param channel the file channel
+	 * @param range the range of the file
+	 * @param skipHeader whether the range starts with the header line
+	 * @return the number of rows loaded, or -1 on an error
+	 */
+	private long loadRange(final FileChannel channel, final CsvSplitter.Range range,
+			final boolean skipHeader) {
+		final Connection conn = ConnManager.get().openConnection();
+		if (conn == null) {
+			failed = true;
+			return -1L;
+		}
+
+		try {
+			final CsvReader csv = new CsvReader(ByteSource.fromChannel(channel,
+					range.getStart(), range.getEnd()), settings.getCsvFormat());
+			csv.setFirstLine(range.getFirstLine());
+			if (skipHeader && !csv.next()) {
+				return 0L;
+			}
+
+			return load(conn, csv);
+		} catch (IOException e) {
+			System.out.println("Error reading the file: " + e.getMessage());
+			failed = true;
+			return -1L;
+		} finally {
+			try {
+				conn.close();
+			} catch (SQLException e) {
+				Logger.error(e);
+			}
+		}
+	}
+
+
+	/**
+	 * Look up the columns of the table, and choose the ones the CSV
+	 * fields are loaded into.
+	 *
+	 * @param conn the database connection
+	 * @param names the column names for the fields, or null for all
+	 *        of the columns, in table order
+	 * @param fromHeader whether the names are from the header line
+	 * @return whether the columns were found
+	 */
+	private boolean prepare(final Connection conn, final List<String> names,
+			final boolean fromHeader) {
+		final List<TableColumn> tableColumns = Database.getTableColumns(conn, tableName);
+		if ((tableColumns == null) || tableColumns.isEmpty()) {
+			System.out.println("Error getting column information for " + tableName);
+			return false;
+		}
+
+		if (names == null) {
+			columns = tableColumns;
+			return true;
+		}
+
+		columns = new ArrayList<TableColumn>(names.size());
+		for (String name : names) {
+			final TableColumn column = Columns.find(tableColumns, name);
+			if (column == null) {
+				System.out.println("The column " + name + " is not in " + tableName
+						+ (fromHeader ? " (use --columns or --no-header to load by position)" : ""));
+				return false;
+			}
+			columns.add(column);
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Load the records into the table, in one or more transactions.
+	 * On an error, the current transaction is rolled back.
+	 *
+	 * @param conn the database connection
+	 * @param csv the CSV records
+	 * @return the number of rows loaded, or -1 on an error
+	 * @throws IOException an input exception
+	 */
+	private long load(final Connection conn, final CsvReader csv) throws IOException {
+		final int numColumns = columns.size();
+		final int batchSize = settings.getBatchSize();
+		final int commitRows = settings.getCommitRows();
+
+		PreparedStatement ps = null;
+		boolean autoCommit = true;
+		long rows = 0L;
+		int batchRows = 0;
+		long lastCommit = 0L;
+		try {
+			autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			ps = conn.prepareStatement(Columns.buildInsert(tableName, columns));
+			final FieldBinder[] binders = FieldBinder.forColumns(columns);
+
+			while (csv.next()) {
+				if (failed) {
+					conn.rollback();
+					return -1L;
+				} else if (csv.size() != numColumns) {
+					System.out.println(String.format("Line %d has %d fields; expected %d",
+							csv.getLineNumber(), csv.size(), numColumns));
+					failed = true;
+					conn.rollback();
+					return -1L;
+				}
+
+				for (int i = 0; i < numColumns; ++i) {
+					try {
+						binders[i].bind(ps, i + 1, csv, i);
+					} catch (IllegalArgumentException e) {
+						System.out.println(String.format("Line %d: invalid value for %s: %s",
+								csv.getLineNumber(), columns.get(i).getColName(), csv.get(i)));
+						failed = true;
+						conn.rollback();
+						return -1L;
+					}
+				}
+				ps.addBatch();
+				++rows;
+
+				if (++batchRows == batchSize) {
+					ps.executeBatch();
+					batchRows = 0;
+				}
+
+				if ((commitRows > 0) && ((rows - lastCommit) >= commitRows)) {
+					if (batchRows > 0) {
+						ps.executeBatch();
+						batchRows = 0;
+					}
+					conn.commit();
+					committedRows.addAndGet(rows - lastCommit);
+					lastCommit = rows;
+				}
+			}
+
+			if (batchRows > 0) {
+				ps.executeBatch();
+			}
+			conn.commit();
+			committedRows.addAndGet(rows - lastCommit);
+			return rows;
+		} catch (SQLException e) {
+			failed = true;
+			System.out.println("Error loading the rows near line " + csv.getLineNumber()
+					+ ": " + e.getMessage());
+			if (e.getNextException() != null) {
+				System.out.println(e.getNextException().getMessage());
+			}
+			rollback(conn);
+			return -1L;
+		} catch (IOException e) {
+			failed = true;
+			rollback(conn);
+			throw e;
+		} finally {
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (SQLException e) {
+					Logger.error(e);
+				}
+			}
+			try {
+				conn.setAutoCommit(autoCommit);
+			} catch (SQLException e) {
+				Logger.error(e);
+			}
+		}
+	}
+
+
+	/**
+	 * Roll back the current transaction.
+	 *
+	 * @param conn the database connection
+	 */
+	private static void rollback(final Connection conn) {
+		try {
+			conn.rollback();
+		} catch (SQLException e) {
+			Logger.error(e);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package io.miti.dbconn.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The "--name [value]" options entered at the end of a console
+ * command.  A flag (an option that takes no value) never takes
+ * the next phrase as its value; any other option followed by
+ * another option, or by nothing, is also treated as a flag.
+ *
+ * @author mwallace
+ * @version 1.0
+ */
+public final class CommandOptions
+{
+  /**
+   * The value to save for a flag.
+   */
+  private static final String FLAG_VALUE = "true";
+
+  /**
+   * The map of option name (without the leading dashes) to value.
+   */
+  private final Map<String, String> options = new HashMap<String, String>(10);
+
+
+  /**
+   * Default constructor.
+   */
+  public CommandOptions()
+  {
+    super();
+  }
+
+
+  /**
+   * Remove any options from the list of command phrases and
+   * return them.
+   *
+   * @param cmds the parsed command phrases; options are removed from it
+   * @param flags the names of the options that take no value
+   * @return the options
+   */
+  public static CommandOptions extract(final List<String> cmds,
+                                       final Collection<String> flags)
+  {
+    CommandOptions opts = new CommandOptions();
+    if ((cmds == null) || cmds.isEmpty())
+    {
+      return opts;
+    }
+
+    Iterator<String> iter = cmds.iterator();
+    String name = null;
+    while (iter.hasNext())
+    {
+      final String cmd = iter.next();
+      if (cmd.startsWith("--") && (cmd.length() > 2))
+      {
+        // Save any pending flag, and start a new option
+        if (name != null)
+        {
+          opts.options.put(name, FLAG_VALUE);
+        }
+
+        name = cmd.substring(2);
+        iter.remove();
+        if (flags.contains(name))
+        {
+          // A flag leaves the next phrase for the command
+          opts.options.put(name, FLAG_VALUE);
+          name = null;
+        }
+      }
+      else if (name != null)
+      {
+        // This is the value for the last option
+        opts.options.put(name, cmd);
+        name = null;
+        iter.remove();
+      }
+    }
+
+    if (name != null)
+    {
+      opts.options.put(name, FLAG_VALUE);
+    }
+
+    return opts;
+  }
+
+
+  /**
+   * Return the names of the options that take no value, from a
+   * table of option names and usage strings; the usage of an
+   * option that takes a value names it in angle brackets.
+   *
+   * @param options the option name and usage (and any other text) of each option
+   * @return the names of the options that take no value
+   */
+  public static String[] getFlagNames(final String[][] options)
+  {
+    List<String> names = new ArrayList<String>(options.length);
+    for (String[] option : options)
+    {
+      if (option[1].indexOf('<') < 0)
+      {
+        names.add(option[0]);
+      }
+    }
+
+    return names.toArray(new String[names.size()]);
+  }
+
+
+  /**
+   * Return the first option not in the list of supported names,
+   * or null if they are all supported.
+   *
+   * @param names the supported option names
+   * @return the first unsupported option name, or null
+   */
+  public String findUnknown(final String... names)
+  {
+    for (String key : options.keySet())
+    {
+      boolean found = false;
+      for (String name : names)
+      {
+        if (name.equals(key))
+        {
+          found = true;
+          break;
+        }
+      }
+
+      if (!found)
+      {
+        return key;
+      }
+    }
+
+    return null;
+  }
+
+
+  /**
+   * Return whether the option was specified.
+   *
+   * @param name the option name
+   * @return whether the option was specified
+   */
+  public boolean has(final String name)
+  {
+    return options.containsKey(name);
+  }
+
+
+  /**
+   * Return whether there are no options.
+   *
+   * @return whether there are no options
+   */
+  public boolean isEmpty()
+  {
+    return options.isEmpty();
+  }
+
+
+  /**
+   * Return the value of an option as a string.
+   *
+   * @param name the option name
+   * @param defaultValue the value to return if the option is missing
+   * @return the option value
+   */
+  public String getString(final String name, final String defaultValue)
+  {
+    final String value = options.get(name);
+    return ((value == null) ? defaultValue : value);
+  }
+
+
+  /**
+   * Return the value of an option as an integer.
+   *
+   * @param name the option name
+   * @param defaultValue the value to return if the option is missing or invalid
+   * @return the option value
+   */
+  public int getInt(final String name, final int defaultValue)
+  {
+    return Utility.getStringAsInteger(options.get(name), defaultValue, defaultValue);
+  }
+}
@@ -27,6 +27,7 @@ public final class ConnManager {
 	private String url = null;
 	private String user = null;
 	private String pw = null;
+	private String schema = null;
 	
 	private Set<String> history = new java.util.LinkedHashSet<String>(5);
 	
@@ -109,9 +110,58 @@ public final class ConnManager {
 			url = null;
 			user = null;
 			pw = null;
+			schema = null;
 		}
 	}
 	
+	/**
+	 * Open an additional connection to the current database, such
+	 * as for a worker thread.  The caller must close it.
+	 * 
+	 * @return the new connection, or null on error
+	 */
+	public Connection openConnection() {
+		final Connection extra = openConnection(url, user, pw);
+		if ((extra != null) && (schema != null)) {
+			connectToSchema(schema, extra);
+		}
+		
+		return extra;
+	}
+	
+	/**
+	 * Open a connection to another database, without changing the
+	 * current connection.  The caller must close it.
+	 * 
+	 * @param sUrl the JDBC URL
+	 * @param sUser the user name
+	 * @param sPass the password
+	 * @return the new connection, or null on error
+	 */
+	public Connection openConnection(final String sUrl, final String sUser, final String sPass) {
+		Connection extra = null;
+		try {
+			extra = DriverManager.getConnection(sUrl, sUser, sPass);
+			if (extra == null) {
+				System.err.println("Error: The generated connection is null");
+			}
+		} catch (SQLException e) {
+			System.err.println("Exception in connection: " + e.getMessage());
+		}
+		
+		return extra;
+	}
+	
+	/**
+	 * Save the schema selected for the current connection, so it
+	 * can be used for additional connections.
+	 * 
+	 * @param sSchema the schema name
+	 */
+	public void setSchema(final String sSchema) {
+		schema = sSchema;
+	}
+	
 	public boolean isNull() {
 		return (conn == null);
 	}
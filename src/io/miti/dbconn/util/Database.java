@@ -6,6 +6,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -15,6 +16,16 @@ public final class Database {
 	
   private static boolean useUserNameForSchema = false;
   
+  /**
+   * The default number of rows to fetch per round trip.
+   */
+  public static final int DEFAULT_FETCH_SIZE = 1000;
+  
+  /**
+   * The session fetch size for queries (0 means use the driver default).
+   */
+  private static int fetchSize = DEFAULT_FETCH_SIZE;
+  
 	/**
 	 * Default constructor.  Private.
 	 */
@@ -51,7 +62,7 @@ public final class Database {
 	    {
 	      // Create the Statement object from the connection
 	      Connection conn = ConnManager.get().getConn();
-	      stmt = conn.prepareStatement(sqlCmd);
+	      stmt = prepareQuery(conn, sqlCmd, fetchSize);
 	      if (null != stmt)
 	      {
 	        // Now execute the query and save the result set
@@ -123,8 +134,191 @@ public final class Database {
 	    // Return the result of the operation
 	    return results;
 	  }
-	
-	
+
+
+	  /**
+	   * Executes a database SELECT, passing each row to the handler
+	   * as it is fetched, so the results are never held in memory.
+	   *
+	   * @param sqlCmd the database statement to execute
+	   * @param handler the handler for each row
+	   * @return the number of rows processed, or -1 on error
+	   */
+	  public static long executeSelect(final String sqlCmd,
+	                                   final RowHandler handler)
+	  {
+	    return executeSelect(sqlCmd, fetchSize, handler);
+	  }
+
+
+	  /**
+	   * Executes a database SELECT, passing each row to the handler
+	   * as it is fetched, using the specified fetch size.
+	   *
+	   * @param sqlCmd the database statement to execute
+	   * @param rowsPerFetch the fetch size (0 for the driver default)
+	   * @param handler the handler for each row
+	   * @return the number of rows processed, or -1 on error
+	   */
+	  public static long executeSelect(final String sqlCmd,
+	                                   final int rowsPerFetch,
+	                                   final RowHandler handler)
+	  {
+	    return executeSelect(ConnManager.get().getConn(), sqlCmd,
+	                         rowsPerFetch, handler);
+	  }
+
+
+	  /**
+	   * Executes a database SELECT on the specified connection, passing
+	   * each row to the handler as it is fetched.
+	   *
+	   * @param conn the database connection
+	   * @param sqlCmd the database statement to execute
+	   * @param rowsPerFetch the fetch size (0 for the driver default)
+	   * @param handler the handler for each row
+	   * @return the number of rows processed, or -1 on error
+	   */
+	  public static long executeSelect(final Connection conn,
+	                                   final String sqlCmd,
+	                                   final int rowsPerFetch,
+	                                   final RowHandler handler)
+	  {
+	    return executeSelect(conn, sqlCmd, null, rowsPerFetch, 0, handler);
+	  }
+
+
+	  /**
+	   * Executes a database SELECT on the specified connection, with
+	   * parameters and a row limit, passing each row to the handler
+	   * as it is fetched.
+	   *
+	   * @param conn the database connection
+	   * @param sqlCmd the database statement to execute
+	   * @param params the values for the parameters in the query, or null
+	   * @param rowsPerFetch the fetch size (0 for the driver default)
+	   * @param maxRows the most rows to return (0 for no limit)
+	   * @param handler the handler for each row
+	   * @return the number of rows processed, or -1 on error
+	   */
+	  public static long executeSelect(final Connection conn,
+	                                   final String sqlCmd,
+	                                   final Object[] params,
+	                                   final int rowsPerFetch,
+	                                   final int maxRows,
+	                                   final RowHandler handler)
+	  {
+	    // Check the SQL command
+	    if ((sqlCmd == null) || (sqlCmd.length() < 1))
+	    {
+	      return -1L;
+	    }
+
+	    Logger.info("DB Query: " + sqlCmd);
+
+	    long rowCount = 0L;
+
+	    // Execute the statement and stream the rows to the handler
+	    boolean inCursor = false;
+	    PreparedStatement stmt = null;
+	    ResultSet rs = null;
+	    try
+	    {
+	      // Create the Statement object from the connection
+	      inCursor = beginCursor(conn, rowsPerFetch);
+	      stmt = prepareQuery(conn, sqlCmd, rowsPerFetch);
+	      if (null != stmt)
+	      {
+	        // Set the parameters and the row limit
+	        if (params != null)
+	        {
+	          for (int i = 0; i < params.length; ++i)
+	          {
+	            stmt.setObject(i + 1, params[i]);
+	          }
+	        }
+	        
+	        if (maxRows > 0)
+	        {
+	          stmt.setMaxRows(maxRows);
+	        }
+	        
+	        // Now execute the query and save the result set
+	        rs = stmt.executeQuery();
+
+	        // Check for a result
+	        if (rs != null)
+	        {
+	          handler.startResults(rs.getMetaData());
+	          while (rs.next()) {
+	            ++rowCount;
+	            if (!handler.processRow(rs)) {
+	              break;
+	            }
+	          }
+
+	          // Close the result set
+	          rs.close();
+	          rs = null;
+	        }
+
+	        // Close the statement
+	        stmt.close();
+	        stmt = null;
+	      }
+	    }
+	    catch (SQLException sqlex)
+	    {
+	      Logger.error(sqlex);
+	      rowCount = -1L;
+	    }
+	    catch (Exception ex)
+	    {
+	      Logger.error(ex, -1);
+	      rowCount = -1L;
+	    }
+	    finally
+	    {
+	      // Close the ResultSet if it's not null
+	      try
+	      {
+	        if (rs != null)
+	        {
+	          rs.close();
+	          rs = null;
+	        }
+	      }
+	      catch (SQLException sqle)
+	      {
+	        Logger.error(sqle);
+	      }
+
+	      // Close the Statement if it's not null
+	      try
+	      {
+	        if (stmt != null)
+	        {
+	          stmt.close();
+	          stmt = null;
+	        }
+	      }
+	      catch (SQLException sqle)
+	      {
+	        Logger.error(sqle);
+	      }
+	      
+	      // End the transaction used for the cursor
+	      if (inCursor)
+	      {
+	        endCursor(conn);
+	      }
+	    }
+
+	    // Return the number of rows
+	    return rowCount;
+	  }
+
+
 	public static List<String> getTableNames(final String tablePattern) {
 		// This will hold the list of table names
 		List<String> tableNames = new ArrayList<String>(20);
@@ -263,6 +457,211 @@ public final class Database {
 	  }
 	  
 	  
+	  /**
+	   * Returns the columns in the table, in order, with their types.
+	   * 
+	   * @param conn the database connection
+	   * @param table the table name
+	   * @return the list of columns, or null on error
+	   */
+	  public static List<TableColumn> getTableColumns(final Connection conn,
+	                                                  final String table)
+	  {
+	    List<TableColumn> columns = new ArrayList<TableColumn>(10);
+	    try
+	    {
+	      DatabaseMetaData dbmd = conn.getMetaData();
+	      ResultSet rs = dbmd.getColumns(conn.getCatalog(), getSchemaName(dbmd), table, null);
+	      while (rs.next())
+	      {
+	        columns.add(TableColumn.fromMetaData(rs.getString("COLUMN_NAME"),
+	            rs.getInt("DATA_TYPE"), rs.getString("TYPE_NAME"), false));
+	      }
+	      rs.close();
+	    }
+	    catch (SQLException e)
+	    {
+	      Logger.error(e);
+	      return null;
+	    }
+	    
+	    return columns;
+	  }
+	  
+	  
+	  /**
+	   * Returns a CREATE TABLE statement for a table, from the column
+	   * metadata on the specified connection, so the table can be
+	   * created in another database.  Standard SQL type names are used
+	   * for the standard JDBC types, and the database's own type name
+	   * for anything else.
+	   * 
+	   * @param conn the database connection
+	   * @param table the table name
+	   * @return the statement, or null if the table has no columns
+	   */
+	  public static String getCreateTable(final Connection conn,
+	                                      final String table)
+	  {
+	    final Set<String> pkColumns = getPrimaryKeyColumns(conn, table);
+	    StringBuilder sb = new StringBuilder(200);
+	    List<String> keys = new ArrayList<String>(pkColumns.size());
+	    try
+	    {
+	      DatabaseMetaData dbmd = conn.getMetaData();
+	      ResultSet rs = dbmd.getColumns(conn.getCatalog(), getSchemaName(dbmd), table, null);
+	      while (rs.next())
+	      {
+	        final String colName = rs.getString("COLUMN_NAME");
+	        final String colType = getStandardType(rs.getInt("DATA_TYPE"),
+	            rs.getString("TYPE_NAME"), rs.getInt("COLUMN_SIZE"),
+	            rs.getInt("DECIMAL_DIGITS"));
+	        final boolean isNotNullable =
+	          (rs.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls);
+	        
+	        sb.append((sb.length() == 0) ? "create table " + table + " (\n  " : ",\n  ");
+	        sb.append(colName).append(' ').append(colType);
+	        if (isNotNullable)
+	        {
+	          sb.append(" not null");
+	        }
+	        
+	        if (pkColumns.contains(colName))
+	        {
+	          keys.add(colName);
+	        }
+	      }
+	      rs.close();
+	    }
+	    catch (SQLException e)
+	    {
+	      Logger.error(e);
+	      return null;
+	    }
+	    
+	    if (sb.length() == 0)
+	    {
+	      return null;
+	    }
+	    
+	    if (!keys.isEmpty())
+	    {
+	      sb.append(",\n  primary key (");
+	      for (int i = 0; i < keys.size(); ++i)
+	      {
+	        sb.append((i == 0) ? "" : ", ").append(keys.get(i));
+	      }
+	      sb.append(")");
+	    }
+	    
+	    return sb.append("\n)").toString();
+	  }
+	  
+	  
+	  /**
+	   * Returns the standard SQL name of a column type, with its size
+	   * where the type takes one.
+	   * 
+	   * @param dataType the JDBC type (from java.sql.Types)
+	   * @param typeName the database's name for the type
+	   * @param colSize the column size, or precision
+	   * @param decDigits the number of decimal digits
+	   * @return the type
+	   */
+	  private static String getStandardType(final int dataType,
+	                                        final String typeName,
+	                                        final int colSize,
+	                                        final int decDigits)
+	  {
+	    // Unsigned integers (as in MySQL) need the next larger type
+	    final boolean unsigned = ((typeName != null)
+	        && (typeName.toUpperCase().indexOf("UNSIGNED") >= 0));
+	    String type = typeName;
+	    switch (dataType)
+	    {
+	      case Types.CHAR:
+	      case Types.NCHAR:
+	        type = "char(" + colSize + ")";
+	        break;
+	      
+	      case Types.VARCHAR:
+	      case Types.NVARCHAR:
+	        type = "varchar(" + colSize + ")";
+	        break;
+	      
+	      case Types.BINARY:
+	      case Types.VARBINARY:
+	        type = "varbinary(" + colSize + ")";
+	        break;
+	      
+	      case Types.DECIMAL:
+	      case Types.NUMERIC:
+	        type = ((colSize <= 0) ? "numeric" :
+	          "numeric(" + colSize + ", " + Math.max(0, decDigits) + ")");
+	        break;
+	      
+	      case Types.TINYINT:
+	        type = "smallint";
+	        break;
+	      
+	      case Types.SMALLINT:
+	        type = (unsigned ? "integer" : "smallint");
+	        break;
+	      
+	      case Types.INTEGER:
+	        type = (unsigned ? "bigint" : "integer");
+	        break;
+	      
+	      case Types.BIGINT:
+	        type = (unsigned ? "numeric(20, 0)" : "bigint");
+	        break;
+	      
+	      case Types.REAL:
+	        type = "real";
+	        break;
+	      
+	      case Types.FLOAT:
+	      case Types.DOUBLE:
+	        type = "double precision";
+	        break;
+	      
+	      case Types.BIT:
+	      case Types.BOOLEAN:
+	        type = "boolean";
+	        break;
+	      
+	      case Types.DATE:
+	        type = "date";
+	        break;
+	      
+	      case Types.TIME:
+	        type = "time";
+	        break;
+	      
+	      case Types.TIMESTAMP:
+	        type = "timestamp";
+	        break;
+	      
+	      case Types.CLOB:
+	      case Types.NCLOB:
+	      case Types.LONGVARCHAR:
+	      case Types.LONGNVARCHAR:
+	        type = "clob";
+	        break;
+	      
+	      case Types.BLOB:
+	      case Types.LONGVARBINARY:
+	        type = "blob";
+	        break;
+	      
+	      default:
+	        break;
+	    }
+	    
+	    return type;
+	  }
+	  
+	  
 	  /**
 	   * Returns information about the columns in the table.
 	   * 
@@ -270,6 +669,21 @@ public final class Database {
 	   * @return the list of table info
 	   */
 	  public static Set<String> getPrimaryKeyColumns(final String table)
+	  {
+	    return getPrimaryKeyColumns(ConnManager.get().getConn(), table);
+	  }
+	  
+	  
+	  /**
+	   * Returns the names of the primary key columns of a table, on
+	   * the specified connection.
+	   * 
+	   * @param conn the database connection
+	   * @param table the table name
+	   * @return the primary key column names
+	   */
+	  public static Set<String> getPrimaryKeyColumns(final Connection conn,
+	                                                 final String table)
 	  {
 	    // This is the object that gets returned
 	    Set<String> listColumns = new HashSet<String>(5);
@@ -278,7 +692,6 @@ public final class Database {
 	    try
 	    {
 	      // Get the database metadata
-		  Connection conn = ConnManager.get().getConn();
 	      DatabaseMetaData dbmd = conn.getMetaData();
 	      
 	      // Get the primary key column names
@@ -310,6 +723,116 @@ public final class Database {
 	  
 	  
 	  
+	  /**
+	   * Returns the approximate number of rows in a table, from the
+	   * index statistics in the database metadata, so the table itself
+	   * is not scanned.
+	   * 
+	   * @param table the table name
+	   * @return the estimated number of rows, or -1 if it's not known
+	   */
+	  public static long getRowEstimate(final String table)
+	  {
+	    long estimate = -1L;
+	    try
+	    {
+	      // Get the database metadata
+	      final Connection conn = ConnManager.get().getConn();
+	      DatabaseMetaData dbmd = conn.getMetaData();
+	      
+	      // Get the approximate index statistics
+	      ResultSet rs = dbmd.getIndexInfo(conn.getCatalog(), getSchemaName(dbmd),
+	                                       table, false, true);
+	      
+	      // Use the table statistic if there is one, else the largest index
+	      long tableRows = -1L;
+	      while (rs.next())
+	      {
+	        final long cardinality = rs.getLong("CARDINALITY");
+	        if (rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic)
+	        {
+	          tableRows = cardinality;
+	        }
+	        else
+	        {
+	          estimate = Math.max(estimate, cardinality);
+	        }
+	      }
+	      
+	      // Close the result set
+	      rs.close();
+	      rs = null;
+	      
+	      if (tableRows >= 0L)
+	      {
+	        estimate = tableRows;
+	      }
+	    }
+	    catch (SQLException e)
+	    {
+	      Logger.error(e);
+	    }
+	    
+	    return estimate;
+	  }
+	  
+	  
+	  /**
+	   * Returns the names of the columns in the primary key of a
+	   * table, in key order.
+	   * 
+	   * @param table the table name
+	   * @return the list of primary key columns
+	   */
+	  public static List<String> getPrimaryKeyColumnList(final String table)
+	  {
+	    // This is the object that gets returned
+	    List<String> listColumns = new ArrayList<String>(5);
+	    
+	    try
+	    {
+	      // Get the database metadata
+	      Connection conn = ConnManager.get().getConn();
+	      DatabaseMetaData dbmd = conn.getMetaData();
+	      
+	      // Get the primary key column names, in any order
+	      ResultSet rs = dbmd.getPrimaryKeys(conn.getCatalog(), getSchemaName(dbmd), table);
+	      List<String> names = new ArrayList<String>(5);
+	      List<Integer> seqs = new ArrayList<Integer>(5);
+	      while (rs.next())
+	      {
+	        names.add(rs.getString("COLUMN_NAME"));
+	        seqs.add(Integer.valueOf(rs.getInt("KEY_SEQ")));
+	      }
+	      
+	      // Close the result set
+	      rs.close();
+	      rs = null;
+	      
+	      // Put the names in key order
+	      for (int seq = 1; listColumns.size() < names.size(); ++seq)
+	      {
+	        final int index = seqs.indexOf(Integer.valueOf(seq));
+	        if (index < 0)
+	        {
+	          // The sequence numbers are not usable, so keep the original order
+	          listColumns.clear();
+	          listColumns.addAll(names);
+	          break;
+	        }
+	        listColumns.add(names.get(index));
+	      }
+	    }
+	    catch (SQLException e)
+	    {
+	      Logger.error(e);
+	    }
+	    
+	    // Return the column info
+	    return listColumns;
+	  }
+	  
+	  
 	  /**
 	   * Executes a database SELECT that returns a single integer, such
 	   * as 'select count(x) from y'.
@@ -337,7 +860,7 @@ public final class Database {
 	    {
 	      // Create the Statement object from the connection
 	      final Connection conn = ConnManager.get().getConn();
-	      stmt = conn.prepareStatement(sqlCmd);
+	      stmt = prepareQuery(conn, sqlCmd, 0);
 	      if (null != stmt)
 	      {
 	        // Now execute the query and save the result set
@@ -439,6 +962,107 @@ public final class Database {
 			return schemas;
 		}
 		
+	  /**
+	   * Create a forward-only, read-only statement for a query, with
+	   * the fetch size set for the driver behind the connection.
+	   * 
+	   * @param conn the database connection
+	   * @param sqlCmd the query
+	   * @param rowsPerFetch the fetch size (0 for the driver default)
+	   * @return the statement
+	   * @throws SQLException a database exception
+	   */
+	  public static PreparedStatement prepareQuery(final Connection conn,
+	                                               final String sqlCmd,
+	                                               final int rowsPerFetch)
+	    throws SQLException
+	  {
+	    PreparedStatement stmt = conn.prepareStatement(sqlCmd,
+	        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+	    if (rowsPerFetch > 0)
+	    {
+	      // MySQL ignores the fetch size and buffers the whole result,
+	      // unless it's asked to stream one row at a time
+	      final String url = conn.getMetaData().getURL();
+	      final boolean isMySQL = "mysql".equals(getDriverRef(url)) &&
+	                              !url.contains("useCursorFetch=true");
+	      stmt.setFetchSize(isMySQL ? Integer.MIN_VALUE : rowsPerFetch);
+	    }
+	    
+	    return stmt;
+	  }
+	  
+	  
+	  /**
+	   * Turn off auto-commit for drivers that only use a server-side
+	   * cursor inside a transaction (such as PostgreSQL).
+	   * 
+	   * @param conn the database connection
+	   * @param rowsPerFetch the fetch size
+	   * @return whether auto-commit was turned off
+	   * @throws SQLException a database exception
+	   */
+	  private static boolean beginCursor(final Connection conn,
+	                                     final int rowsPerFetch)
+	    throws SQLException
+	  {
+	    if ((rowsPerFetch <= 0) || !conn.getAutoCommit())
+	    {
+	      return false;
+	    }
+	    
+	    final String ref = getDriverRef(conn.getMetaData().getURL());
+	    if (!"postgresql".equals(ref))
+	    {
+	      return false;
+	    }
+	    
+	    conn.setAutoCommit(false);
+	    return true;
+	  }
+	  
+	  
+	  /**
+	   * End the transaction started by beginCursor(), and turn
+	   * auto-commit back on.
+	   * 
+	   * @param conn the database connection
+	   */
+	  private static void endCursor(final Connection conn)
+	  {
+	    try
+	    {
+	      conn.rollback();
+	      conn.setAutoCommit(true);
+	    }
+	    catch (SQLException sqle)
+	    {
+	      Logger.error(sqle);
+	    }
+	  }
+	  
+	  
+	  /**
+	   * Return the JDBC reference (such as "postgresql") for a URL.
+	   * 
+	   * @param url the JDBC URL
+	   * @return the reference, or null if it's not a known driver
+	   */
+	  public static String getDriverRef(final String url)
+	  {
+	    final JdbcInfo info = JdbcManager.get().findByUrl(url);
+	    return ((info == null) ? null : info.getRef());
+	  }
+		
+		
+		public static void setFetchSize(final int rowsPerFetch) {
+		  fetchSize = Math.max(0, rowsPerFetch);
+		}
+		
+		public static int getFetchSize() {
+		  return fetchSize;
+		}
+		
 		private static String getSchemaName(final DatabaseMetaData dbmd) throws SQLException {
 		  return (useUserNameForSchema ? dbmd.getUserName() : null);
 		}
@@ -0,0 +1,36 @@
+package io.miti.dbconn.util;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Callback for processing the rows of a query one at a time,
+ * as they are fetched from the database.
+ * 
+ * @author mwallace
+ * @version 1.0
+ */
+public interface RowHandler
+{
+  /**
+   * Called once, before the first row is processed.
+   * 
+   * @param metaData the metadata for the result set
+   * @throws SQLException a database exception
+   * @throws IOException an output exception
+   */
+  void startResults(ResultSetMetaData metaData) throws SQLException, IOException;
+  
+  
+  /**
+   * Process the current row of the result set.
+   * 
+   * @param rs the result set, positioned on the current row
+   * @return whether to continue processing rows
+   * @throws SQLException a database exception
+   * @throws IOException an output exception
+   */
+  boolean processRow(ResultSet rs) throws SQLException, IOException;
+}
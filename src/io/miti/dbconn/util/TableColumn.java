@@ -97,6 +97,11 @@ public final class TableColumn
    */
   private String fieldName = null;
   
+  /**
+   * The JDBC type (from java.sql.Types), if known.
+   */
+  private int sqlType = java.sql.Types.OTHER;
+  
   
   /**
    * Default constructor.
@@ -128,6 +133,30 @@ public final class TableColumn
   }
   
   
+  /**
+   * Create a column from the database metadata.
+   * 
+   * @param name the column name
+   * @param dbType the JDBC type (from java.sql.Types)
+   * @param typeStr the database type as a String
+   * @param isPK whether this column is part of the primary key
+   * @return the column
+   */
+  public static TableColumn fromMetaData(final String name,
+                                         final int dbType,
+                                         final String typeStr,
+                                         final boolean isPK)
+  {
+    // MySQL names unsigned columns as, for example, INT UNSIGNED
+    final boolean signed = ((typeStr == null)
+                            || (typeStr.toUpperCase().indexOf("UNSIGNED") < 0));
+    TableColumn col = new TableColumn(name, getJavaTypeForDBType(dbType, typeStr, signed),
+                                      name, isPK);
+    col.sqlType = dbType;
+    return col;
+  }
+  
+  
   /**
    * Returns the column name.
    * 
@@ -150,6 +179,17 @@ public final class TableColumn
   }
   
   
+  /**
+   * Returns the JDBC type (from java.sql.Types).
+   * 
+   * @return the JDBC type
+   */
+  public int getSqlType()
+  {
+    return sqlType;
+  }
+  
+  
   /**
    * Returns the field name.
    * 
@@ -172,6 +212,37 @@ public final class TableColumn
   }
   
   
+  /**
+   * Convert a database type to a Java type, allowing for unsigned
+   * integers (as in MySQL), whose values can be too large for the
+   * signed Java type: an unsigned INTEGER is a long, and an unsigned
+   * BIGINT is a decimal.
+   * 
+   * @param dbType the database type
+   * @param typeStr the database type as a String
+   * @param signed whether the column is signed
+   * @return the corresponding Java type
+   */
+  public static int getJavaTypeForDBType(final int dbType,
+                                         final String typeStr,
+                                         final boolean signed)
+  {
+    if (!signed)
+    {
+      if (dbType == java.sql.Types.INTEGER)
+      {
+        return COL_LONG;
+      }
+      else if (dbType == java.sql.Types.BIGINT)
+      {
+        return COL_DECIMAL;
+      }
+    }
+    
+    return getJavaTypeForDBType(dbType, typeStr);
+  }
+  
+  
   /**
    * Convert a database type to a Java type.
    * 
@@ -198,6 +269,7 @@ public final class TableColumn
         break;
       
       case java.sql.Types.CHAR:
+      case java.sql.Types.NCHAR:
         javaType = COL_STRING;
         break;
       
@@ -226,6 +298,13 @@ public final class TableColumn
         
       case java.sql.Types.VARCHAR:
       case java.sql.Types.LONGVARCHAR:
+      case java.sql.Types.NVARCHAR:
+      case java.sql.Types.LONGNVARCHAR:
+        javaType = COL_STRING;
+        break;
+        
+      case java.sql.Types.TIME:
+        /* Times of day are kept as strings */
         javaType = COL_STRING;
         break;
         
@@ -235,6 +314,7 @@ public final class TableColumn
       	break;
       
       case java.sql.Types.CLOB:
+      case java.sql.Types.NCLOB:
         javaType = COL_CLOB;
         break;
         
@@ -247,7 +327,9 @@ public final class TableColumn
         break;
         
       case java.sql.Types.OTHER:
+      case java.sql.Types.BINARY:
       case java.sql.Types.VARBINARY:
+      case java.sql.Types.LONGVARBINARY:
         javaType = COL_OBJECT;
         break;
         